@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One changed value going through the {@link AggregateEngine}, and one read of an aggregate: every point has min,
+ * max and avg over 5 minutes and count over an hour, so an update adds to two windows. The cost must not depend on
+ * the number of buckets, except once per bucket when a window moves on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregateEngineBenchmark {
+
+    private static final int POINTS = 1000;
+
+    /**
+     * Buckets per window.
+     */
+    @Param({"60", "600"})
+    public int buckets;
+
+    private PointStore store;
+    private AggregateEngine aggregateEngine;
+    private GatewayPoint[] points;
+    private NodeId[] averages;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        BenchmarkServer server = new BenchmarkServer();
+
+        Properties properties = new Properties();
+        properties.setProperty("aggregates.buckets", String.valueOf(buckets));
+        properties.setProperty("aggregates.temperature", "min:300000,max:300000,avg:300000,count:3600000");
+
+        Metrics metrics = new Metrics();
+        store = new PointStore(metrics);
+        aggregateEngine = new AggregateEngine(new Config(properties), store, metrics);
+
+        points = new GatewayPoint[POINTS];
+        averages = new NodeId[POINTS];
+
+        for (int i = 0; i < POINTS; i++) {
+            UaVariableNode node = server.newVariableNode("Temperature" + i, 0.0);
+            node.setDataType(Identifiers.Double);
+
+            int id = i;
+            points[i] = store.newPoint(Gateway.DEFAULT, i, "temperature", node, null);
+            aggregateEngine.add(points[i], (name, dataType) -> {
+                UaVariableNode aggregateNode = server.newVariableNode("Temperature" + id + "." + name, 0.0);
+                if (name.startsWith("avg")) averages[id] = aggregateNode.getNodeId();
+                return aggregateNode;
+            });
+        }
+    }
+
+    @Benchmark
+    public void update() {
+        int i = next;
+        next = (next + 1) % POINTS;
+
+        store.write(points[i], PointStore.toBits(PointStore.KIND_DOUBLE, 20 + (next & 7)), null, 0,
+            DateTime.now().getUtcTime());
+        aggregateEngine.onUpdate(points[i]);
+    }
+
+    @Benchmark
+    public DataValue read() {
+        int i = next;
+        next = (next + 1) % POINTS;
+
+        return aggregateEngine.get(averages[i]);
+    }
+
+}
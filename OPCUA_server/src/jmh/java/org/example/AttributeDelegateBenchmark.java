@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegateChain;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads and writes of a node's Value attribute through the {@link Namespace} delegate chains: a plain
+ * {@link ValueLoggingDelegate} as on the static nodes, and {@link CachingDelegate} -> {@link ValueLoggingDelegate}
+ * as on gateway-polled nodes. External (session) access is what gets logged.
+ * <p>
+ * External operations are recorded in an {@link AuditLog} writing to {@code target/jmh-audit.log}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeDelegateBenchmark {
+
+    /**
+     * Per-node audit rate limit ({@code audit.maxPerSecond}); 0 records every operation.
+     */
+    @Param({"0", "100"})
+    public int maxPerSecond;
+
+    private final DataValue on = new DataValue(new Variant(true));
+    private final DataValue off = new DataValue(new Variant(false));
+
+    private BenchmarkServer server;
+    private UaVariableNode loggingNode;
+    private UaVariableNode cachedNode;
+    private PointStore store;
+
+    private AuditLog auditLog;
+
+    private boolean toggle;
+
+    @Setup
+    public void setup() {
+        server = new BenchmarkServer();
+
+        Properties properties = new Properties();
+        properties.setProperty("audit.file", "target/jmh-audit.log");
+        properties.setProperty("audit.maxPerSecond", String.valueOf(maxPerSecond));
+        auditLog = new AuditLog(new Config(properties));
+
+        loggingNode = server.newVariableNode("Logging", false);
+        loggingNode.setAttributeDelegate(new ValueLoggingDelegate(auditLog));
+
+        PointIndex pointIndex = new PointIndex();
+        store = new PointStore(new Metrics());
+        GatewayCache cache = new GatewayCache(BenchmarkServer.EMPTY_CONFIG, store, this::reload);
+
+        cachedNode = server.newVariableNode("Cached", false);
+        cachedNode.setAttributeDelegate(AttributeDelegateChain.create(
+            new CachingDelegate(null, pointIndex, store, cache),
+            parent -> new ValueLoggingDelegate(parent, auditLog)
+        ));
+
+        GatewayPoint point = store.newPoint(Gateway.DEFAULT, 1, "alarm", cachedNode, null);
+        pointIndex.add(point);
+        store.write(point, true, 0);
+    }
+
+    /**
+     * Stands in for the gateway round trip when a value goes stale.
+     */
+    private CompletableFuture<Void> reload(GatewayPoint point) {
+        store.touch(point);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        auditLog.close();
+    }
+
+    @Benchmark
+    public DataValue readInternal() {
+        return loggingNode.getAttribute(server.internalContext, AttributeId.Value);
+    }
+
+    @Benchmark
+    public DataValue readExternal() {
+        return loggingNode.getAttribute(server.externalContext, AttributeId.Value);
+    }
+
+    @Benchmark
+    public DataValue readExternalCached() {
+        return cachedNode.getAttribute(server.externalContext, AttributeId.Value);
+    }
+
+    @Benchmark
+    public void writeInternal() throws UaException {
+        loggingNode.setAttribute(server.internalContext, AttributeId.Value, (toggle = !toggle) ? on : off);
+    }
+
+    @Benchmark
+    public void writeExternal() throws UaException {
+        loggingNode.setAttribute(server.externalContext, AttributeId.Value, (toggle = !toggle) ? on : off);
+    }
+
+}
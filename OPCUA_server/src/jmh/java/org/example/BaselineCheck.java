@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Compares a JMH JSON result with the checked-in baseline and fails when a benchmark regressed by more than the
+ * tolerance.
+ * <p>
+ * Usage: {@code BaselineCheck <result.json> <baseline.json> <tolerance>}, e.g. a tolerance of {@code 0.25} allows
+ * scores 25% worse than the baseline. Benchmarks missing from either file are listed but not checked, so a run of a
+ * subset ({@code -Djmh.args=...}) only checks what it ran. Runs of a {@code virtual} mode on a JVM older than Java 21
+ * measured the platform fallback, so they are skipped too. To accept new numbers, copy the result over the baseline,
+ * recorded on Java 21 so that every benchmark measures what it says.
+ */
+public class BaselineCheck {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: BaselineCheck <result.json> <baseline.json> <tolerance>");
+            System.exit(2);
+        }
+
+        Path resultFile = Paths.get(args[0]);
+        Path baselineFile = Paths.get(args[1]);
+        double tolerance = Double.parseDouble(args[2]);
+
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline at " + baselineFile + ", nothing to compare");
+            return;
+        }
+
+        Map<String, JSONObject> results = read(resultFile);
+        Map<String, JSONObject> baseline = read(baselineFile);
+
+        int regressions = 0;
+
+        for (Map.Entry<String, JSONObject> entry : results.entrySet()) {
+            JSONObject expected = baseline.get(entry.getKey());
+
+            if (expected == null) {
+                System.out.printf("  new        %s%n", entry.getKey());
+                continue;
+            }
+
+            String jdkVersion = entry.getValue().optString("jdkVersion", "");
+            if (entry.getKey().contains("mode=virtual") && major(jdkVersion) < 21) {
+                System.out.printf("  skipped    %s: no virtual threads on Java %s%n", entry.getKey(), jdkVersion);
+                continue;
+            }
+
+            JSONObject metric = entry.getValue().getJSONObject("primaryMetric");
+            double score = metric.getDouble("score");
+            double baselineScore = expected.getJSONObject("primaryMetric").getDouble("score");
+
+            // Time per operation: lower is better; operations per time: higher is better
+            boolean higherIsBetter = metric.getString("scoreUnit").startsWith("ops/");
+            double change = higherIsBetter ? baselineScore / score - 1 : score / baselineScore - 1;
+
+            boolean regressed = change > tolerance;
+            if (regressed) regressions++;
+
+            System.out.printf(
+                "  %-10s %s: %.3f %s (baseline %.3f, %+.1f%%)%n",
+                regressed ? "REGRESSED" : "ok", entry.getKey(), score, metric.getString("scoreUnit"),
+                baselineScore, change * 100);
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.printf("  not run    %s%n", key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.err.printf(
+                "%d benchmark(s) more than %.0f%% worse than %s%n", regressions, tolerance * 100, baselineFile);
+            System.exit(1);
+        }
+    }
+
+    private static int major(String jdkVersion) {
+        try {
+            return Integer.parseInt(jdkVersion.split("[.+-]")[0]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the benchmarks in a JMH JSON result, keyed by name and parameters.
+     */
+    private static Map<String, JSONObject> read(Path file) throws IOException {
+        JSONArray runs = new JSONArray(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        Map<String, JSONObject> benchmarks = new TreeMap<>();
+
+        for (int i = 0; i < runs.length(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            String key = run.getString("benchmark").replace("org.example.", "");
+
+            JSONObject params = run.optJSONObject("params");
+            if (params != null) {
+                key += new TreeMap<>(params.toMap());
+            }
+
+            benchmarks.put(key, run);
+        }
+
+        return benchmarks;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.time.Duration;
+import java.util.Properties;
+
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.Session;
+import org.eclipse.milo.opcua.sdk.server.UaNodeManager;
+import org.eclipse.milo.opcua.sdk.server.api.NodeManager;
+import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig;
+import org.eclipse.milo.opcua.sdk.server.items.MonitoredDataItem;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNodeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * An {@link OpcUaServer} without endpoints, plus the node context, session and contexts the benchmarks need to
+ * exercise server-side code the way {@link Namespace} does.
+ */
+class BenchmarkServer implements UaNodeContext {
+
+    static final Config EMPTY_CONFIG = new Config(new Properties());
+
+    private final NodeManager<UaNode> nodeManager = new UaNodeManager();
+
+    private final OpcUaServer server;
+    private final Session session;
+
+    /**
+     * A read or write by the server itself, e.g. the poller updating a node.
+     */
+    final AttributeContext internalContext;
+
+    /**
+     * A read or write on behalf of a client session.
+     */
+    final AttributeContext externalContext;
+
+    BenchmarkServer() {
+        server = new OpcUaServer(OpcUaServerConfig.builder().setApplicationUri("urn:sdu:milo:benchmark").build());
+
+        session = new Session(
+            server, new NodeId(1, "benchmark-session"), "benchmark", Duration.ofMinutes(10), 0L, null, null);
+
+        internalContext = new AttributeContext(server);
+        externalContext = new AttributeContext(server, session);
+    }
+
+    @Override
+    public OpcUaServer getServer() {
+        return server;
+    }
+
+    @Override
+    public NodeManager<UaNode> getNodeManager() {
+        return nodeManager;
+    }
+
+    UaVariableNode newVariableNode(String name, Object value) {
+        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(this)
+            .setNodeId(new NodeId(2, "ICPS/nodeDevices/" + name))
+            .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
+            .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
+            .setBrowseName(new QualifiedName(2, name))
+            .setDisplayName(LocalizedText.english(name))
+            .setDataType(Identifiers.Boolean)
+            .setTypeDefinition(Identifiers.BaseDataVariableType)
+            .build();
+
+        node.setValue(new DataValue(new Variant(value)));
+        nodeManager.addNode(node);
+
+        return node;
+    }
+
+    /**
+     * A DataItem as a client's CreateMonitoredItems would create it, reporting with a queue of 10.
+     */
+    MonitoredDataItem newDataItem(UaVariableNode node, int id) throws UaException {
+        ReadValueId readValueId =
+            new ReadValueId(node.getNodeId(), AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE);
+
+        return new MonitoredDataItem(
+            server, session, uint(id), uint(1), readValueId, MonitoringMode.Reporting, TimestampsToReturn.Both,
+            uint(id), 250.0, null, uint(10), true);
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A gateway update of one point as {@link BulkPoller} applies it: the {@link ChangeFilter}'s write to the
+ * {@link PointStore} followed by the {@link SamplingEngine} pushing the value into every {@code DataItem} monitoring
+ * the node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataItemFanOutBenchmark {
+
+    /**
+     * Number of DataItems (one per monitoring client) on the node.
+     */
+    @Param({"0", "1", "10", "100"})
+    public int dataItems;
+
+    private final long[] values = new long[64];
+
+    private ScheduledExecutorService executor;
+    private PointStore store;
+    private GatewayPoint point;
+    private SamplingEngine samplingEngine;
+
+    private int next;
+
+    @Setup
+    public void setup() throws UaException {
+        BenchmarkServer server = new BenchmarkServer();
+
+        executor = Executors.newSingleThreadScheduledExecutor();
+        Metrics metrics = new Metrics();
+        PollingScheduler pollingScheduler = new PollingScheduler(BenchmarkServer.EMPTY_CONFIG, null, executor, metrics);
+        store = new PointStore(metrics);
+        samplingEngine = new SamplingEngine(p -> pollingScheduler, store, metrics);
+
+        UaVariableNode node = server.newVariableNode("FanOut", 0.0);
+        node.setDataType(Identifiers.Double);
+        point = store.newPoint(Gateway.DEFAULT, 1, "temperature", node, null);
+
+        for (int i = 0; i < dataItems; i++) {
+            samplingEngine.onDataItemCreated(point, server.newDataItem(node, i + 1));
+        }
+
+        // Distinct values, so every update passes the DataItems' change filter
+        for (int i = 0; i < values.length; i++) {
+            values[i] = PointStore.toBits(PointStore.KIND_DOUBLE, 20.0 + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void update() {
+        long bits = values[next++ & (values.length - 1)];
+
+        store.write(point, bits, null, 0, DateTime.now().getUtcTime());
+        samplingEngine.onUpdate(point);
+    }
+
+}
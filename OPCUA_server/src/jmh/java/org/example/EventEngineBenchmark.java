@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Posting one device event the way {@link EventEngine} does: refill the event node of its type and post it on the
+ * event bus. It replaced a task that created, posted and deleted a new event node for every event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventEngineBenchmark {
+
+    private BenchmarkServer server;
+    private EventEngine eventEngine;
+    private EventEngine.Event event;
+
+    @Setup
+    public void setup() {
+        server = new BenchmarkServer();
+
+        // A running server has started its event factory; until then the properties of an event node can't be
+        // found, and every refill would add new ones
+        server.getServer().getEventFactory().startup();
+
+        // Count the event subscribers once, as one, instead of checking the server's subscriptions
+        Properties properties = new Properties();
+        properties.setProperty("events.subscriberCheck", "0");
+
+        Metrics metrics = new Metrics();
+        PointStore store = new PointStore(metrics);
+
+        eventEngine = new EventEngine(new Config(properties), server.getServer(), store, metrics);
+        eventEngine.start((name, supertype) -> new NodeId(2, "ICPS/Types/" + name));
+
+        UaVariableNode node = server.newVariableNode("Window sensor", false);
+        event = new EventEngine.Event(
+            EventEngine.Kind.DEVICE_ALARM, node.getNodeId(), "Window sensor", "Window sensor tripped", DateTime.now());
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventEngine.stop();
+        server.getServer().getEventFactory().shutdown();
+    }
+
+    @Benchmark
+    public boolean post() {
+        return eventEngine.post(event);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding a {@code /dev/{id}/ldev/{key}/data} response: the original {@code getAPIData}/{@code getValue} path
+ * ({@code StringBuffer} -> {@code JSONArray} -> {@code String} -> {@code Boolean}) against {@link GatewayJsonDecoder}.
+ * <p>
+ * Run with {@code -prof gc} (e.g. {@code mvn -P jmh verify -Djmh.args="GatewayDecoding -prof gc"}) to compare
+ * allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GatewayDecodingBenchmark {
+
+    /**
+     * Number of data objects in the response.
+     */
+    @Param({"1", "16", "256"})
+    public int readings;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < readings; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"key\":\"alarm\",\"value\":").append(i % 2 == 0)
+                .append(",\"timestamp\":").append(1_600_000_000_000L + i)
+                .append(",\"unit\":\"\",\"meta\":{\"rssi\":-61,\"lqi\":[255,254]}}");
+        }
+        payload = json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Boolean legacyFirstValue() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload)));
+        String inputLine;
+        StringBuffer response = new StringBuffer();
+
+        while ((inputLine = reader.readLine()) != null) {
+            response.append(inputLine);
+        }
+        reader.close();
+        JSONArray json = new JSONArray(String.valueOf(response));
+
+        return Boolean.valueOf(String.valueOf(json.getJSONObject(0).getBoolean("value")));
+    }
+
+    @Benchmark
+    public boolean streamingFirstValue() throws IOException {
+        boolean[] value = new boolean[1];
+
+        GatewayJsonDecoder.get().decode(
+            new ByteArrayInputStream(payload), 1, reading -> value[0] = reading.getBoolean());
+
+        return value[0];
+    }
+
+    @Benchmark
+    public void legacyAllValues(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload)));
+        String inputLine;
+        StringBuffer response = new StringBuffer();
+
+        while ((inputLine = reader.readLine()) != null) {
+            response.append(inputLine);
+        }
+        reader.close();
+        JSONArray json = new JSONArray(String.valueOf(response));
+
+        for (int i = 0; i < json.length(); i++) {
+            blackhole.consume(json.getJSONObject(i).getBoolean("value"));
+            blackhole.consume(json.getJSONObject(i).getLong("timestamp"));
+        }
+    }
+
+    @Benchmark
+    public void streamingAllValues(Blackhole blackhole) throws IOException {
+        GatewayJsonDecoder.get().decode(new ByteArrayInputStream(payload), Integer.MAX_VALUE, reading -> {
+            blackhole.consume(reading.getBoolean());
+            blackhole.consume(reading.getTimestamp());
+        });
+    }
+
+}
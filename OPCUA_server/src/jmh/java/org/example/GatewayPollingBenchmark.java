@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One polling cycle over every device of a local {@link GatewaySimulator}: a data request per device, all in flight
+ * at once, each response decoded on whatever thread the {@link GatewayClient.Mode} completes it on.
+ * <p>
+ * The virtual mode needs a Java 21 runtime for the benchmark JVM; on older ones it measures the platform mode again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GatewayPollingBenchmark {
+
+    @Param({"async", "platform", "virtual"})
+    public String mode;
+
+    @Param({"10000"})
+    public int devices;
+
+    private GatewaySimulator simulator;
+    private GatewayClient client;
+    private String[] ldevKeys;
+
+    @Setup
+    public void setup() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("sim.port", "0");
+        properties.setProperty("sim.devices", Integer.toString(devices));
+        properties.setProperty("sim.latency.mean", "20");
+
+        simulator = new GatewaySimulator(new Config(properties));
+        simulator.start();
+
+        // Every mode gets the same concurrency: 256 requests in flight, or 256 platform threads sending them
+        client = new GatewayClient(
+            "http://localhost:" + simulator.getPort() + "/ssapi/zb",
+            Duration.ofSeconds(2), Duration.ofSeconds(30), 2, false,
+            GatewayClient.Mode.valueOf(mode.toUpperCase()), 256, 256, new Metrics());
+
+        ldevKeys = new String[devices + 1];
+        for (int id = 1; id <= devices; id++) {
+            ldevKeys[id] = GatewaySimulator.ldevKey(id);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        simulator.close();
+    }
+
+    @Benchmark
+    public long pollAll() {
+        LongAdder readings = new LongAdder();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[devices];
+
+        for (int id = 1; id <= devices; id++) {
+            futures[id - 1] = client.getDeviceData(id, ldevKeys[id], 1, reading -> readings.increment());
+        }
+
+        CompletableFuture.allOf(futures).join();
+
+        return readings.sum();
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One changed value going through the {@link RuleEngine}: every point is read by three rules, and every change flips
+ * their comparisons, so each update re-counts three clauses and fires or releases rules. The rules' actions target a
+ * node that doesn't exist, so nothing is written to a gateway.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleEngineBenchmark {
+
+    /**
+     * Number of rules, and of points they read.
+     */
+    @Param({"100", "10000"})
+    public int rules;
+
+    private PointStore store;
+    private RuleEngine ruleEngine;
+    private GatewayPoint[] points;
+
+    private long low;
+    private long high;
+    private int next;
+
+    @Setup
+    public void setup() {
+        BenchmarkServer server = new BenchmarkServer();
+
+        Properties properties = new Properties();
+        StringJoiner names = new StringJoiner(",");
+
+        for (int i = 0; i < rules; i++) {
+            names.add("r" + i);
+            properties.setProperty("rules.r" + i + ".when", String.format(
+                "%d/temperature > 25 && %d/temperature < 15 || %d/temperature == 30",
+                i, (i + 1) % rules, (i + 7) % rules));
+            properties.setProperty("rules.r" + i + ".then", "Heater = false");
+            properties.setProperty("rules.r" + i + ".else", "Heater = true");
+        }
+        properties.setProperty("rules", names.toString());
+
+        Metrics metrics = new Metrics();
+        store = new PointStore(metrics);
+        ruleEngine = new RuleEngine(new Config(properties), p -> null, store, metrics);
+
+        points = new GatewayPoint[rules];
+        for (int i = 0; i < rules; i++) {
+            UaVariableNode node = server.newVariableNode("Rule" + i, 0.0);
+            node.setDataType(Identifiers.Double);
+
+            points[i] = store.newPoint(Gateway.DEFAULT, i, "temperature", node, null);
+            ruleEngine.bind(i + "/temperature", points[i]);
+        }
+
+        low = PointStore.toBits(PointStore.KIND_DOUBLE, 10.0);
+        high = PointStore.toBits(PointStore.KIND_DOUBLE, 30.0);
+    }
+
+    @Benchmark
+    public void update() {
+        int i = next;
+        next = (next + 1) % (2 * points.length);
+        GatewayPoint point = points[i % points.length];
+
+        // Every pass over the points alternates between low and high values
+        store.write(point, (i / points.length & 1) == 0 ? high : low, null, 0, DateTime.now().getUtcTime());
+        ruleEngine.onUpdate(point);
+    }
+
+}
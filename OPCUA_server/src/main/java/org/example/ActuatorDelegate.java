@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.function.Function;
+
+import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.DelegatingAttributeDelegate;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Forwards values written by OPC UA clients to the gateway through the {@link ActuatorWriter} of the point's gateway.
+ * <p>
+ * Internal writes (no session) are not forwarded, and neither is a write that doesn't change the value, unless the
+ * node's status isn't good: writing the same value again retries a command the gateway failed or refused.
+ */
+public class ActuatorDelegate extends DelegatingAttributeDelegate {
+
+    private final PointIndex pointIndex;
+    private final Function<GatewayPoint, ActuatorWriter> writers;
+
+    public ActuatorDelegate(
+        @Nullable AttributeDelegate parent, PointIndex pointIndex, Function<GatewayPoint, ActuatorWriter> writers) {
+
+        super(parent);
+
+        this.pointIndex = pointIndex;
+        this.writers = writers;
+    }
+
+    @Override
+    public void setValue(AttributeContext context, VariableNode node, DataValue value) throws UaException {
+        DataValue previous = node.getValue();
+
+        super.setValue(context, node, value);
+
+        // only forward external writes
+        if (context.getSession().isPresent()) {
+            GatewayPoint point = pointIndex.get(node.getNodeId());
+            Object desired = value.getValue().getValue();
+
+            if (point != null && point.isWritable() && desired != null && isChange(previous, desired)) {
+                writers.apply(point).write(point, desired);
+            }
+        }
+    }
+
+    private static boolean isChange(DataValue previous, Object desired) {
+        StatusCode status = previous.getStatusCode();
+
+        return !desired.equals(previous.getValue().getValue()) || status == null || !status.isGood();
+    }
+
+}
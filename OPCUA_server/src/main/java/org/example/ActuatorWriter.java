@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.net.http.HttpTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pushes client-written values of writable {@link GatewayPoint}s to the gateway, write-behind.
+ * <p>
+ * Every device has a queue of pending commands, at most one per point and {@code actuator.queueSize} in all: a value
+ * written while an earlier one for the same point is still queued replaces it, and every caller that was superseded
+ * gets the outcome of the command that carries the latest value. A device sends one command at a time, in the
+ * order its points were first queued, so commands to one device never overtake each other; different devices send
+ * concurrently, up to {@code actuator.concurrency} commands in flight in all, so a scene across many devices
+ * completes in about one round trip.
+ * <p>
+ * A command that times out, can't be delivered or gets a 5xx or 429 answer is retried up to
+ * {@code actuator.retries} times, after {@code actuator.retryBackoff} ms doubling per attempt (with jitter, at most
+ * {@code actuator.maxBackoff} ms); a newer value for the point supersedes the retry. The outcome is reported on the
+ * node as the status of its current value: {@code Good}, {@code Bad_Timeout}, {@code Bad_CommunicationError},
+ * {@code Bad_DeviceFailure} (the gateway refused the command) or {@code Bad_ResourceUnavailable} (queue full).
+ * Values the gateway accepted are written to the {@link PointStore} as the point's confirmed value, and the listeners
+ * are told.
+ */
+public class ActuatorWriter {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<Integer, Device> devices = new ConcurrentHashMap<>();
+
+    private final List<BulkPoller.PointListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Devices with commands to send, waiting for a free slot
+    private final Queue<Device> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final GatewayClient gatewayClient;
+    private final PointStore store;
+    private final ScheduledExecutorService scheduler;
+
+    private final int concurrency;
+    private final int queueSize;
+    private final int retries;
+    private final long retryBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final LongAdder commands;
+    private final LongAdder coalesced;
+    private final LongAdder retried;
+    private final LongAdder failures;
+    private final LatencyHistogram latency;
+
+    public ActuatorWriter(
+        Config config, GatewayClient gatewayClient, PointStore store, ScheduledExecutorService scheduler,
+        Metrics metrics) {
+
+        this.gatewayClient = gatewayClient;
+        this.store = store;
+        this.scheduler = scheduler;
+
+        concurrency = Math.max(1, config.getInt("actuator.concurrency", 256));
+        queueSize = Math.max(1, config.getInt("actuator.queueSize", 64));
+        retries = Math.max(0, config.getInt("actuator.retries", 3));
+        retryBackoffMillis = config.getLong("actuator.retryBackoff", 200);
+        maxBackoffMillis = config.getLong("actuator.maxBackoff", 5000);
+
+        commands = metrics.counter("actuator.commands");
+        coalesced = metrics.counter("actuator.coalesced");
+        retried = metrics.counter("actuator.retries");
+        failures = metrics.counter("actuator.failures");
+        latency = metrics.histogram("actuator.latency");
+        metrics.gauge("actuator.queued", queued::get);
+        metrics.gauge("actuator.inFlight", inFlight::get);
+    }
+
+    public void addListener(BulkPoller.PointListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Queue {@code value} for the gateway, coalescing it with any queued write to the same point.
+     *
+     * @return a future completing with the status of the command that carried {@code value} (or a newer value).
+     */
+    public CompletableFuture<StatusCode> write(GatewayPoint point, Object value) {
+        Device device = devices.computeIfAbsent(point.getDeviceId(), Device::new);
+        Command command;
+        boolean schedule;
+
+        synchronized (device) {
+            command = device.pending.get(point.getLdevKey());
+
+            if (command != null) {
+                command.value = value;
+                coalesced.increment();
+                return command.future;
+            }
+
+            if (device.pending.size() >= queueSize) {
+                StatusCode status = new StatusCode(StatusCodes.Bad_ResourceUnavailable);
+                logger.warn("Command {}={} rejected: {} commands queued for device {}",
+                    point.getKey(), value, queueSize, device.id);
+
+                failures.increment();
+                report(point, status);
+                return CompletableFuture.completedFuture(status);
+            }
+
+            command = new Command(point, value);
+            device.pending.put(point.getLdevKey(), command);
+            queued.incrementAndGet();
+
+            schedule = !device.scheduled;
+            device.scheduled = true;
+        }
+
+        if (schedule) {
+            ready.add(device);
+            drain();
+        }
+
+        return command.future;
+    }
+
+    /**
+     * @return {@code true} while a command for {@code point} is queued, being sent or waiting for a retry.
+     */
+    public boolean isPending(GatewayPoint point) {
+        Device device = devices.get(point.getDeviceId());
+        if (device == null) return false;
+
+        synchronized (device) {
+            return device.pending.containsKey(point.getLdevKey())
+                || device.sending != null && device.sending.point == point
+                || device.retry != null && device.retry.point == point;
+        }
+    }
+
+    /**
+     * Start the next command of as many ready devices as there are free slots.
+     */
+    private void drain() {
+        while (!ready.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= concurrency) return;
+            if (!inFlight.compareAndSet(current, current + 1)) continue;
+
+            Device device = ready.poll();
+            if (device == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+
+            sendNext(device);
+        }
+    }
+
+    private void sendNext(Device device) {
+        Command command;
+        Command superseded = null;
+        Command newer = null;
+
+        synchronized (device) {
+            command = device.retry;
+            device.retry = null;
+
+            if (command != null) {
+                newer = device.pending.get(command.point.getLdevKey());
+
+                if (newer != null) {
+                    superseded = command;
+                    command = null;
+                }
+            }
+
+            if (command == null) {
+                Iterator<Command> iterator = device.pending.values().iterator();
+                command = iterator.next();
+                iterator.remove();
+                queued.decrementAndGet();
+            }
+
+            device.sending = command;
+        }
+
+        if (superseded != null) {
+            // a value written while the retry waited replaces it
+            newer.future.thenAccept(superseded.future::complete);
+        }
+
+        send(device, command);
+    }
+
+    private void send(Device device, Command command) {
+        GatewayPoint point = command.point;
+        Object value = command.value;
+
+        commands.increment();
+        command.attempts++;
+
+        gatewayClient
+            .putDeviceData(point.getDeviceId(), point.getLdevKey(), point.getCommandKey(), value)
+            .whenComplete((responseCode, ex) -> {
+                try {
+                    if (ex == null) {
+                        complete(command, StatusCode.GOOD);
+                    } else {
+                        failed(device, command, ex instanceof CompletionException ? ex.getCause() : ex);
+                    }
+                } finally {
+                    inFlight.decrementAndGet();
+                    release(device);
+                    drain();
+                }
+            });
+    }
+
+    private void failed(Device device, Command command, Throwable cause) {
+        int httpStatus = cause instanceof GatewayException ? ((GatewayException) cause).getStatusCode() : 0;
+        boolean refused = httpStatus / 100 == 4 && httpStatus != 429;
+
+        StatusCode status = new StatusCode(
+            refused ? StatusCodes.Bad_DeviceFailure :
+                cause instanceof HttpTimeoutException ? StatusCodes.Bad_Timeout : StatusCodes.Bad_CommunicationError);
+
+        Command newer;
+        boolean retry = false;
+
+        synchronized (device) {
+            newer = device.pending.get(command.point.getLdevKey());
+
+            if (newer == null && !refused && command.attempts <= retries) {
+                // keep the device busy, so nothing overtakes the retry
+                device.retry = command;
+                retry = true;
+            }
+        }
+
+        if (newer != null) {
+            // the point's newer value will be sent anyway
+            newer.future.thenAccept(command.future::complete);
+        } else if (retry) {
+            long backoff = Math.min(maxBackoffMillis, retryBackoffMillis << Math.min(command.attempts - 1, 20));
+            long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+
+            logger.debug("Command {}={} failed ({}), retry {} in {} ms",
+                command.point.getKey(), command.value, cause.getMessage(), command.attempts, delay);
+            retried.increment();
+
+            scheduler.schedule(() -> {
+                ready.add(device);
+                drain();
+            }, delay, TimeUnit.MILLISECONDS);
+        } else {
+            logger.warn("Command {}={} failed after {} attempts: {}",
+                command.point.getKey(), command.value, command.attempts, cause.getMessage());
+            failures.increment();
+
+            complete(command, status);
+        }
+    }
+
+    /**
+     * Queue the device again if it has more to send, unless it waits for a retry.
+     */
+    private void release(Device device) {
+        boolean schedule = false;
+
+        synchronized (device) {
+            device.sending = null;
+
+            if (device.retry == null) {
+                if (device.pending.isEmpty()) {
+                    device.scheduled = false;
+                } else {
+                    schedule = true;
+                }
+            }
+        }
+
+        if (schedule) {
+            ready.add(device);
+        }
+    }
+
+    private void complete(Command command, StatusCode status) {
+        latency.record(System.nanoTime() - command.queuedAt);
+
+        report(command.point, status);
+        command.future.complete(status);
+
+        if (status.isGood() && store.write(command.point, command.value, 0)) {
+            for (BulkPoller.PointListener listener : listeners) {
+                listener.onUpdate(command.point);
+            }
+        }
+    }
+
+    /**
+     * Reflect the outcome of a command in the status of the node's current value.
+     */
+    private void report(GatewayPoint point, StatusCode status) {
+        DataValue current = point.getNode().getValue();
+
+        if (!status.equals(current.getStatusCode())) {
+            point.getNode().setValue(
+                new DataValue(current.getValue(), status, current.getSourceTime(), DateTime.now()));
+        }
+    }
+
+    private static class Device {
+
+        final int id;
+
+        // Queued commands by ldev key, in the order their points were first queued
+        final Map<String, Command> pending = new LinkedHashMap<>();
+
+        // The command on its way to the gateway
+        Command sending;
+
+        // A failed command waiting to be sent again
+        Command retry;
+
+        // In the ready queue, sending, or waiting for a retry
+        boolean scheduled;
+
+        Device(int id) {
+            this.id = id;
+        }
+
+    }
+
+    private static class Command {
+
+        final GatewayPoint point;
+        final CompletableFuture<StatusCode> future = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+
+        volatile Object value;
+        int attempts;
+
+        Command(GatewayPoint point, Object value) {
+            this.point = point;
+            this.value = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.DelegatingAttributeDelegate;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Serves reads of aggregate nodes from the {@link AggregateEngine}, which computes them from its windows at read
+ * time; the nodes themselves hold no value.
+ */
+public class AggregateDelegate extends DelegatingAttributeDelegate {
+
+    private final AggregateEngine aggregateEngine;
+
+    public AggregateDelegate(@Nullable AttributeDelegate parent, AggregateEngine aggregateEngine) {
+        super(parent);
+
+        this.aggregateEngine = aggregateEngine;
+    }
+
+    @Override
+    public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
+        DataValue value = aggregateEngine.get(node.getNodeId());
+
+        return value != null ? value : super.getValue(context, node);
+    }
+
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sliding-window aggregates of device points, published as derived variable nodes next to the point's node, so
+ * clients can monitor "average over the last 5 minutes" instead of the raw values.
+ * <p>
+ * The aggregates of a point are configured by {@code aggregates.<deviceId>/<ldevKey>} or
+ * {@code aggregates.<ldevKey>}, as a list of {@code function:window} (window in ms), e.g.
+ * {@code avg:300000,max:300000,trueTime:3600000}. The functions are
+ * <ul>
+ *     <li>{@code min}, {@code max}: the lowest and highest value held during the window;</li>
+ *     <li>{@code avg}: the time-weighted average, each value counting for as long as it was held;</li>
+ *     <li>{@code count}: the number of changes;</li>
+ *     <li>{@code trueTime}: how long (ms) the value was true (non-zero).</li>
+ * </ul>
+ * Only changes reach the engine (see {@link ChangeFilter}), and a value holds until the next one, so aggregates are
+ * taken over time, not over samples.
+ * <p>
+ * Every window is a ring of {@code aggregates.buckets} buckets, each summarizing window / buckets of time, shared by
+ * all functions of a point over the same window. An update adds to the newest bucket; once a bucket's time is over,
+ * the ring moves on, dropping the oldest bucket and combining the others once, so both updates and reads cost O(1)
+ * (plus O(buckets) once per bucket). A window covers its length to within one bucket.
+ * <p>
+ * The nodes are read through the {@link AggregateDelegate}, which computes the aggregate at read time; Milo's
+ * sampling only reports a DataItem's value when it changed, so subscribers see changes only.
+ */
+public class AggregateEngine implements BulkPoller.PointListener {
+
+    public enum Function {
+        MIN("min", Identifiers.Double),
+        MAX("max", Identifiers.Double),
+        AVG("avg", Identifiers.Double),
+        COUNT("count", Identifiers.Int64),
+        TRUE_TIME("trueTime", Identifiers.Double);
+
+        final String configName;
+        final NodeId dataType;
+
+        Function(String configName, NodeId dataType) {
+            this.configName = configName;
+            this.dataType = dataType;
+        }
+
+        @Nullable
+        static Function of(String name) {
+            for (Function function : values()) {
+                if (function.configName.equalsIgnoreCase(name)) return function;
+            }
+            return null;
+        }
+    }
+
+    public interface NodeFactory {
+        /**
+         * @param name the aggregate's name, {@code function.window}, e.g. {@code avg.5m}.
+         */
+        UaVariableNode create(String name, NodeId dataType);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<GatewayPoint, Series> series = new ConcurrentHashMap<>();
+    private final Map<NodeId, Aggregate> aggregates = new ConcurrentHashMap<>();
+
+    private final Config config;
+    private final PointStore store;
+    private final int bucketCount;
+
+    private final LongAdder updates;
+
+    public AggregateEngine(Config config, PointStore store, Metrics metrics) {
+        this.config = config;
+        this.store = store;
+
+        bucketCount = Math.max(1, config.getInt("aggregates.buckets", 60));
+
+        updates = metrics.counter("aggregates.updates");
+        metrics.gauge("aggregates.nodes", aggregates::size);
+    }
+
+    /**
+     * Create the nodes of the aggregates configured for {@code point}, if any, and start aggregating its values.
+     */
+    public void add(GatewayPoint point, NodeFactory nodeFactory) {
+        String spec = config.getString("aggregates." + point.getKey(), null);
+        if (spec == null) spec = config.getString("aggregates." + point.getLdevKey(), null);
+        if (spec == null || spec.isBlank()) return;
+
+        byte kind = store.kind(point);
+        if (kind == PointStore.KIND_STRING || kind == PointStore.KIND_OTHER) {
+            logger.warn("Aggregates of {} ignored: not a boolean or numeric point", point);
+            return;
+        }
+
+        Map<Long, Window> windows = new LinkedHashMap<>();
+        List<Aggregate> pointAggregates = new ArrayList<>();
+
+        for (String item : spec.split(",")) {
+            String[] parts = item.trim().split(":");
+            Function function = parts.length == 2 ? Function.of(parts[0].trim()) : null;
+            long windowMillis = parts.length == 2 ? parseMillis(parts[1].trim()) : -1;
+
+            if (function == null || windowMillis <= 0) {
+                logger.warn("Aggregate '{}' of {} ignored: expected function:windowMs", item.trim(), point);
+                continue;
+            }
+
+            Window window = windows.computeIfAbsent(
+                windowMillis, ms -> new Window(TimeUnit.MILLISECONDS.toNanos(ms), bucketCount));
+
+            UaVariableNode node = nodeFactory.create(
+                function.configName + "." + windowName(windowMillis), function.dataType);
+
+            Aggregate aggregate = new Aggregate(function, window, node);
+            pointAggregates.add(aggregate);
+            aggregates.put(node.getNodeId(), aggregate);
+        }
+
+        if (!pointAggregates.isEmpty()) {
+            series.put(point, new Series(kind, windows.values().toArray(new Window[0]), pointAggregates));
+        }
+    }
+
+    /**
+     * Stop aggregating a point that was removed.
+     *
+     * @return the nodes of its aggregates, for the caller to delete.
+     */
+    public List<UaVariableNode> remove(GatewayPoint point) {
+        Series removed = series.remove(point);
+        if (removed == null) return Collections.emptyList();
+
+        List<UaVariableNode> nodes = new ArrayList<>();
+        for (Aggregate aggregate : removed.aggregates) {
+            aggregates.remove(aggregate.node.getNodeId());
+            nodes.add(aggregate.node);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * @return {@code true} if {@code point} has aggregates.
+     */
+    public boolean hasAggregates(GatewayPoint point) {
+        return series.containsKey(point);
+    }
+
+    @Override
+    public void onUpdate(GatewayPoint point) {
+        Series pointSeries = series.get(point);
+        if (pointSeries == null || (store.status(point) & 0xC0000000) != 0) return;
+
+        double value = PointStore.toDouble(pointSeries.kind, store.bits(point));
+        long now = System.nanoTime();
+
+        for (Window window : pointSeries.windows) {
+            synchronized (window) {
+                window.update(now, value);
+            }
+        }
+
+        updates.increment();
+    }
+
+    /**
+     * @return the current value of the aggregate published as {@code nodeId}, or {@code null} if there is none.
+     */
+    @Nullable
+    public DataValue get(NodeId nodeId) {
+        Aggregate aggregate = aggregates.get(nodeId);
+        if (aggregate == null) return null;
+
+        Object value;
+        synchronized (aggregate.window) {
+            value = aggregate.window.get(aggregate.function, System.nanoTime());
+        }
+
+        if (value == null) {
+            return new DataValue(new StatusCode(StatusCodes.Bad_NoData));
+        }
+
+        return new DataValue(new Variant(value), StatusCode.GOOD, null, DateTime.now());
+    }
+
+    /**
+     * @return {@code millis} as the shortest of {@code 1h}, {@code 5m}, {@code 30s} or {@code 1500ms}.
+     */
+    static String windowName(long millis) {
+        if (millis % 3_600_000 == 0) return millis / 3_600_000 + "h";
+        if (millis % 60_000 == 0) return millis / 60_000 + "m";
+        if (millis % 1000 == 0) return millis / 1000 + "s";
+        return millis + "ms";
+    }
+
+    private static long parseMillis(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Series {
+
+        final byte kind;
+        final Window[] windows;
+        final List<Aggregate> aggregates;
+
+        Series(byte kind, Window[] windows, List<Aggregate> aggregates) {
+            this.kind = kind;
+            this.windows = windows;
+            this.aggregates = aggregates;
+        }
+
+    }
+
+    private static class Aggregate {
+
+        final Function function;
+        final Window window;
+        final UaVariableNode node;
+
+        Aggregate(Function function, Window window, UaVariableNode node) {
+            this.function = function;
+            this.window = window;
+            this.node = node;
+        }
+
+    }
+
+    /**
+     * A ring of buckets covering one window of a point's values, by {@link System#nanoTime()}. Bucket {@code n}
+     * covers {@code [n * width, (n + 1) * width)}; the ring holds the newest bucket and the ones before it that are
+     * still in the window. The value held since the last update is added to the buckets as time passes, so a value
+     * that doesn't change still counts for min, max, avg and trueTime. Callers synchronize on the window.
+     */
+    static final class Window {
+
+        private final long width;
+        private final int size;
+
+        private final double[] min;
+        private final double[] max;
+        private final double[] integral;
+        private final long[] covered;
+        private final long[] trueNanos;
+        private final long[] count;
+
+        private boolean started;
+        private long newest;
+
+        private boolean hasValue;
+        private double value;
+        private long lastTime;
+
+        // All buckets but the newest, combined when the ring moves
+        private double restMin;
+        private double restMax;
+        private double restIntegral;
+        private long restCovered;
+        private long restTrue;
+        private long restCount;
+
+        Window(long windowNanos, int size) {
+            this.width = Math.max(1, windowNanos / size);
+            this.size = size;
+
+            min = new double[size];
+            max = new double[size];
+            integral = new double[size];
+            covered = new long[size];
+            trueNanos = new long[size];
+            count = new long[size];
+
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            restMin = Double.POSITIVE_INFINITY;
+            restMax = Double.NEGATIVE_INFINITY;
+        }
+
+        void update(long now, double newValue) {
+            advance(now);
+
+            int i = slot(newest);
+            min[i] = Math.min(min[i], newValue);
+            max[i] = Math.max(max[i], newValue);
+            count[i]++;
+
+            value = newValue;
+            hasValue = true;
+        }
+
+        /**
+         * @return the function's value at {@code now}, or {@code null} if the window has no value for it.
+         */
+        @Nullable
+        Object get(Function function, long now) {
+            advance(now);
+
+            int i = slot(newest);
+
+            switch (function) {
+                case MIN: {
+                    double result = Math.min(restMin, min[i]);
+                    return result != Double.POSITIVE_INFINITY ? result : null;
+                }
+                case MAX: {
+                    double result = Math.max(restMax, max[i]);
+                    return result != Double.NEGATIVE_INFINITY ? result : null;
+                }
+                case AVG: {
+                    long time = restCovered + covered[i];
+                    if (time == 0) return hasValue ? value : null;
+
+                    // A value that held all window long, exactly, so the average doesn't flicker with rounding
+                    double lowest = Math.min(restMin, min[i]);
+                    if (lowest == Math.max(restMax, max[i])) return lowest;
+
+                    return (restIntegral + integral[i]) / time;
+                }
+                case COUNT:
+                    return restCount + count[i];
+                default:
+                    return (restTrue + trueNanos[i]) / 1e6;
+            }
+        }
+
+        /**
+         * Add the held value up to {@code now}, moving the ring on past the buckets whose time is over.
+         */
+        private void advance(long now) {
+            long target = Math.floorDiv(now, width);
+
+            if (!started) {
+                started = true;
+                newest = target;
+                lastTime = now;
+                return;
+            }
+
+            if (target <= newest) {
+                accrue(now);
+                return;
+            }
+
+            // Buckets that would be dropped again right away are skipped, and so is the time they cover
+            if (target - newest >= size) {
+                long first = target - size + 1;
+                newest = first - 1;
+                lastTime = Math.max(lastTime, first * width);
+            }
+
+            while (newest < target) {
+                accrue(Math.min(now, (newest + 1) * width));
+                newest++;
+                reset(slot(newest));
+            }
+            accrue(now);
+
+            combineRest();
+        }
+
+        private void accrue(long time) {
+            if (time <= lastTime) return;
+
+            if (hasValue) {
+                int i = slot(newest);
+                long elapsed = time - lastTime;
+
+                integral[i] += value * elapsed;
+                covered[i] += elapsed;
+                if (value != 0) trueNanos[i] += elapsed;
+            }
+
+            lastTime = time;
+        }
+
+        private void reset(int i) {
+            min[i] = hasValue ? value : Double.POSITIVE_INFINITY;
+            max[i] = hasValue ? value : Double.NEGATIVE_INFINITY;
+            integral[i] = 0;
+            covered[i] = 0;
+            trueNanos[i] = 0;
+            count[i] = 0;
+        }
+
+        private void combineRest() {
+            int skip = slot(newest);
+
+            restMin = Double.POSITIVE_INFINITY;
+            restMax = Double.NEGATIVE_INFINITY;
+            restIntegral = 0;
+            restCovered = 0;
+            restTrue = 0;
+            restCount = 0;
+
+            for (int i = 0; i < size; i++) {
+                if (i == skip) continue;
+
+                restMin = Math.min(restMin, min[i]);
+                restMax = Math.max(restMax, max[i]);
+                restIntegral += integral[i];
+                restCovered += covered[i];
+                restTrue += trueNanos[i];
+                restCount += count[i];
+            }
+        }
+
+        private int slot(long bucket) {
+            return (int) Math.floorMod(bucket, (long) size);
+        }
+
+    }
+
+}
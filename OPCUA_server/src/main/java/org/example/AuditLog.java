@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audit trail of external reads and writes, written off the request path.
+ * <p>
+ * {@link #record} copies the operation into a fixed-size slot of a lock-free ring buffer (node index, operation,
+ * time, status code and the value as primitive bits) and returns; it never blocks and never formats anything. When
+ * the ring is full the record is dropped and counted. A single writer thread drains the ring in batches into a
+ * compact text file, {@code audit.file}, rolled over at {@code audit.maxFileSize} bytes and kept for
+ * {@code audit.maxFiles} generations. Each file starts its node table afresh:
+ * <pre>
+ * N 0 ns=2;s=ICPS/nodeDevices/Window sensor
+ * 1697612345123 R 0 0 true
+ * 1697612345456 W 1 80350000 -
+ * </pre>
+ * Records read: time (Unix ms), {@code R}ead or {@code W}rite, node index, status code (hex) and value ({@code -} for
+ * values that are not booleans or numbers). Per-node sampling and rate limits are kept by the {@link NodeIndex}.
+ */
+public class AuditLog implements AutoCloseable {
+
+    public static final byte READ = 'R';
+    public static final byte WRITE = 'W';
+
+    private static final byte TYPE_NONE = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_NUMBER = 2;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final NodeIndex nodeIndex;
+
+    private final boolean enabled;
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long idleNanos;
+
+    // The ring: slot i holds the record with sequence published[i]
+    private final int mask;
+    private final AtomicLongArray published;
+    private final long[] times;
+    private final int[] nodes;
+    private final byte[] ops;
+    private final long[] statuses;
+    private final byte[] types;
+    private final long[] values;
+
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private Writer writer;
+    private long fileSize;
+    private final BitSet nodesInFile = new BitSet();
+
+    public AuditLog(Config config) {
+        nodeIndex = new NodeIndex(config);
+
+        enabled = config.getBoolean("audit.enabled", true);
+        file = Paths.get(config.getString("audit.file", "logs/audit.log"));
+        maxFileSize = config.getLong("audit.maxFileSize", 10 * 1024 * 1024);
+        maxFiles = Math.max(1, config.getInt("audit.maxFiles", 5));
+        idleNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("audit.flushInterval", 200));
+
+        int capacity = Integer.highestOneBit(Math.max(2, config.getInt("audit.capacity", 65_536)));
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        times = new long[capacity];
+        nodes = new int[capacity];
+        ops = new byte[capacity];
+        statuses = new long[capacity];
+        types = new byte[capacity];
+        values = new long[capacity];
+
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+
+        writerThread = new Thread(this::run, "audit-log-writer");
+        writerThread.setDaemon(true);
+
+        if (enabled) {
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Queue an audit record of {@code op} ({@link #READ} or {@link #WRITE}) on {@code nodeId}.
+     *
+     * @return {@code false} if the record was sampled out, rate limited or dropped.
+     */
+    public boolean record(byte op, NodeId nodeId, DataValue value) {
+        if (!enabled) return false;
+
+        NodeIndex.Node node = nodeIndex.get(nodeId);
+        if (!node.sample()) return false;
+
+        if (!node.tryAcquire(System.nanoTime())) {
+            rateLimited.increment();
+            return false;
+        }
+
+        long sequence;
+        do {
+            sequence = head.get();
+
+            if (sequence - tail >= published.length()) {
+                dropped.increment();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+
+        times[slot] = System.currentTimeMillis();
+        nodes[slot] = node.getIndex();
+        ops[slot] = op;
+
+        StatusCode status = value.getStatusCode();
+        statuses[slot] = status != null ? status.getValue() : 0L;
+
+        Object v = value.getValue().getValue();
+        if (v instanceof Boolean) {
+            types[slot] = TYPE_BOOLEAN;
+            values[slot] = (Boolean) v ? 1L : 0L;
+        } else if (v instanceof Number) {
+            types[slot] = TYPE_NUMBER;
+            values[slot] = Double.doubleToRawLongBits(((Number) v).doubleValue());
+        } else {
+            types[slot] = TYPE_NONE;
+        }
+
+        // Publish the slot; the volatile write orders the plain writes above before it
+        published.set(slot, sequence);
+
+        return true;
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public void close() {
+        if (!running) return;
+
+        running = false;
+        LockSupport.unpark(writerThread);
+
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "written=%d dropped=%d rateLimited=%d nodes=%d",
+            written.sum(), dropped.sum(), rateLimited.sum(), nodeIndex.size());
+    }
+
+    private void run() {
+        StringBuilder line = new StringBuilder(128);
+        long reportedDrops = 0;
+        long reportedAt = System.nanoTime();
+
+        try {
+            while (running || tail != head.get()) {
+                int drained = drain(line);
+
+                if (drained > 0) {
+                    writer.flush();
+                } else {
+                    LockSupport.parkNanos(idleNanos);
+                }
+
+                // Warn about drops at most every 10 seconds
+                long drops = dropped.sum();
+                if (drops != reportedDrops && System.nanoTime() - reportedAt > TimeUnit.SECONDS.toNanos(10)) {
+                    logger.warn("Audit log dropped {} records (ring full), {} so far", drops - reportedDrops, drops);
+                    reportedDrops = drops;
+                    reportedAt = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Audit log writer stopped: {}", e.getMessage(), e);
+        } finally {
+            closeWriter();
+        }
+    }
+
+    /**
+     * Write every published record, in order, and free their slots.
+     *
+     * @return the number of records written.
+     */
+    private int drain(StringBuilder line) throws IOException {
+        long sequence = tail;
+        int count = 0;
+
+        while (true) {
+            int slot = (int) sequence & mask;
+            if (published.get(slot) != sequence) break;
+
+            if (writer == null || fileSize >= maxFileSize) {
+                roll();
+            }
+
+            int node = nodes[slot];
+            if (!nodesInFile.get(node)) {
+                String nodeId = nodeIndex.getNodeId(node).toParseableString();
+
+                write(line.append("N ").append(node).append(' ').append(nodeId));
+                nodesInFile.set(node);
+            }
+
+            line.append(times[slot]).append(' ')
+                .append((char) ops[slot]).append(' ')
+                .append(node).append(' ')
+                .append(Long.toHexString(statuses[slot])).append(' ');
+
+            switch (types[slot]) {
+                case TYPE_BOOLEAN:
+                    line.append(values[slot] != 0);
+                    break;
+                case TYPE_NUMBER:
+                    line.append(Double.longBitsToDouble(values[slot]));
+                    break;
+                default:
+                    line.append('-');
+            }
+            write(line);
+
+            sequence++;
+            count++;
+
+            // Free slots as we go, so producers don't see a full ring behind a long batch
+            if ((count & 255) == 0) tail = sequence;
+        }
+
+        tail = sequence;
+        written.add(count);
+
+        return count;
+    }
+
+    private void write(StringBuilder line) throws IOException {
+        line.append('\n');
+        writer.append(line);
+        fileSize += line.length();
+        line.setLength(0);
+    }
+
+    private void roll() throws IOException {
+        closeWriter();
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        if (Files.exists(file) && Files.size(file) > 0) {
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path older = generation(i - 1);
+
+                if (Files.exists(older)) {
+                    Files.move(older, generation(i), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+
+        writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 64 * 1024);
+        fileSize = 0;
+        nodesInFile.clear();
+    }
+
+    /**
+     * @return {@code audit.log} for generation 0, {@code audit.log.1} for generation 1, and so on.
+     */
+    private Path generation(int i) {
+        return i == 0 ? file : file.resolveSibling(file.getFileName() + "." + i);
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warn("Could not close {}: {}", file, e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the gateway for a whole set of {@link GatewayPoint}s in one cycle.
+ * <p>
+ * In {@link Mode#COLLECTION} mode, the default, a cycle over more than one point is a single {@code GET /dev}: the
+ * device collection is decoded once and every ldev it carries data for is routed to its node through the
+ * {@link PointIndex}. A point the collection has no data for gets none this cycle, just as a point whose own request
+ * returns no data, and is reported once; if {@code /dev} fails, the whole cycle fails and the outage is logged once.
+ * In {@link Mode#BATCH} mode, for gateways whose collection carries no data, and for single points, every point is
+ * fetched with a concurrent {@code /dev/{id}/ldev/{key}/data} request on the shared {@link GatewayClient}, whose
+ * responses are decoded straight from the byte stream by a {@link GatewayJsonDecoder}.
+ * <p>
+ * Every value goes through the {@link ChangeFilter} first, which writes a changed value to the {@link PointStore};
+ * the listeners are then told the point changed, and read what they need from the store. An unchanged value just
+ * marks the stored one as confirmed, so the {@link GatewayCache} counts it as fresh. A writable point's node holds
+ * the value a client wrote, so it is given the gateway's value too, unless the {@link ActuatorWriter} still has a
+ * command for it on its way.
+ */
+public class BulkPoller {
+
+    public enum Mode {
+        BATCH, COLLECTION
+    }
+
+    public interface PointListener {
+        /**
+         * The value of {@code point} in the {@link PointStore} changed.
+         */
+        void onUpdate(GatewayPoint point);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String gateway;
+    private final GatewayClient gatewayClient;
+    private final PointIndex pointIndex;
+    private final Mode mode;
+    private final PointStore store;
+    private final ChangeFilter changeFilter;
+    private final ActuatorWriter actuatorWriter;
+
+    private final List<PointListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Keys of the points already reported as missing from {@code /dev}. */
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    /** Whether the last {@code GET /dev} failed, so that an outage is logged once rather than every cycle. */
+    private volatile boolean collectionFailed;
+
+    /**
+     * @param gateway        the name of the gateway {@code gatewayClient} talks to; only its points are polled.
+     * @param actuatorWriter the writer of the gateway's commands, whose pending writes polled values must not hide.
+     */
+    public BulkPoller(
+        String gateway, GatewayClient gatewayClient, PointIndex pointIndex, Mode mode, PointStore store,
+        ChangeFilter changeFilter, ActuatorWriter actuatorWriter) {
+
+        this.gateway = gateway;
+        this.gatewayClient = gatewayClient;
+        this.pointIndex = pointIndex;
+        this.mode = mode;
+        this.store = store;
+        this.changeFilter = changeFilter;
+        this.actuatorWriter = actuatorWriter;
+    }
+
+    public void addListener(PointListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Poll every point whose value is owned by the gateway.
+     */
+    public CompletableFuture<Void> poll() {
+        return poll(pointIndex.polledPoints(gateway));
+    }
+
+    public CompletableFuture<Void> poll(Collection<GatewayPoint> points) {
+        return CompletableFuture.allOf(pollEach(points).values().toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Poll {@code points} in one cycle.
+     *
+     * @return a future per point, completing when that point's value has been routed, or there was none, and
+     * exceptionally if it could not be fetched.
+     */
+    public Map<GatewayPoint, CompletableFuture<Void>> pollEach(Collection<GatewayPoint> points) {
+        Map<GatewayPoint, CompletableFuture<Void>> futures = new HashMap<>(points.size() * 2);
+
+        if (mode == Mode.COLLECTION && points.size() > 1) {
+            CompletableFuture<Set<String>> collection = gatewayClient.get("/dev")
+                .thenApply(response -> routeCollection(new JSONArray(response)))
+                .whenComplete(this::collectionPolled);
+
+            for (GatewayPoint point : points) {
+                futures.put(point, collection.thenAccept(updated -> {
+                    if (!updated.contains(point.getKey()) && missing.add(point.getKey())) {
+                        logger.warn(
+                            "No data for {} in GET /dev of {}; set gateway.bulk.mode=batch if it never has any",
+                            point, gateway);
+                    }
+                }));
+            }
+        } else {
+            for (GatewayPoint point : points) {
+                futures.put(point, request(point));
+            }
+        }
+
+        return futures;
+    }
+
+    /**
+     * Apply a value the gateway pushed for {@code point} (see {@link PushEndpoint}) exactly like a polled one.
+     */
+    public void push(GatewayPoint point, GatewayReading reading) {
+        route(point, reading);
+    }
+
+    private CompletableFuture<Void> request(GatewayPoint point) {
+        return gatewayClient
+            .getDeviceData(point.getDeviceId(), point.getLdevKey(), 1, reading -> route(point, reading))
+            .thenAccept(count -> {
+                if (count == 0) logger.debug("No data for {}", point);
+            });
+    }
+
+    private void collectionPolled(Set<String> updated, Throwable ex) {
+        if (ex != null && !collectionFailed) {
+            collectionFailed = true;
+            logger.warn("GET /dev of {} failed, failing its poll cycles until it recovers: {}",
+                gateway, ex.getMessage());
+        } else if (ex == null && collectionFailed) {
+            collectionFailed = false;
+            logger.info("GET /dev of {} recovered", gateway);
+        }
+    }
+
+    /**
+     * Route the ldev data embedded in a {@code GET /dev} response.
+     *
+     * @return the keys of the points that were updated.
+     */
+    private Set<String> routeCollection(JSONArray devices) {
+        Set<String> updated = new HashSet<>();
+
+        for (int i = 0; i < devices.length(); i++) {
+            JSONObject device = devices.optJSONObject(i);
+            if (device == null || !device.has("id")) continue;
+
+            int deviceId = device.getInt("id");
+
+            DeviceDiscovery.forEachLdev(device, (key, ldev) -> routeLdev(deviceId, key, ldev, updated));
+        }
+
+        return updated;
+    }
+
+    private void routeLdev(int deviceId, String ldevKey, JSONObject ldev, Set<String> updated) {
+        GatewayPoint point = pointIndex.get(gateway, deviceId, ldevKey);
+        JSONArray data = ldev.optJSONArray("data");
+
+        if (point != null && data != null && data.length() > 0) {
+            route(point, data);
+            updated.add(point.getKey());
+        }
+    }
+
+    private void route(GatewayPoint point, JSONArray data) {
+        JSONObject latest = data.getJSONObject(0);
+
+        update(point, changeFilter.filter(point, latest.opt("value"), latest.optLong("timestamp", -1)));
+    }
+
+    private void route(GatewayPoint point, GatewayReading reading) {
+        update(point, changeFilter.filter(point, reading));
+    }
+
+    private void update(GatewayPoint point, boolean changed) {
+        if (!changed) {
+            store.touch(point);
+        }
+
+        if (point.isWritable() && !actuatorWriter.isPending(point)) {
+            point.getNode().setValue(store.get(point));
+        }
+
+        if (!changed) return;
+
+        for (PointListener listener : listeners) {
+            listener.onUpdate(point);
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.DelegatingAttributeDelegate;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Serves reads of gateway-polled nodes from the {@link PointStore}, which holds their values instead of the nodes.
+ * <p>
+ * External reads go through the {@link GatewayCache}: a stale or missing value triggers an asynchronous refresh;
+ * until it lands the read is answered with the stored value (or status), so a read never waits on the gateway.
+ */
+public class CachingDelegate extends DelegatingAttributeDelegate {
+
+    private final PointIndex pointIndex;
+    private final PointStore store;
+    private final GatewayCache cache;
+
+    public CachingDelegate(
+        @Nullable AttributeDelegate parent, PointIndex pointIndex, PointStore store, GatewayCache cache) {
+
+        super(parent);
+
+        this.pointIndex = pointIndex;
+        this.store = store;
+        this.cache = cache;
+    }
+
+    @Override
+    public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
+        GatewayPoint point = pointIndex.get(node.getNodeId());
+
+        if (point != null && !point.isWritable()) {
+            // only external reads go through the cache
+            return context.getSession().isPresent() ? cache.get(point) : store.get(point);
+        }
+
+        return super.getValue(context, node);
+    }
+
+}
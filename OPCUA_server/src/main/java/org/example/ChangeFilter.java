@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The ingestion stage between a decoded gateway value and the {@link PointStore}: converts the value to the point's
+ * data type and compares it with the stored one, so the store (and the listeners notified of its changes) are only
+ * updated on a real change.
+ * <p>
+ * Numeric points can have a deadband, looked up per point like the poll intervals
+ * ({@code deadband.absolute.<deviceId>/<ldevKey>}, {@code .<deviceId>}, {@code .<ldevKey>}, then
+ * {@code deadband.absolute}; the same for {@code deadband.percent}). A value is a change if it differs from the
+ * current one by more than the absolute deadband and by more than the percent deadband of the current value. A point
+ * whose status isn't good always takes the next value.
+ * <p>
+ * String points take the value as text, and points of other data types as the gateway sent it (a boolean, number or
+ * string), compared by equality.
+ * <p>
+ * Changed values are stored with the gateway's timestamp as source timestamp (the time of arrival if it has none) and
+ * the time of arrival as server timestamp; unchanged values leave the stored timestamps alone. Nothing is allocated
+ * for numeric and boolean points, changed or not.
+ */
+public class ChangeFilter {
+
+    private final Map<GatewayPoint, Settings> settings = new ConcurrentHashMap<>();
+
+    private final Config config;
+    private final PointStore store;
+
+    private final LongAdder changes;
+    private final LongAdder suppressed;
+
+    public ChangeFilter(Config config, PointStore store, Metrics metrics) {
+        this.config = config;
+        this.store = store;
+
+        changes = metrics.counter("ingest.changes");
+        suppressed = metrics.counter("ingest.suppressed");
+    }
+
+    /**
+     * Store the value of {@code reading} if it changed; readings without a value are ignored.
+     *
+     * @return {@code true} if the stored value changed.
+     */
+    public boolean filter(GatewayPoint point, GatewayReading reading) {
+        byte kind = settings(point).kind;
+
+        if (kind == PointStore.KIND_STRING || kind == PointStore.KIND_OTHER) {
+            Object value = reading.toObject();
+            return value != null && filterObject(point, kind, value, reading.getTimestamp());
+        }
+
+        switch (reading.getType()) {
+            case GatewayReading.BOOLEAN:
+            case GatewayReading.NUMBER:
+                return filter(point, reading.getNumber(), reading.getTimestamp());
+            case GatewayReading.STRING:
+                return filter(point, reading.getText().toString(), reading.getTimestamp());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Store {@code value} if it changed.
+     *
+     * @param value     a value as decoded by {@code org.json}.
+     * @param timestamp the source timestamp in Unix milliseconds, or -1 if absent.
+     * @return {@code true} if the stored value changed, {@code false} if it didn't or can't be converted.
+     */
+    public boolean filter(GatewayPoint point, @Nullable Object value, long timestamp) {
+        byte kind = settings(point).kind;
+
+        if (kind == PointStore.KIND_STRING || kind == PointStore.KIND_OTHER) {
+            return (value instanceof Boolean || value instanceof Number || value instanceof String)
+                && filterObject(point, kind, value, timestamp);
+        }
+
+        if (value instanceof Boolean) {
+            return filter(point, (Boolean) value ? 1.0 : 0.0, timestamp);
+        } else if (value instanceof Number) {
+            return filter(point, ((Number) value).doubleValue(), timestamp);
+        } else if (value instanceof String) {
+            String text = ((String) value).trim();
+
+            if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+                return filter(point, Boolean.parseBoolean(text) ? 1.0 : 0.0, timestamp);
+            }
+            try {
+                return filter(point, Double.parseDouble(text), timestamp);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Forget the settings of a point that is no longer polled.
+     */
+    public void remove(GatewayPoint point) {
+        settings.remove(point);
+    }
+
+    /**
+     * Store a numeric or boolean {@code value} if it changed by more than the point's deadband.
+     */
+    private boolean filter(GatewayPoint point, double value, long timestamp) {
+        Settings pointSettings = settings(point);
+
+        long bits = PointStore.toBits(pointSettings.kind, value);
+        boolean good = (store.status(point) & 0xC0000000) == 0;
+
+        if (good && !pointSettings.isChange(store.bits(point), bits)) {
+            suppressed.increment();
+            return false;
+        }
+
+        return write(point, bits, null, timestamp);
+    }
+
+    /**
+     * Store {@code value} on a string point as text, or on a point of another data type as it is, if it changed.
+     */
+    private boolean filterObject(GatewayPoint point, byte kind, Object value, long timestamp) {
+        Object object = kind == PointStore.KIND_STRING ? text(value) : variantValue(value);
+        boolean good = (store.status(point) & 0xC0000000) == 0;
+
+        if (good && object.equals(store.object(point))) {
+            suppressed.increment();
+            return false;
+        }
+
+        return write(point, 0, object, timestamp);
+    }
+
+    private boolean write(GatewayPoint point, long bits, @Nullable Object object, long timestamp) {
+        long sourceTime = timestamp >= 0 ? GatewayReading.toTicks(timestamp) : DateTime.now().getUtcTime();
+        if (!store.write(point, bits, object, 0, sourceTime)) return false;
+
+        changes.increment();
+        return true;
+    }
+
+    /**
+     * @return {@code value} as the gateway would have written it, e.g. {@code 21} rather than {@code 21.0}.
+     */
+    private static String text(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+
+            if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                return Long.toString((long) number);
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return {@code value} as a type a {@code Variant} holds; {@code org.json} decodes some numbers as big decimals.
+     */
+    private static Object variantValue(Object value) {
+        if (value instanceof Number
+            && !(value instanceof Integer || value instanceof Long || value instanceof Double)) {
+            return ((Number) value).doubleValue();
+        }
+        return value;
+    }
+
+    private Settings settings(GatewayPoint point) {
+        Settings pointSettings = settings.get(point);
+
+        return pointSettings != null ? pointSettings : settings.computeIfAbsent(point, this::newSettings);
+    }
+
+    private Settings newSettings(GatewayPoint point) {
+        return new Settings(
+            store.kind(point),
+            lookup("deadband.absolute", point),
+            lookup("deadband.percent", point)
+        );
+    }
+
+    private double lookup(String key, GatewayPoint point) {
+        double value = config.getDouble(key + "." + point.getKey(), -1);
+        if (value < 0) value = config.getDouble(key + "." + point.getDeviceId(), -1);
+        if (value < 0) value = config.getDouble(key + "." + point.getLdevKey(), -1);
+        if (value < 0) value = config.getDouble(key, 0);
+        return value;
+    }
+
+    private static class Settings {
+
+        private final byte kind;
+        private final double absolute;
+        private final double percent;
+
+        Settings(byte kind, double absolute, double percent) {
+            this.kind = kind;
+            this.absolute = absolute;
+            this.percent = percent;
+        }
+
+        /**
+         * @param current the stored value, as {@link PointStore#toBits} encodes it for the point's kind.
+         */
+        boolean isChange(long current, long next) {
+            if (kind == PointStore.KIND_BOOLEAN) {
+                return current != next;
+            }
+
+            double last = PointStore.toDouble(kind, current);
+            double delta = Math.abs(PointStore.toDouble(kind, next) - last);
+
+            if (Double.isNaN(delta)) return current != next;
+
+            return delta > absolute && delta > Math.abs(last) * percent / 100.0;
+        }
+
+    }
+
+}
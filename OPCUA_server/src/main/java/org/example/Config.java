@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server settings read from {@code ${config.dir}/config.properties}.
+ * <p>
+ * A system property with the same key takes precedence over the file, so
+ * any setting can be overridden with {@code -Dkey=value}.
+ * <p>
+ * A {@link #scope(String) scoped} view looks every key up with the scope's prefix first, so a group of components
+ * (one gateway, say) can override any setting, e.g. {@code gateways.siteA.poll.interval} over {@code poll.interval}.
+ */
+public class Config {
+
+    private static final Logger logger = LoggerFactory.getLogger(Config.class);
+
+    private final Properties properties;
+
+    // Prefix of the keys that override the plain ones; empty for the root view
+    private final String scope;
+
+    public Config(Properties properties) {
+        this(properties, "");
+    }
+
+    private Config(Properties properties, String scope) {
+        this.properties = properties;
+        this.scope = scope;
+    }
+
+    public static Config load() {
+        Path file = Paths.get(System.getProperty("config.dir", "conf"), "config.properties");
+        Properties properties = new Properties();
+
+        if (Files.isReadable(file)) {
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            } catch (IOException e) {
+                logger.warn("Could not read {}: {}", file, e.getMessage());
+            }
+        }
+
+        return new Config(properties);
+    }
+
+    /**
+     * @return a view of the same settings in which {@code prefix + key} overrides {@code key}.
+     */
+    public Config scope(String prefix) {
+        return new Config(properties, scope + prefix);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = null;
+
+        if (!scope.isEmpty()) {
+            value = System.getProperty(scope + key, properties.getProperty(scope + key));
+        }
+        if (value == null) {
+            value = System.getProperty(key, properties.getProperty(key));
+        }
+
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        try {
+            return value != null ? Integer.parseInt(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid integer for {}: {}", key, value);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        try {
+            return value != null ? Long.parseLong(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid long for {}: {}", key, value);
+            return defaultValue;
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        try {
+            return value != null ? Double.parseDouble(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid number for {}: {}", key, value);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    /**
+     * @return every setting whose key starts with {@code prefix}, keyed by the remainder of the key.
+     */
+    public Map<String, String> withPrefix(String prefix) {
+        Map<String, String> values = new TreeMap<>();
+
+        collect(prefix, values);
+        if (!scope.isEmpty()) {
+            collect(scope + prefix, values);
+        }
+
+        return values;
+    }
+
+    private void collect(String prefix, Map<String, String> values) {
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                values.put(key.substring(prefix.length()), properties.getProperty(key).trim());
+            }
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                values.put(key.substring(prefix.length()), System.getProperty(key).trim());
+            }
+        }
+    }
+
+}
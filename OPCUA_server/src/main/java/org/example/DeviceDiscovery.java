@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enumerates the devices behind the gateway ({@code GET /dev}) and their logical devices, and reports what changed
+ * since the previous scan.
+ * <p>
+ * Devices listed without their ldevs are fetched individually ({@code GET /dev/{id}}), at most
+ * {@code discovery.concurrency} at a time. A device whose fetch fails keeps the ldevs it had until a scan reaches it
+ * again, so one failed request doesn't remove its nodes.
+ */
+public class DeviceDiscovery {
+
+    /**
+     * A logical device found by a scan.
+     */
+    public static class Ldev {
+
+        private final int deviceId;
+        private final String deviceName;
+        private final String key;
+        private final String type;
+
+        Ldev(int deviceId, String deviceName, String key, @Nullable String type) {
+            this.deviceId = deviceId;
+            this.deviceName = deviceName;
+            this.key = key;
+            this.type = type;
+        }
+
+        public int getDeviceId() {
+            return deviceId;
+        }
+
+        public String getDeviceName() {
+            return deviceName;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        @Nullable
+        public String getType() {
+            return type;
+        }
+
+        String getPointKey() {
+            return GatewayPoint.key(deviceId, key);
+        }
+
+    }
+
+    /**
+     * The difference between two scans.
+     */
+    public static class Changes {
+
+        private final List<Ldev> added;
+        private final Set<String> removed;
+
+        Changes(List<Ldev> added, Set<String> removed) {
+            this.added = added;
+            this.removed = removed;
+        }
+
+        public List<Ldev> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return the point keys ({@code deviceId/ldevKey}) that disappeared.
+         */
+        public Set<String> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final GatewayClient gatewayClient;
+    private final int concurrency;
+
+    private Set<String> known = new HashSet<>();
+
+    public DeviceDiscovery(Config config, GatewayClient gatewayClient) {
+        this.gatewayClient = gatewayClient;
+
+        concurrency = Math.max(1, config.getInt("discovery.concurrency", 16));
+    }
+
+    /**
+     * Scan the gateway and diff the result against the previous scan.
+     */
+    public CompletableFuture<Changes> scan() {
+        return gatewayClient.get("/dev").thenCompose(response -> {
+            JSONArray devices = new JSONArray(response);
+
+            Map<String, Ldev> found = new LinkedHashMap<>();
+            Set<Integer> failed = new HashSet<>();
+            List<JSONObject> incomplete = new ArrayList<>();
+
+            for (int i = 0; i < devices.length(); i++) {
+                JSONObject device = devices.optJSONObject(i);
+                if (device == null || !device.has("id")) continue;
+
+                if (device.has("ldev")) {
+                    collect(device, found);
+                } else {
+                    incomplete.add(device);
+                }
+            }
+
+            return fetchDevices(incomplete, found, failed).thenApply(v -> diff(found, failed));
+        });
+    }
+
+    /**
+     * Fetch {@code GET /dev/{id}} for each of {@code devices}, keeping at most {@link #concurrency} requests in flight.
+     *
+     * @param failed receives the ids of the devices that couldn't be fetched.
+     */
+    private CompletableFuture<Void> fetchDevices(
+        List<JSONObject> devices, Map<String, Ldev> found, Set<Integer> failed) {
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        if (devices.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(devices.size());
+
+        Runnable[] fetchNext = new Runnable[1];
+        fetchNext[0] = () -> {
+            int i = next.getAndIncrement();
+            if (i >= devices.size()) return;
+
+            JSONObject listed = devices.get(i);
+            int deviceId = listed.getInt("id");
+
+            gatewayClient.get("/dev/" + deviceId).whenComplete((response, ex) -> {
+                if (ex == null) {
+                    JSONObject device = new JSONObject(response);
+                    if (!device.has("id")) device.put("id", deviceId);
+                    if (!device.has("name")) device.put("name", listed.optString("name"));
+
+                    synchronized (found) {
+                        collect(device, found);
+                    }
+                } else {
+                    logger.warn("Discovery of device {} failed: {}", deviceId, ex.getMessage());
+
+                    synchronized (found) {
+                        failed.add(deviceId);
+                    }
+                }
+
+                if (remaining.decrementAndGet() == 0) {
+                    done.complete(null);
+                } else {
+                    fetchNext[0].run();
+                }
+            });
+        };
+
+        for (int i = 0; i < Math.min(concurrency, devices.size()); i++) {
+            fetchNext[0].run();
+        }
+
+        return done;
+    }
+
+    /**
+     * Count {@code pointKeys} ({@code deviceId/ldevKey}) as found by the previous scan, so that the next scan reports
+     * the ones that are gone as removed rather than the others as added.
+     */
+    public synchronized void remember(Collection<String> pointKeys) {
+        known.addAll(pointKeys);
+    }
+
+    /**
+     * @param failed the devices this scan couldn't fetch, whose known ldevs are carried forward.
+     */
+    private synchronized Changes diff(Map<String, Ldev> found, Set<Integer> failed) {
+        List<Ldev> added = new ArrayList<>();
+        for (Ldev ldev : found.values()) {
+            if (!known.contains(ldev.getPointKey())) {
+                added.add(ldev);
+            }
+        }
+
+        Set<String> removed = new HashSet<>();
+        Set<String> kept = new HashSet<>(found.keySet());
+
+        for (String pointKey : known) {
+            if (found.containsKey(pointKey)) continue;
+
+            if (failed.contains(deviceId(pointKey))) {
+                kept.add(pointKey);
+            } else {
+                removed.add(pointKey);
+            }
+        }
+
+        known = kept;
+
+        return new Changes(added, removed);
+    }
+
+    private static int deviceId(String pointKey) {
+        return Integer.parseInt(pointKey.substring(0, pointKey.indexOf('/')));
+    }
+
+    private static void collect(JSONObject device, Map<String, Ldev> found) {
+        int deviceId = device.getInt("id");
+        String deviceName = device.optString("name", "Device " + deviceId);
+
+        forEachLdev(device, (key, ldev) -> {
+            Ldev discovered = new Ldev(deviceId, deviceName, key, ldev.optString("type", null));
+            found.put(discovered.getPointKey(), discovered);
+        });
+    }
+
+    /**
+     * Visit the ldevs of a device object, whether listed as {@code "ldev": [{"key": ...}, ...]} or as
+     * {@code "ldev": {"<key>": {...}, ...}}.
+     */
+    static void forEachLdev(JSONObject device, BiConsumer<String, JSONObject> consumer) {
+        Object ldevs = device.opt("ldev");
+
+        if (ldevs instanceof JSONArray) {
+            JSONArray array = (JSONArray) ldevs;
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject ldev = array.optJSONObject(i);
+                if (ldev != null && ldev.has("key")) {
+                    consumer.accept(ldev.getString("key"), ldev);
+                }
+            }
+        } else if (ldevs instanceof JSONObject) {
+            JSONObject object = (JSONObject) ldevs;
+            for (String key : object.keySet()) {
+                JSONObject ldev = object.optJSONObject(key);
+                consumer.accept(key, ldev != null ? ldev : new JSONObject());
+            }
+        }
+    }
+
+}
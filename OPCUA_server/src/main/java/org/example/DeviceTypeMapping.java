@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps a gateway ldev (by its type, or failing that its key) to the variable node that mirrors it.
+ * <p>
+ * Entries are {@code <DataType>[,<commandKey>]}, where a command key makes the node writable. The built-in table can
+ * be extended or overridden with {@code discovery.type.<ldevTypeOrKey>=...}, e.g.
+ * {@code discovery.type.dimmer=Double,level}. Ldevs that match nothing are mapped to {@code BaseDataType}, read-only.
+ */
+public class DeviceTypeMapping {
+
+    public static class Type {
+
+        private final NodeId dataType;
+        private final String commandKey;
+
+        Type(NodeId dataType, @Nullable String commandKey) {
+            this.dataType = dataType;
+            this.commandKey = commandKey;
+        }
+
+        public NodeId getDataType() {
+            return dataType;
+        }
+
+        @Nullable
+        public String getCommandKey() {
+            return commandKey;
+        }
+
+    }
+
+    private static final Type DEFAULT = new Type(Identifiers.BaseDataType, null);
+
+    private static final Map<String, NodeId> DATA_TYPES = Map.of(
+        "boolean", Identifiers.Boolean,
+        "double", Identifiers.Double,
+        "float", Identifiers.Float,
+        "int32", Identifiers.Int32,
+        "int64", Identifiers.Int64,
+        "string", Identifiers.String
+    );
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Type> types = new HashMap<>();
+
+    public DeviceTypeMapping(Config config) {
+        define("alarm", "Boolean");
+        define("motion", "Boolean");
+        define("occupancy", "Boolean");
+        define("contact", "Boolean");
+        define("smartplug", "Boolean,onoff");
+        define("onoff", "Boolean,onoff");
+        define("temperature", "Double");
+        define("humidity", "Double");
+        define("airquality", "Double");
+        define("co2", "Double");
+        define("voc", "Double");
+        define("illuminance", "Double");
+        define("power", "Double");
+        define("energy", "Double");
+        define("battery", "Double");
+
+        config.withPrefix("discovery.type.").forEach(this::define);
+    }
+
+    /**
+     * @param ldevType the ldev type reported by the gateway, if any.
+     */
+    public Type get(String ldevKey, @Nullable String ldevType) {
+        Type type = null;
+
+        if (ldevType != null && !ldevType.isEmpty()) {
+            type = types.get(ldevType.toLowerCase(Locale.ROOT));
+        }
+        if (type == null) {
+            type = types.get(ldevKey.toLowerCase(Locale.ROOT));
+        }
+
+        return type != null ? type : DEFAULT;
+    }
+
+    private void define(String name, String definition) {
+        String[] parts = definition.split(",", 2);
+        NodeId dataType = DATA_TYPES.get(parts[0].trim().toLowerCase(Locale.ROOT));
+
+        if (dataType == null) {
+            logger.warn("Unknown data type in discovery.type.{}: {}", name, definition);
+            return;
+        }
+
+        String commandKey = parts.length > 1 ? parts[1].trim() : null;
+
+        types.put(name.toLowerCase(Locale.ROOT), new Type(dataType, commandKey));
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes {@link Metrics} as variable nodes every {@code diagnostics.interval} ms, so OPC UA clients can subscribe
+ * to the server's own health. Nodes are created on first use through a {@link NodeFactory}:
+ * <ul>
+ *     <li>a counter {@code x} as {@code x} (total) and {@code x.rate} (per second over the last interval);</li>
+ *     <li>a gauge {@code x} as {@code x};</li>
+ *     <li>a histogram {@code x} as {@code x.count}, {@code x.p50Ms}, {@code x.p99Ms} and {@code x.maxMs} over the
+ *     last interval;</li>
+ *     <li>the per-node counters summed up as {@code node.reads} and {@code node.writes}.</li>
+ * </ul>
+ */
+public class DiagnosticsPublisher {
+
+    public interface NodeFactory {
+        UaVariableNode create(String name, NodeId dataType);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, UaVariableNode> nodes = new HashMap<>();
+    private final Map<String, Long> lastCounts = new HashMap<>();
+    private final Map<String, LatencyHistogram.Snapshot> lastSnapshots = new HashMap<>();
+
+    private final Metrics metrics;
+    private final NodeFactory nodeFactory;
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMillis;
+
+    private long lastPublished = System.nanoTime();
+    private ScheduledFuture<?> future;
+
+    public DiagnosticsPublisher(
+        Config config, Metrics metrics, NodeFactory nodeFactory, ScheduledExecutorService scheduler) {
+
+        this.metrics = metrics;
+        this.nodeFactory = nodeFactory;
+        this.scheduler = scheduler;
+
+        intervalMillis = config.getLong("diagnostics.interval", 1000);
+    }
+
+    public synchronized void start() {
+        if (future == null && intervalMillis > 0) {
+            future = scheduler.scheduleAtFixedRate(this::publish, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    private synchronized void publish() {
+        try {
+            long now = System.nanoTime();
+            double seconds = Math.max(now - lastPublished, 1) / 1e9;
+            lastPublished = now;
+
+            metrics.getCounters().forEach((name, counter) -> publishCounter(name, counter.sum(), seconds));
+
+            long reads = 0;
+            long writes = 0;
+            for (Metrics.NodeCounters counters : metrics.getNodes().values()) {
+                reads += counters.getReads();
+                writes += counters.getWrites();
+            }
+            publishCounter("node.reads", reads, seconds);
+            publishCounter("node.writes", writes, seconds);
+
+            metrics.getGauges().forEach((name, gauge) ->
+                set(name, Identifiers.Double, gauge.get().doubleValue()));
+
+            metrics.getHistograms().forEach((name, histogram) -> {
+                LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+                LatencyHistogram.Snapshot last = lastSnapshots.put(name, snapshot);
+                LatencyHistogram.Snapshot interval = last != null ? snapshot.minus(last) : snapshot;
+
+                set(name + ".count", Identifiers.Int64, interval.getCount());
+                set(name + ".p50Ms", Identifiers.Double, millis(interval.getValueAtQuantile(0.5)));
+                set(name + ".p99Ms", Identifiers.Double, millis(interval.getValueAtQuantile(0.99)));
+                set(name + ".maxMs", Identifiers.Double, millis(interval.getValueAtQuantile(1.0)));
+            });
+        } catch (Throwable t) {
+            logger.error("Publishing diagnostics failed: {}", t.getMessage(), t);
+        }
+    }
+
+    private void publishCounter(String name, long total, double seconds) {
+        Long last = lastCounts.put(name, total);
+
+        set(name, Identifiers.Int64, total);
+        set(name + ".rate", Identifiers.Double, last != null ? (total - last) / seconds : 0.0);
+    }
+
+    private void set(String name, NodeId dataType, Object value) {
+        UaVariableNode node = nodes.computeIfAbsent(name, n -> nodeFactory.create(n, dataType));
+
+        node.setValue(new DataValue(new Variant(value), StatusCode.GOOD, DateTime.now()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+}
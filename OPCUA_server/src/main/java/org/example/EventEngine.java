@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.EventItem;
+import org.eclipse.milo.opcua.sdk.server.items.BaseMonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.BaseEventNode;
+import org.eclipse.milo.opcua.sdk.server.subscriptions.Subscription;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+/**
+ * Raises typed device events from the ingestion path and posts them on the server's event bus, for clients
+ * subscribed to the events of the Server node:
+ * <ul>
+ *     <li>{@code DeviceAlarmEventType}: a point with an ldev key in {@code events.alarmKeys} became true;</li>
+ *     <li>{@code PlugToggledEventType}: a point with an ldev key in {@code events.plugKeys} changed, as polled or as
+ *     confirmed by the gateway after a client's write;</li>
+ *     <li>{@code DeviceOfflineEventType} (a {@code DeviceFailureEventType}): {@code events.offlineAfter} polls of a
+ *     device failed in a row, and {@code DeviceOnlineEventType} (a {@code SystemEventType}) when it answers again.</li>
+ * </ul>
+ * Every event type has one event node, created once and refilled for every event, so posting allocates no nodes.
+ * Raised events are queued and posted together by one task, at most {@code events.batchDelay} ms after the first of
+ * them; the event bus delivers synchronously, so a node is free again as soon as its post returns.
+ * <p>
+ * Whether any client monitors events is checked every {@code events.subscriberCheck} ms; until one does, raising an
+ * event only updates the device state it depends on.
+ */
+public class EventEngine implements BulkPoller.PointListener, PollingScheduler.PollListener {
+
+    public enum Kind {
+        DEVICE_ALARM("DeviceAlarmEventType", Identifiers.BaseEventType, 800),
+        PLUG_TOGGLED("PlugToggledEventType", Identifiers.BaseEventType, 300),
+        DEVICE_OFFLINE("DeviceOfflineEventType", Identifiers.DeviceFailureEventType, 700),
+        DEVICE_ONLINE("DeviceOnlineEventType", Identifiers.SystemEventType, 200);
+
+        final String typeName;
+        final NodeId supertype;
+        final int severity;
+
+        Kind(String typeName, NodeId supertype, int severity) {
+            this.typeName = typeName;
+            this.supertype = supertype;
+            this.severity = severity;
+        }
+    }
+
+    public interface TypeFactory {
+        NodeId create(String name, NodeId supertype);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<Kind, BaseEventNode> templates = new EnumMap<>(Kind.class);
+    // By device key, gateway/deviceId
+    private final Map<String, DeviceState> devices = new ConcurrentHashMap<>();
+
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // EventIds are a random prefix per server run and a sequence number
+    private final long eventIdPrefix = ThreadLocalRandom.current().nextLong();
+    private final AtomicLong eventSequence = new AtomicLong();
+
+    private final OpcUaServer server;
+    private final PointStore store;
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean enabled;
+    private final Set<String> alarmKeys;
+    private final Set<String> plugKeys;
+    private final int offlineAfter;
+    private final int queueSize;
+    private final long batchDelayMillis;
+    private final long subscriberCheckMillis;
+
+    private final LongAdder raised;
+    private final LongAdder posted;
+    private final LongAdder dropped;
+    private final LatencyHistogram batchDuration;
+
+    private volatile int subscribers;
+    private volatile boolean started;
+
+    private ScheduledFuture<?> checkFuture;
+
+    public EventEngine(Config config, OpcUaServer server, PointStore store, Metrics metrics) {
+        this.server = server;
+        this.store = store;
+        this.scheduler = server.getScheduledExecutorService();
+
+        enabled = config.getBoolean("events.enabled", true);
+        alarmKeys = keys(config.getString("events.alarmKeys", "alarm"));
+        plugKeys = keys(config.getString("events.plugKeys", "smartplug"));
+        offlineAfter = Math.max(1, config.getInt("events.offlineAfter", 3));
+        queueSize = Math.max(1, config.getInt("events.queueSize", 10_000));
+        batchDelayMillis = config.getLong("events.batchDelay", 10);
+        subscriberCheckMillis = config.getLong("events.subscriberCheck", 1000);
+
+        raised = metrics.counter("events.raised");
+        posted = metrics.counter("events.posted");
+        dropped = metrics.counter("events.dropped");
+        batchDuration = metrics.histogram("events.batch");
+        metrics.gauge("events.subscribers", () -> subscribers);
+        metrics.gauge("events.queued", queued::get);
+    }
+
+    /**
+     * Create the event types and their event nodes, and start watching for event subscriptions.
+     */
+    public synchronized void start(TypeFactory typeFactory) {
+        if (!enabled || started) return;
+
+        try {
+            for (Kind kind : Kind.values()) {
+                NodeId typeId = typeFactory.create(kind.typeName, kind.supertype);
+
+                BaseEventNode node = server.getEventFactory().createEvent(
+                    new NodeId(typeId.getNamespaceIndex(), "ICPS/Events/" + kind.typeName),
+                    kind.supertype
+                );
+
+                node.setBrowseName(new QualifiedName(typeId.getNamespaceIndex(), kind.typeName));
+                node.setDisplayName(LocalizedText.english(kind.typeName));
+                node.setEventType(typeId);
+                node.setReceiveTime(DateTime.NULL_VALUE);
+                node.setSeverity(ushort(kind.severity));
+
+                templates.put(kind, node);
+            }
+        } catch (UaException e) {
+            logger.error("Device events disabled, creating event nodes failed: {}", e.getMessage(), e);
+
+            templates.values().forEach(BaseEventNode::delete);
+            templates.clear();
+            return;
+        }
+
+        started = true;
+
+        if (subscriberCheckMillis > 0) {
+            checkFuture = scheduler.scheduleWithFixedDelay(
+                this::checkSubscribers, 0, subscriberCheckMillis, TimeUnit.MILLISECONDS);
+        } else {
+            subscribers = 1;
+        }
+    }
+
+    public synchronized void stop() {
+        if (checkFuture != null) {
+            checkFuture.cancel(false);
+            checkFuture = null;
+        }
+
+        started = false;
+        subscribers = 0;
+
+        templates.values().forEach(BaseEventNode::delete);
+        templates.clear();
+    }
+
+    /**
+     * @return {@code true} if changes of {@code point} raise events.
+     */
+    public boolean raisesEvents(GatewayPoint point) {
+        return enabled && (alarmKeys.contains(point.getLdevKey()) || plugKeys.contains(point.getLdevKey()));
+    }
+
+    @Override
+    public void onUpdate(GatewayPoint point) {
+        boolean alarm = alarmKeys.contains(point.getLdevKey());
+
+        if (!alarm && !plugKeys.contains(point.getLdevKey())) return;
+        if (store.kind(point) != PointStore.KIND_BOOLEAN) return;
+
+        boolean on = store.bits(point) != 0;
+
+        if (alarm) {
+            if (on) {
+                raise(Kind.DEVICE_ALARM, point, name(point) + " tripped");
+            }
+        } else {
+            raise(Kind.PLUG_TOGGLED, point, name(point) + " switched " + (on ? "on" : "off"));
+        }
+    }
+
+    @Override
+    public void onPoll(GatewayPoint point, @Nullable Throwable failure) {
+        String device = point.getDeviceKey();
+        DeviceState state = devices.get(device);
+
+        if (state == null) {
+            if (failure == null) return;
+
+            state = devices.computeIfAbsent(device, key -> new DeviceState());
+        }
+
+        Kind kind = null;
+
+        synchronized (state) {
+            if (failure == null) {
+                state.failures = 0;
+
+                if (state.offline) {
+                    state.offline = false;
+                    kind = Kind.DEVICE_ONLINE;
+                }
+            } else if (++state.failures >= offlineAfter && !state.offline) {
+                state.offline = true;
+                kind = Kind.DEVICE_OFFLINE;
+            }
+        }
+
+        if (kind == Kind.DEVICE_OFFLINE) {
+            raise(kind, point, "Device " + device + " offline: " + failure.getMessage());
+        } else if (kind == Kind.DEVICE_ONLINE) {
+            raise(kind, point, "Device " + device + " back online");
+        }
+    }
+
+    public int getSubscribers() {
+        return subscribers;
+    }
+
+    void raise(Kind kind, GatewayPoint point, String message) {
+        if (subscribers == 0) return;
+
+        raised.increment();
+
+        if (queued.incrementAndGet() > queueSize) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+
+        queue.add(new Event(kind, point.getNode().getNodeId(), name(point), message, DateTime.now()));
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::drain, batchDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Post every queued event; only ever runs on one thread at a time.
+     */
+    private void drain() {
+        long start = System.nanoTime();
+        int count = 0;
+
+        do {
+            Event event;
+            while ((event = queue.poll()) != null) {
+                queued.decrementAndGet();
+
+                try {
+                    if (post(event)) count++;
+                } catch (Throwable t) {
+                    logger.error("Posting {} failed: {}", event.kind, t.getMessage(), t);
+                }
+            }
+
+            drainScheduled.set(false);
+        } while (!queue.isEmpty() && drainScheduled.compareAndSet(false, true));
+
+        if (count > 0) {
+            batchDuration.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Fill the event node of the event's type and post it.
+     *
+     * @return {@code false} if the event was dropped because nobody is subscribed any more.
+     */
+    boolean post(Event event) {
+        BaseEventNode node = templates.get(event.kind);
+
+        if (node == null || subscribers == 0) {
+            dropped.increment();
+            return false;
+        }
+
+        node.setEventId(nextEventId());
+        node.setSourceNode(event.sourceNode);
+        node.setSourceName(event.sourceName);
+        node.setTime(event.time);
+        node.setReceiveTime(event.time);
+        node.setMessage(LocalizedText.english(event.message));
+
+        // Counted first: the bus delivers synchronously and never rethrows, so subscribers see the event counted
+        posted.increment();
+        server.getEventBus().post(node);
+
+        return true;
+    }
+
+    private void checkSubscribers() {
+        int count = 0;
+
+        try {
+            for (Subscription subscription : server.getSubscriptions().values()) {
+                for (BaseMonitoredItem<?> item : subscription.getMonitoredItems().values()) {
+                    if (item instanceof EventItem && ((EventItem) item).isSamplingEnabled()) count++;
+                }
+            }
+        } catch (Throwable t) {
+            logger.warn("Counting event subscribers failed: {}", t.getMessage());
+            return;
+        }
+
+        if (count > 0 != subscribers > 0) {
+            logger.info("{} event subscribers, device events {}", count, count > 0 ? "on" : "off");
+        }
+
+        subscribers = count;
+    }
+
+    private ByteString nextEventId() {
+        return ByteString.of(ByteBuffer.allocate(16)
+            .putLong(eventIdPrefix)
+            .putLong(eventSequence.incrementAndGet())
+            .array());
+    }
+
+    private static String name(GatewayPoint point) {
+        LocalizedText displayName = point.getNode().getDisplayName();
+
+        return displayName != null && displayName.getText() != null ? displayName.getText() : point.getKey();
+    }
+
+    private static Set<String> keys(String list) {
+        Set<String> keys = new HashSet<>();
+
+        Arrays.stream(list.split(","))
+            .map(String::trim)
+            .filter(key -> !key.isEmpty())
+            .forEach(keys::add);
+
+        return keys;
+    }
+
+    static final class Event {
+
+        final Kind kind;
+        final NodeId sourceNode;
+        final String sourceName;
+        final String message;
+        final DateTime time;
+
+        Event(Kind kind, NodeId sourceNode, String sourceName, String message, DateTime time) {
+            this.kind = kind;
+            this.sourceNode = sourceNode;
+            this.sourceName = sourceName;
+            this.message = message;
+            this.time = time;
+        }
+
+    }
+
+    private static final class DeviceState {
+
+        int failures;
+        boolean offline;
+
+    }
+
+}
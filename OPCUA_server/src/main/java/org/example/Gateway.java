@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One gateway and everything that talks to it, kept apart from the other gateways (a bulkhead): its own
+ * {@link GatewayClient} (connection pool, threads, in-flight limit and request deadline), {@link BulkPoller},
+ * {@link PollingScheduler}, {@link ActuatorWriter}, {@link DeviceDiscovery} and {@link PushEndpoint}, and a thread of
+ * its own for polling ticks, write retries and discovery scans. A gateway that stalls or flaps only fills its own
+ * queues and threads; the others keep their schedule.
+ * <p>
+ * The gateways are listed in {@code gateways}, by names of letters, digits and underscores. Each one reads its
+ * settings with {@code gateways.<name>.<key>} taking precedence over {@code <key>} (so
+ * {@code gateways.siteA.gateway.url} is its URL, {@code gateways.siteA.poll.interval} its poll interval) and reports
+ * its metrics as {@code gw.<name>.<metric>}. Without a list there is a single gateway, {@value #DEFAULT}, configured
+ * and reporting exactly as before.
+ */
+public class Gateway implements AutoCloseable {
+
+    static final String DEFAULT = "default";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_]+");
+
+    private static final Logger logger = LoggerFactory.getLogger(Gateway.class);
+
+    private final String name;
+    private final Config config;
+    private final ScheduledExecutorService scheduler;
+    private final GatewayClient client;
+    private final BulkPoller bulkPoller;
+    private final PollingScheduler pollingScheduler;
+    private final ActuatorWriter actuatorWriter;
+    private final DeviceDiscovery discovery;
+    private final DeviceTypeMapping typeMapping;
+    private final PushEndpoint pushEndpoint;
+
+    /**
+     * @param config  the server's settings; the gateway reads its own through a scope.
+     * @param metrics the server's metrics; the gateway registers its own under its prefix.
+     */
+    public Gateway(
+        String name, Config config, Metrics metrics, PointIndex pointIndex, PointStore store,
+        ChangeFilter changeFilter) {
+
+        this.name = name;
+
+        boolean named = !DEFAULT.equals(name);
+        String threadPrefix = named ? "gateway-" + name + "-" : "gateway-";
+
+        this.config = named ? config.scope("gateways." + name + ".") : config;
+        Metrics gatewayMetrics = named ? metrics.prefixed("gw." + name + ".") : metrics;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, threadPrefix + "scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        client = new GatewayClient(this.config, threadPrefix, gatewayMetrics);
+        actuatorWriter = new ActuatorWriter(this.config, client, store, scheduler, gatewayMetrics);
+        bulkPoller = new BulkPoller(
+            name,
+            client,
+            pointIndex,
+            BulkPoller.Mode.valueOf(this.config.getString("gateway.bulk.mode", "collection").toUpperCase(Locale.ROOT)),
+            store,
+            changeFilter,
+            actuatorWriter
+        );
+        pollingScheduler = new PollingScheduler(this.config, bulkPoller, scheduler, gatewayMetrics);
+        discovery = new DeviceDiscovery(this.config, client);
+        typeMapping = new DeviceTypeMapping(this.config);
+        pushEndpoint = new PushEndpoint(
+            name, threadPrefix + "push", this.config, pointIndex, bulkPoller, pollingScheduler, gatewayMetrics);
+
+        if (named) {
+            gatewayMetrics.gauge("points", () -> pointIndex.size(name));
+        }
+    }
+
+    /**
+     * @return the gateway names listed in {@code gateways}, or just {@value #DEFAULT} if there are none.
+     */
+    static List<String> names(Config config) {
+        List<String> names = new ArrayList<>();
+
+        for (String name : config.getString("gateways", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) continue;
+
+            if (!NAME.matcher(name).matches()) {
+                logger.warn("Ignoring gateway '{}': names are letters, digits and underscores", name);
+            } else if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+
+        if (names.isEmpty()) {
+            names.add(DEFAULT);
+        }
+
+        return names;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return {@code true} for the single gateway of a server without a {@code gateways} list.
+     */
+    public boolean isDefault() {
+        return DEFAULT.equals(name);
+    }
+
+    /**
+     * @return the gateway's settings, its own overriding the server's.
+     */
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the gateway's own single thread, for work that must not wait behind other gateways.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public GatewayClient getClient() {
+        return client;
+    }
+
+    public BulkPoller getBulkPoller() {
+        return bulkPoller;
+    }
+
+    public PollingScheduler getPollingScheduler() {
+        return pollingScheduler;
+    }
+
+    public ActuatorWriter getActuatorWriter() {
+        return actuatorWriter;
+    }
+
+    public DeviceDiscovery getDiscovery() {
+        return discovery;
+    }
+
+    public DeviceTypeMapping getTypeMapping() {
+        return typeMapping;
+    }
+
+    public PushEndpoint getPushEndpoint() {
+        return pushEndpoint;
+    }
+
+    @Override
+    public void close() {
+        pushEndpoint.close();
+        pollingScheduler.stop();
+        scheduler.shutdownNow();
+        client.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Gateway{" + name + "}";
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-through freshness policy over the {@link PointStore}, which holds every point's latest value.
+ * <p>
+ * A value is fresh for a per-point TTL ({@code cache.ttl.<deviceId>/<ldevKey>}, default {@code cache.ttl}) after the
+ * gateway last confirmed it. A stale value is still served, and a refresh is started in the background
+ * (stale-while-revalidate); a point without a value yet is a miss, served with its status and also refreshed, so a
+ * lookup never waits on the gateway. At most one refresh per point is in flight.
+ */
+public class GatewayCache {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+
+    private final Set<GatewayPoint> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final Map<GatewayPoint, Long> ttls = new ConcurrentHashMap<>();
+
+    private final Config config;
+    private final PointStore store;
+    private final long defaultTtlNanos;
+    private final Function<GatewayPoint, CompletableFuture<Void>> loader;
+
+    /**
+     * @param loader fetches a point from the gateway into the store.
+     */
+    public GatewayCache(Config config, PointStore store, Function<GatewayPoint, CompletableFuture<Void>> loader) {
+        this.config = config;
+        this.store = store;
+        this.loader = loader;
+
+        defaultTtlNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("cache.ttl", 1000));
+    }
+
+    /**
+     * @return the stored value of {@code point}, fresh or stale, or just its status on a miss.
+     */
+    public DataValue get(GatewayPoint point) {
+        long confirmedAt = store.confirmedAt(point);
+
+        if (confirmedAt == 0) {
+            misses.increment();
+            refresh(point);
+        } else if (System.nanoTime() - confirmedAt > ttlNanos(point)) {
+            staleHits.increment();
+            refresh(point);
+        } else {
+            hits.increment();
+        }
+
+        return store.get(point);
+    }
+
+    /**
+     * Forget a point that was removed.
+     */
+    public void remove(GatewayPoint point) {
+        ttls.remove(point);
+    }
+
+    private void refresh(GatewayPoint point) {
+        if (refreshing.add(point)) {
+            refreshes.increment();
+
+            loader.apply(point).whenComplete((v, ex) -> {
+                refreshing.remove(point);
+
+                if (ex != null) {
+                    refreshFailures.increment();
+                    logger.debug("Refresh of {} failed: {}", point.getKey(), ex.getMessage());
+                }
+            });
+        }
+    }
+
+    private long ttlNanos(GatewayPoint point) {
+        Long ttl = ttls.get(point);
+
+        if (ttl == null) {
+            long ttlMillis = config.getLong("cache.ttl." + point.getKey(), -1);
+
+            ttl = ttlMillis >= 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : defaultTtlNanos;
+            ttls.put(point, ttl);
+        }
+
+        return ttl;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "GatewayCache{" +
+            "hits=" + getHits() +
+            ", staleHits=" + getStaleHits() +
+            ", misses=" + getMisses() +
+            ", refreshes=" + getRefreshes() +
+            ", refreshFailures=" + getRefreshFailures() +
+            '}';
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared client for the gateway REST API ({@code /ssapi/zb/...}).
+ * <p>
+ * All requests go through a single {@link HttpClient}, which keeps connections to the gateway alive and reuses
+ * them from its pool, so concurrent requests are spread over pooled connections (or multiplexed when HTTP/2 is
+ * enabled) instead of paying a TCP handshake each. Every request carries a deadline and completes its future
+ * exceptionally with a {@link GatewayException} on a non-2xx answer.
+ * <p>
+ * How a request is executed depends on {@code gateway.mode}:
+ * <ul>
+ *     <li>{@code async}: sent non-blocking, at most {@code gateway.maxInFlight} at a time, its response handled on
+ *     one of {@code gateway.threads} threads;</li>
+ *     <li>{@code platform}: sent blocking on one of {@code gateway.platformThreads} platform threads, which also
+ *     decode and route the response;</li>
+ *     <li>{@code virtual}: sent blocking on a virtual thread of its own, at most {@code gateway.maxInFlight} at a
+ *     time (Java 21 and later; falls back to {@code platform} on older runtimes).</li>
+ * </ul>
+ * The futures are the same in every mode, so callers don't care. In {@code async} mode the threads that decode a
+ * response are the ones delivering its bytes, so data responses are received whole before they are decoded rather
+ * than read as they arrive.
+ */
+public class GatewayClient implements AutoCloseable {
+
+    public enum Mode {
+        ASYNC, PLATFORM, VIRTUAL
+    }
+
+    static final String DEFAULT_BASE_URL = "http://gw-6d26.sandbox.tek.sdu.dk/ssapi/zb";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+
+    // Runs blocking requests; null in async mode
+    @Nullable
+    private final ExecutorService requestExecutor;
+
+    // Bounds the async requests and the virtual threads holding a request, so a poll of every device doesn't open a
+    // connection each
+    private final Semaphore inFlight;
+
+    // Async requests waiting for an in-flight slot
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    // Virtual threads live for one request, so their decoders are pooled rather than thread-local
+    private final Queue<GatewayJsonDecoder> decoders = new ConcurrentLinkedQueue<>();
+
+    private final LatencyHistogram rtt;
+    private final LongAdder requests;
+    private final LongAdder errors;
+
+    public GatewayClient(Config config, Metrics metrics) {
+        this(config, "gateway-", metrics);
+    }
+
+    /**
+     * @param threadPrefix the name prefix of the client's threads, e.g. {@code gateway-siteA-}.
+     */
+    public GatewayClient(Config config, String threadPrefix, Metrics metrics) {
+        this(
+            config.getString("gateway.url", DEFAULT_BASE_URL),
+            Duration.ofMillis(config.getLong("gateway.connectTimeout", 2000)),
+            Duration.ofMillis(config.getLong("gateway.requestTimeout", 5000)),
+            config.getInt("gateway.threads", 2),
+            config.getBoolean("gateway.http2", false),
+            Mode.valueOf(config.getString("gateway.mode", "async").toUpperCase(Locale.ROOT)),
+            config.getInt("gateway.maxInFlight", 256),
+            config.getInt("gateway.platformThreads", 32),
+            threadPrefix,
+            metrics
+        );
+    }
+
+    public GatewayClient(
+        String baseUrl, Duration connectTimeout, Duration requestTimeout, int threads, boolean http2,
+        Mode mode, int maxInFlight, int platformThreads, Metrics metrics) {
+
+        this(
+            baseUrl, connectTimeout, requestTimeout, threads, http2, mode, maxInFlight, platformThreads, "gateway-",
+            metrics);
+    }
+
+    private GatewayClient(
+        String baseUrl, Duration connectTimeout, Duration requestTimeout, int threads, boolean http2,
+        Mode mode, int maxInFlight, int platformThreads, String threadPrefix, Metrics metrics) {
+
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.requestTimeout = requestTimeout;
+
+        ExecutorService virtualThreads = mode == Mode.VIRTUAL ? newVirtualThreadExecutor(threadPrefix) : null;
+
+        if (mode == Mode.VIRTUAL && virtualThreads == null) {
+            logger.warn("Virtual threads need Java 21 or later, gateway.mode=platform instead");
+            mode = Mode.PLATFORM;
+        }
+        this.mode = mode;
+
+        switch (mode) {
+            case VIRTUAL:
+                executor = virtualThreads;
+                requestExecutor = virtualThreads;
+                break;
+            case PLATFORM:
+                executor = newFixedThreadPool(threadPrefix + "client-", threads);
+                requestExecutor = newFixedThreadPool(threadPrefix + "request-", platformThreads);
+                break;
+            default:
+                executor = newFixedThreadPool(threadPrefix + "client-", threads);
+                requestExecutor = null;
+                break;
+        }
+
+        inFlight = new Semaphore(maxInFlight);
+
+        httpClient = HttpClient.newBuilder()
+            .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .connectTimeout(connectTimeout)
+            .executor(executor)
+            .build();
+
+        rtt = metrics.histogram("gateway.rtt");
+        requests = metrics.counter("gateway.requests");
+        errors = metrics.counter("gateway.errors");
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * GET {@code path} (relative to the base URL) and return the response body.
+     */
+    public CompletableFuture<String> get(String path) {
+        HttpRequest request = newRequest(path).GET().build();
+
+        return send(request, HttpResponse.BodyHandlers.ofString()).thenApply(HttpResponse::body);
+    }
+
+    /**
+     * PUT {@code json} to {@code path} (relative to the base URL) and return the HTTP status code.
+     */
+    public CompletableFuture<Integer> put(String path, String json) {
+        HttpRequest request = newRequest(path)
+            .header("Content-Type", "application/json")
+            .PUT(HttpRequest.BodyPublishers.ofString(json))
+            .build();
+
+        return send(request, HttpResponse.BodyHandlers.discarding()).thenApply(HttpResponse::statusCode);
+    }
+
+    /**
+     * GET {@code /dev/{id}/ldev/{key}/data}.
+     */
+    public CompletableFuture<JSONArray> getDeviceData(int id, String key) {
+        return get(dataPath(id, key)).thenApply(JSONArray::new);
+    }
+
+    /**
+     * GET {@code /dev/{id}/ldev/{key}/data} and decode the response with the calling thread's
+     * {@link GatewayJsonDecoder}, passing at most {@code maxReadings} decoded objects to {@code handler}. The blocking
+     * modes stream the body and stop reading after the last object needed.
+     *
+     * @return a future completing with the number of objects passed to {@code handler}.
+     */
+    public CompletableFuture<Integer> getDeviceData(
+        int id, String key, int maxReadings, GatewayJsonDecoder.ReadingHandler handler) {
+
+        HttpRequest request = newRequest(dataPath(id, key)).GET().build();
+
+        if (requestExecutor == null) {
+            // Reading a stream here would wait for bytes that only these threads can deliver
+            return send(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response ->
+                decode(new ByteArrayInputStream(response.body()), maxReadings, handler));
+        }
+
+        return send(request, HttpResponse.BodyHandlers.ofInputStream()).thenApply(response ->
+            decode(response.body(), maxReadings, handler));
+    }
+
+    /**
+     * PUT {@code {"value": value}} to {@code /dev/{id}/ldev/{key}/data/{dataKey}}.
+     */
+    public CompletableFuture<Integer> putDeviceData(int id, String key, String dataKey, Object value) {
+        return put(dataPath(id, key) + "/" + dataKey, "{\"value\": " + value + "}");
+    }
+
+    static String dataPath(int id, String key) {
+        return "/dev/" + id + "/ldev/" + key + "/data";
+    }
+
+    private HttpRequest.Builder newRequest(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(requestTimeout);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        long start = System.nanoTime();
+        requests.increment();
+
+        // Round trip to the response headers; streamed bodies are read afterwards
+        CompletableFuture<HttpResponse<T>> future = sendRequest(request, bodyHandler).whenComplete((r, ex) -> {
+            rtt.record(System.nanoTime() - start);
+
+            if (ex != null) {
+                errors.increment();
+            }
+        });
+
+        return future.thenCompose(response -> {
+            int status = response.statusCode();
+
+            if (status / 100 == 2) {
+                return CompletableFuture.completedFuture(response);
+            } else {
+                errors.increment();
+                logger.debug("{} {} -> {}", request.method(), request.uri(), status);
+
+                return CompletableFuture.failedFuture(
+                    new GatewayException(request.method(), request.uri().toString(), status));
+            }
+        });
+    }
+
+    /**
+     * Send {@code request} the way the mode says; blocking modes complete the future on the request's thread, so
+     * everything chained to it runs there too.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendRequest(
+        HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+
+        if (requestExecutor == null) {
+            CompletableFuture<HttpResponse<T>> future = new CompletableFuture<>();
+
+            // Completed on the client's threads, so requests failing at once don't send the queue recursively
+            pending.add(() -> {
+                try {
+                    httpClient.sendAsync(request, bodyHandler).whenCompleteAsync((response, ex) -> {
+                        inFlight.release();
+                        sendPending();
+
+                        if (ex != null) {
+                            future.completeExceptionally(ex);
+                        } else {
+                            future.complete(response);
+                        }
+                    }, executor);
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    future.completeExceptionally(e);
+                }
+            });
+            sendPending();
+
+            return future;
+        }
+
+        boolean bounded = mode == Mode.VIRTUAL;
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (bounded) inFlight.acquire();
+                try {
+                    return httpClient.send(request, bodyHandler);
+                } finally {
+                    if (bounded) inFlight.release();
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, requestExecutor);
+    }
+
+    /**
+     * Send queued async requests while there are free in-flight slots.
+     */
+    private void sendPending() {
+        while (!pending.isEmpty() && inFlight.tryAcquire()) {
+            Runnable send = pending.poll();
+
+            if (send != null) {
+                send.run();
+            } else {
+                inFlight.release();
+            }
+        }
+    }
+
+    private int decode(InputStream in, int maxReadings, GatewayJsonDecoder.ReadingHandler handler) {
+        GatewayJsonDecoder decoder = mode == Mode.VIRTUAL ? borrowDecoder() : GatewayJsonDecoder.get();
+
+        try (InputStream body = in) {
+            return decoder.decode(body, maxReadings, handler);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            if (mode == Mode.VIRTUAL) decoders.offer(decoder);
+        }
+    }
+
+    private GatewayJsonDecoder borrowDecoder() {
+        GatewayJsonDecoder decoder = decoders.poll();
+
+        return decoder != null ? decoder : new GatewayJsonDecoder();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+
+        if (requestExecutor != null && requestExecutor != executor) {
+            requestExecutor.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newFixedThreadPool(String prefix, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, prefix + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * {@code Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadPrefix + "virtual-", 0).factory())},
+     * looked up reflectively so the server still builds and runs on runtimes without virtual threads.
+     *
+     * @return the executor, or {@code null} if the runtime has no virtual threads.
+     */
+    @Nullable
+    private static ExecutorService newVirtualThreadExecutor(String threadPrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                .invoke(builder, threadPrefix + "virtual-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            return (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+}
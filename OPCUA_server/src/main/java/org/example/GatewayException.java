@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * Thrown (or used to complete a future exceptionally) when the gateway answers with a non-success status.
+ */
+public class GatewayException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public GatewayException(String method, String uri, int statusCode) {
+        super(method + " " + uri + " failed with HTTP " + statusCode);
+
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+}
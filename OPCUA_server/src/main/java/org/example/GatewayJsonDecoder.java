@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming decoder for gateway data responses ({@code [{"key": ..., "value": ..., "timestamp": ...}, ...]}).
+ * <p>
+ * Bytes are pulled straight from the response stream into a reused buffer and only the mapped fields ({@code value},
+ * {@code timestamp}/{@code time}/{@code ts}, {@code id}, {@code key}) are decoded, into the primitives of a reused
+ * {@link GatewayReading}; everything else is skipped without building a tree or intermediate strings. Decoding stops
+ * as soon as the requested number of objects has been read.
+ * <p>
+ * Single objects already in memory (the records pushed to a {@link PushEndpoint}) are decoded in place with
+ * {@link #decodeRecord}.
+ * <p>
+ * Instances are not thread safe; use one per thread (see {@link #get()}).
+ */
+public class GatewayJsonDecoder {
+
+    public interface ReadingHandler {
+        void onReading(GatewayReading reading);
+    }
+
+    private static final ThreadLocal<GatewayJsonDecoder> DECODERS = ThreadLocal.withInitial(GatewayJsonDecoder::new);
+
+    private static final int FIELD_OTHER = 0;
+    private static final int FIELD_VALUE = 1;
+    private static final int FIELD_TIMESTAMP = 2;
+    private static final int FIELD_ID = 3;
+    private static final int FIELD_KEY = 4;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final byte[] streamBuffer = new byte[8192];
+    private final StringBuilder chars = new StringBuilder(64);
+    private final GatewayReading reading = new GatewayReading();
+
+    // streamBuffer while decoding a stream, the caller's array while decoding a record in place
+    private byte[] buffer = streamBuffer;
+    private InputStream in;
+    private int pos;
+    private int limit;
+
+    // Scratch results of readNumber()
+    private double numberValue;
+    private boolean numberIntegral;
+    private long numberLong;
+
+    /**
+     * @return the decoder owned by the calling thread.
+     */
+    public static GatewayJsonDecoder get() {
+        return DECODERS.get();
+    }
+
+    /**
+     * Decode the objects of a data response (a top-level array, or a single object).
+     *
+     * @param maxReadings stop after this many objects.
+     * @return the number of objects passed to {@code handler}.
+     */
+    public int decode(InputStream in, int maxReadings, ReadingHandler handler) throws IOException {
+        this.buffer = streamBuffer;
+        this.in = in;
+        this.pos = 0;
+        this.limit = 0;
+
+        try {
+            int c = nextNonWhitespace();
+
+            if (c == '{') {
+                readObject();
+                handler.onReading(reading);
+                return 1;
+            } else if (c != '[') {
+                throw syntaxError(c, "'[' or '{'");
+            }
+
+            int count = 0;
+
+            c = nextNonWhitespace();
+            if (c == ']') return 0;
+
+            while (count < maxReadings) {
+                if (c == '{') {
+                    readObject();
+                    handler.onReading(reading);
+                    count++;
+                } else {
+                    skipValue(c);
+                }
+
+                c = nextNonWhitespace();
+                if (c == ']') break;
+                if (c != ',') throw syntaxError(c, "',' or ']'");
+                c = nextNonWhitespace();
+            }
+
+            return count;
+        } finally {
+            this.in = null;
+        }
+    }
+
+    /**
+     * Decode the single object in {@code bytes[offset, offset + length)}, without copying it.
+     *
+     * @throws IOException if the bytes aren't one complete object.
+     */
+    public void decodeRecord(byte[] bytes, int offset, int length, ReadingHandler handler) throws IOException {
+        this.buffer = bytes;
+        this.in = null;
+        this.pos = offset;
+        this.limit = offset + length;
+
+        try {
+            int c = nextNonWhitespace();
+            if (c != '{') throw syntaxError(c, "'{'");
+
+            readObject();
+            handler.onReading(reading);
+        } finally {
+            this.buffer = streamBuffer;
+            this.pos = 0;
+            this.limit = 0;
+        }
+    }
+
+    private void readObject() throws IOException {
+        reading.reset();
+
+        int c = nextNonWhitespace();
+        if (c == '}') return;
+
+        while (true) {
+            if (c != '"') throw syntaxError(c, "'\"'");
+            readString(chars);
+            int field = field(chars);
+
+            c = nextNonWhitespace();
+            if (c != ':') throw syntaxError(c, "':'");
+            c = nextNonWhitespace();
+
+            switch (field) {
+                case FIELD_VALUE:
+                    readValue(c);
+                    break;
+                case FIELD_TIMESTAMP:
+                    if (isNumberStart(c)) {
+                        readNumber(c);
+                        long timestamp = numberIntegral ? numberLong : (long) numberValue;
+                        // epoch seconds vs. milliseconds
+                        reading.timestamp = timestamp < 100_000_000_000L ? timestamp * 1000L : timestamp;
+                    } else {
+                        skipValue(c);
+                    }
+                    break;
+                case FIELD_ID:
+                    if (isNumberStart(c)) {
+                        readNumber(c);
+                        reading.id = numberIntegral ? numberLong : (long) numberValue;
+                    } else {
+                        skipValue(c);
+                    }
+                    break;
+                case FIELD_KEY:
+                    if (c == '"') {
+                        readString(reading.key);
+                    } else {
+                        skipValue(c);
+                    }
+                    break;
+                default:
+                    skipValue(c);
+                    break;
+            }
+
+            c = nextNonWhitespace();
+            if (c == '}') return;
+            if (c != ',') throw syntaxError(c, "',' or '}'");
+            c = nextNonWhitespace();
+        }
+    }
+
+    private void readValue(int c) throws IOException {
+        if (c == 't' || c == 'f') {
+            reading.type = GatewayReading.BOOLEAN;
+            reading.booleanValue = readLiteral(c);
+        } else if (isNumberStart(c)) {
+            readNumber(c);
+            reading.type = GatewayReading.NUMBER;
+            reading.numberValue = numberValue;
+        } else if (c == '"') {
+            readString(reading.text);
+            reading.type = GatewayReading.STRING;
+        } else {
+            skipValue(c);
+        }
+    }
+
+    private static int field(StringBuilder name) {
+        if (equals(name, "value")) return FIELD_VALUE;
+        if (equals(name, "timestamp") || equals(name, "time") || equals(name, "ts")) return FIELD_TIMESTAMP;
+        if (equals(name, "id")) return FIELD_ID;
+        if (equals(name, "key")) return FIELD_KEY;
+        return FIELD_OTHER;
+    }
+
+    private static boolean equals(CharSequence a, String b) {
+        if (a.length() != b.length()) return false;
+        for (int i = 0; i < b.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isNumberStart(int c) {
+        return c == '-' || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Read a number starting with {@code c} into {@link #numberValue} (and {@link #numberLong} if integral).
+     */
+    private void readNumber(int c) throws IOException {
+        boolean negative = c == '-';
+        if (negative) c = next();
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean integral = true;
+
+        while (c >= '0' && c <= '9') {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+            } else {
+                exponent++;
+            }
+            c = next();
+        }
+
+        if (c == '.') {
+            integral = false;
+            c = next();
+            while (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    exponent--;
+                }
+                c = next();
+            }
+        }
+
+        if (c == 'e' || c == 'E') {
+            integral = false;
+            c = next();
+            boolean negativeExponent = c == '-';
+            if (c == '-' || c == '+') c = next();
+            int e = 0;
+            while (c >= '0' && c <= '9') {
+                e = e * 10 + (c - '0');
+                c = next();
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+
+        unread();
+
+        double value = mantissa;
+        if (exponent > 0) {
+            value = exponent < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[exponent] : value * Math.pow(10, exponent);
+        } else if (exponent < 0) {
+            value = -exponent < POWERS_OF_TEN.length
+                ? value / POWERS_OF_TEN[-exponent]
+                : value / Math.pow(10, -exponent);
+        }
+
+        numberValue = negative ? -value : value;
+        numberIntegral = integral && exponent == 0;
+        numberLong = negative ? -mantissa : mantissa;
+    }
+
+    /**
+     * Read {@code true}, {@code false} or {@code null} starting with {@code c}.
+     */
+    private boolean readLiteral(int c) throws IOException {
+        String literal = c == 't' ? "true" : c == 'f' ? "false" : "null";
+
+        for (int i = 1; i < literal.length(); i++) {
+            int n = next();
+            if (n != literal.charAt(i)) throw syntaxError(n, literal);
+        }
+
+        return c == 't';
+    }
+
+    /**
+     * Read the rest of a string whose opening quote has been consumed.
+     */
+    private void readString(StringBuilder out) throws IOException {
+        out.setLength(0);
+
+        while (true) {
+            int c = next();
+
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                c = next();
+                switch (c) {
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'u': out.append((char) readHex4()); break;
+                    default: out.append((char) c); break;
+                }
+            } else if (c < 0x80) {
+                out.append((char) c);
+            } else {
+                out.appendCodePoint(readUtf8(c));
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = next();
+            if (c == '"') return;
+            if (c == '\\') next();
+        }
+    }
+
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else if (c == 't' || c == 'f' || c == 'n') {
+            readLiteral(c);
+        } else if (isNumberStart(c)) {
+            readNumber(c);
+        } else {
+            throw syntaxError(c, "a value");
+        }
+    }
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = next();
+            value <<= 4;
+            if (c >= '0' && c <= '9') value |= c - '0';
+            else if (c >= 'a' && c <= 'f') value |= c - 'a' + 10;
+            else if (c >= 'A' && c <= 'F') value |= c - 'A' + 10;
+            else throw syntaxError(c, "a hex digit");
+        }
+        return value;
+    }
+
+    private int readUtf8(int c) throws IOException {
+        if ((c & 0xE0) == 0xC0) {
+            return ((c & 0x1F) << 6) | (next() & 0x3F);
+        } else if ((c & 0xF0) == 0xE0) {
+            return ((c & 0x0F) << 12) | ((next() & 0x3F) << 6) | (next() & 0x3F);
+        } else {
+            return ((c & 0x07) << 18) | ((next() & 0x3F) << 12) | ((next() & 0x3F) << 6) | (next() & 0x3F);
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private int next() throws IOException {
+        if (pos == limit) {
+            if (in == null) throw new IOException("Unexpected end of record");
+
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+
+            if (limit <= 0) {
+                limit = 0;
+                throw new IOException("Unexpected end of gateway response");
+            }
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    /**
+     * Push back the byte just returned by {@link #next()}.
+     */
+    private void unread() {
+        if (pos > 0) pos--;
+    }
+
+    private static IOException syntaxError(int c, String expected) {
+        return new IOException("Malformed gateway response: expected " + expected + " but got '" + (char) c + "'");
+    }
+
+}
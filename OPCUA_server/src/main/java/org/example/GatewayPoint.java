@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A logical device ({@code /dev/{deviceId}/ldev/{ldevKey}}) of one of the gateways, bound to the variable node that
+ * mirrors it and to its slot in the {@link PointStore}, which creates it.
+ * <p>
+ * Device ids are only unique per gateway: {@link #getKey()} identifies the point within its gateway (and is what
+ * per-point settings are keyed by), {@link #getGatewayKey()} across all of them.
+ */
+public class GatewayPoint {
+
+    private final String gateway;
+    private final int deviceId;
+    private final String ldevKey;
+    private final UaVariableNode node;
+    private final String commandKey;
+    private final int slot;
+    private final int generation;
+
+    /**
+     * @param gateway    the name of the {@link Gateway} the device is behind.
+     * @param commandKey the data key commands are PUT to ({@code .../data/{commandKey}}), or {@code null} if the
+     *                   point is read-only.
+     * @param slot       the point's slot in the {@link PointStore}.
+     * @param generation the slot's generation when the point was created in it.
+     */
+    GatewayPoint(
+        String gateway, int deviceId, String ldevKey, UaVariableNode node, @Nullable String commandKey, int slot,
+        int generation) {
+
+        this.gateway = gateway;
+        this.deviceId = deviceId;
+        this.ldevKey = ldevKey;
+        this.node = node;
+        this.commandKey = commandKey;
+        this.slot = slot;
+        this.generation = generation;
+    }
+
+    public String getGateway() {
+        return gateway;
+    }
+
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    public String getLdevKey() {
+        return ldevKey;
+    }
+
+    public UaVariableNode getNode() {
+        return node;
+    }
+
+    @Nullable
+    public String getCommandKey() {
+        return commandKey;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return {@code true} if OPC UA clients write this point and the node, not the gateway, holds the desired state.
+     */
+    public boolean isWritable() {
+        return commandKey != null;
+    }
+
+    public String getKey() {
+        return key(deviceId, ldevKey);
+    }
+
+    public String getGatewayKey() {
+        return key(gateway, deviceId, ldevKey);
+    }
+
+    /**
+     * @return the device across all gateways, {@code gateway/deviceId}.
+     */
+    public String getDeviceKey() {
+        return gateway + "/" + deviceId;
+    }
+
+    static String key(int deviceId, String ldevKey) {
+        return deviceId + "/" + ldevKey;
+    }
+
+    static String key(String gateway, int deviceId, String ldevKey) {
+        return gateway + "/" + deviceId + "/" + ldevKey;
+    }
+
+    @Override
+    public String toString() {
+        return "GatewayPoint{" + getGatewayKey() + " -> " + node.getNodeId() + "}";
+    }
+
+}
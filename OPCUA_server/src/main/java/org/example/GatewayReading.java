@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+
+/**
+ * The mapped fields of one gateway data object ({@code {"key": ..., "value": ..., "timestamp": ...}}), decoded into
+ * primitives.
+ * <p>
+ * Instances are owned and reused by a {@link GatewayJsonDecoder}; copy out what you need before the next object is
+ * decoded.
+ */
+public class GatewayReading {
+
+    public static final int NONE = 0;
+    public static final int BOOLEAN = 1;
+    public static final int NUMBER = 2;
+    public static final int STRING = 3;
+
+    /**
+     * Offset between the Unix epoch and the OPC UA epoch (1601-01-01) in milliseconds.
+     */
+    private static final long EPOCH_OFFSET_MILLIS = 11644473600000L;
+
+    final StringBuilder key = new StringBuilder(32);
+    final StringBuilder text = new StringBuilder(16);
+
+    int type;
+    boolean booleanValue;
+    double numberValue;
+    long id;
+    long timestamp;
+
+    void reset() {
+        key.setLength(0);
+        text.setLength(0);
+        type = NONE;
+        booleanValue = false;
+        numberValue = 0.0;
+        id = -1;
+        timestamp = -1;
+    }
+
+    /**
+     * @return one of {@link #NONE}, {@link #BOOLEAN}, {@link #NUMBER} or {@link #STRING}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    public boolean getBoolean() {
+        return booleanValue;
+    }
+
+    /**
+     * @return the numeric value; booleans read as 1 and 0.
+     */
+    public double getNumber() {
+        return type == BOOLEAN ? (booleanValue ? 1.0 : 0.0) : numberValue;
+    }
+
+    /**
+     * @return the string value, empty unless the type is {@link #STRING}.
+     */
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * @return the {@code id} field, or -1 if absent.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the {@code key} field, empty if absent.
+     */
+    public CharSequence getKey() {
+        return key;
+    }
+
+    /**
+     * @return the source timestamp in Unix milliseconds, or -1 if absent.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the value as the boxed type stored in a {@code Variant}, or {@code null} if there is none.
+     */
+    public Object toObject() {
+        switch (type) {
+            case BOOLEAN:
+                return Boolean.valueOf(booleanValue);
+            case NUMBER:
+                return numberValue;
+            case STRING:
+                return text.toString();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the source timestamp as a {@link DateTime}, or {@code null} if absent.
+     */
+    public DateTime getSourceTime() {
+        return timestamp >= 0 ? toDateTime(timestamp) : null;
+    }
+
+    /**
+     * @return {@code unixMillis} as a {@link DateTime}.
+     */
+    static DateTime toDateTime(long unixMillis) {
+        return new DateTime(toTicks(unixMillis));
+    }
+
+    /**
+     * @return {@code unixMillis} as {@link DateTime} UTC ticks (100 ns since 1601).
+     */
+    static long toTicks(long unixMillis) {
+        return (unixMillis + EPOCH_OFFSET_MILLIS) * 10_000L;
+    }
+
+    /**
+     * @return {@link DateTime} UTC ticks as Unix milliseconds.
+     */
+    static long toUnixMillis(long ticks) {
+        return ticks / 10_000L - EPOCH_OFFSET_MILLIS;
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local stand-in for the gateway REST API, so the server can be load tested without the real gateway.
+ * <p>
+ * Serves {@code GET /dev}, {@code GET /dev/{id}}, {@code GET /dev/{id}/ldev/{key}/data} and
+ * {@code PUT /dev/{id}/ldev/{key}/data/{dataKey}} under {@code /ssapi/zb}; point the server at it with
+ * {@code gateway.url=http://localhost:<sim.port>/ssapi/zb}. Settings:
+ * <ul>
+ *     <li>{@code sim.port} and {@code sim.devices}: device 1 is the window sensor and device 4 the smart plug, the
+ *     others cycle through {@link #SIMULATED_TYPES};</li>
+ *     <li>{@code sim.changeRate}: value changes per second per device, as a Poisson process sampled every
+ *     {@code sim.tick} ms;</li>
+ *     <li>{@code sim.latency} ({@code fixed}, {@code uniform}, {@code exponential} or {@code lognormal}) with mean
+ *     {@code sim.latency.mean} ms and, for lognormal, shape {@code sim.latency.sigma};</li>
+ *     <li>{@code sim.errorRate}: fraction of requests answered with HTTP 503.</li>
+ * </ul>
+ * Every reading carries the time of the change as its {@code timestamp}, which is what the load driver measures
+ * end-to-end latency from.
+ */
+public class GatewaySimulator implements AutoCloseable {
+
+    static final String[] SIMULATED_TYPES = {"temperature", "humidity", "motion", "contact"};
+
+    private static final Logger logger = LoggerFactory.getLogger(GatewaySimulator.class);
+
+    private final Map<Integer, SimulatedDevice> devices = new ConcurrentHashMap<>();
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private final int port;
+    private final double changeRate;
+    private final long tickMillis;
+    private final String latency;
+    private final double latencyMean;
+    private final double latencySigma;
+    private final double errorRate;
+
+    private final ScheduledExecutorService scheduler;
+    private HttpServer httpServer;
+
+    public GatewaySimulator(Config config) {
+        port = config.getInt("sim.port", 8080);
+        changeRate = config.getDouble("sim.changeRate", 1.0);
+        tickMillis = config.getLong("sim.tick", 50);
+        latency = config.getString("sim.latency", "fixed");
+        latencyMean = config.getDouble("sim.latency.mean", 20);
+        latencySigma = config.getDouble("sim.latency.sigma", 0.5);
+        errorRate = config.getDouble("sim.errorRate", 0.0);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(config.getInt("sim.threads", 4), r -> {
+            Thread thread = new Thread(r, "gateway-simulator-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int deviceCount = config.getInt("sim.devices", 100);
+        for (int id = 1; id <= deviceCount; id++) {
+            devices.put(id, newDevice(id));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        GatewaySimulator simulator = new GatewaySimulator(Config.load());
+        simulator.start();
+
+        while (true) {
+            Thread.sleep(10_000);
+            logger.info("{}", simulator);
+        }
+    }
+
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/ssapi/zb/dev", this::handle);
+        // Handlers only parse and schedule their answer, so a small pool is enough
+        httpServer.setExecutor(scheduler);
+        httpServer.start();
+
+        scheduler.scheduleAtFixedRate(this::changeValues, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+        logger.info(
+            "Gateway simulator listening on http://localhost:{}/ssapi/zb with {} devices",
+            httpServer.getAddress().getPort(), devices.size());
+    }
+
+    public int getPort() {
+        return httpServer != null ? httpServer.getAddress().getPort() : port;
+    }
+
+    public long getChangeCount() {
+        return changes.sum();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * Change the value of device {@code id} as if it had changed by itself, e.g. to trip the window sensor.
+     */
+    public void setValue(int id, Object value) {
+        devices.get(id).set(value);
+        changes.increment();
+    }
+
+    @Override
+    public void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "devices=%d changes=%d requests=%d errors=%d",
+            devices.size(), changes.sum(), requests.sum(), errors.sum());
+    }
+
+    /**
+     * @return the key of the ldev simulated for device {@code id}.
+     */
+    static String ldevKey(int id) {
+        return newDevice(id).ldevKey;
+    }
+
+    private static SimulatedDevice newDevice(int id) {
+        if (id == 1) return new SimulatedDevice(id, "Window sensor", "alarm", "alarm", "alarm", false);
+        if (id == 4) return new SimulatedDevice(id, "Smart plug", "smartplug", "smartplug", "onoff", false);
+
+        String type = SIMULATED_TYPES[id % SIMULATED_TYPES.length];
+        boolean numeric = type.equals("temperature") || type.equals("humidity");
+
+        return new SimulatedDevice(id, "Simulated " + type + " " + id, type, type, type, numeric ? 20.0 : false);
+    }
+
+    private void changeValues() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double probability = changeRate * tickMillis / 1000.0;
+
+        for (SimulatedDevice device : devices.values()) {
+            // The plug only changes when commanded
+            if (device.id == 4) continue;
+
+            if (random.nextDouble() < probability) {
+                device.change(random);
+                changes.increment();
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        requests.increment();
+
+        long delay = sampleLatency(ThreadLocalRandom.current());
+
+        scheduler.schedule(() -> {
+            try {
+                if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    errors.increment();
+                    respond(exchange, 503, "{\"error\": \"simulated failure\"}");
+                } else {
+                    route(exchange);
+                }
+            } catch (Exception e) {
+                logger.debug("Simulator request failed: {}", e.getMessage());
+            } finally {
+                exchange.close();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        // /ssapi/zb/dev[/{id}[/ldev/{key}/data[/{dataKey}]]]
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        String method = exchange.getRequestMethod();
+
+        if (path.length == 4 && method.equals("GET")) {
+            JSONArray array = new JSONArray();
+            for (int id = 1; id <= devices.size(); id++) {
+                array.put(devices.get(id).toJson(true));
+            }
+            respond(exchange, 200, array.toString());
+            return;
+        }
+
+        SimulatedDevice device = path.length > 4 ? device(path[4]) : null;
+
+        if (device == null) {
+            respond(exchange, 404, "{}");
+        } else if (path.length == 5 && method.equals("GET")) {
+            respond(exchange, 200, device.toJson(false).toString());
+        } else if (path.length == 8 && method.equals("GET") && path[6].equals(device.ldevKey)) {
+            respond(exchange, 200, new JSONArray().put(device.reading()).toString());
+        } else if (path.length == 9 && method.equals("PUT") && path[8].equals(device.dataKey)) {
+            try (InputStream body = exchange.getRequestBody()) {
+                JSONObject command = new JSONObject(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                device.set(command.get("value"));
+                changes.increment();
+                respond(exchange, 200, "{}");
+            } catch (JSONException e) {
+                respond(exchange, 400, "{}");
+            }
+        } else {
+            respond(exchange, 404, "{}");
+        }
+    }
+
+    private SimulatedDevice device(String id) {
+        try {
+            return devices.get(Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private long sampleLatency(Random random) {
+        switch (latency) {
+            case "uniform":
+                return (long) (random.nextDouble() * 2 * latencyMean);
+            case "exponential":
+                return (long) (-latencyMean * Math.log(1 - random.nextDouble()));
+            case "lognormal":
+                double mu = Math.log(Math.max(latencyMean, 1)) - latencySigma * latencySigma / 2;
+                return (long) Math.exp(mu + latencySigma * random.nextGaussian());
+            default:
+                return (long) latencyMean;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static class SimulatedDevice {
+
+        final int id;
+        final String name;
+        final String ldevKey;
+        final String ldevType;
+        final String dataKey;
+
+        private Object value;
+        private long timestamp = System.currentTimeMillis();
+
+        SimulatedDevice(int id, String name, String ldevKey, String ldevType, String dataKey, Object value) {
+            this.id = id;
+            this.name = name;
+            this.ldevKey = ldevKey;
+            this.ldevType = ldevType;
+            this.dataKey = dataKey;
+            this.value = value;
+        }
+
+        synchronized void change(Random random) {
+            if (value instanceof Boolean) {
+                value = !(Boolean) value;
+            } else {
+                value = Math.round(((Double) value + random.nextGaussian()) * 100) / 100.0;
+            }
+            timestamp = System.currentTimeMillis();
+        }
+
+        synchronized void set(Object newValue) {
+            value = newValue;
+            timestamp = System.currentTimeMillis();
+        }
+
+        synchronized JSONObject reading() {
+            return new JSONObject()
+                .put("key", dataKey)
+                .put("value", value)
+                .put("timestamp", timestamp);
+        }
+
+        JSONObject toJson(boolean withData) {
+            JSONObject ldev = new JSONObject()
+                .put("key", ldevKey)
+                .put("type", ldevType);
+
+            if (withData) {
+                ldev.put("data", new JSONArray().put(reading()));
+            }
+
+            return new JSONObject()
+                .put("id", id)
+                .put("name", name)
+                .put("ldev", new JSONArray().put(ldev));
+        }
+
+    }
+
+}
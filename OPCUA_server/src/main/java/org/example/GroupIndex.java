@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Device points by name, their path below {@code ICPS/nodeDevices} (e.g. {@code 12/temperature},
+ * {@code siteA/7/smartplug} or {@code Smart plug}), for the group methods to resolve name patterns without walking
+ * the node manager.
+ * <p>
+ * A pattern is a name in which {@code *} stands for any run of characters, {@code /} included: {@code 12/*} is every
+ * point of device 12, {@code *}{@code /smartplug} every discovered plug, {@code *} everything. A name without
+ * {@code *} is looked up directly and a name ending in its only {@code *} is a range of the sorted names; any other
+ * pattern is matched against all names once and kept until a point is added or removed. Groups list their points in
+ * name order.
+ */
+public class GroupIndex {
+
+    private static final int MAX_CACHED = 1024;
+
+    /**
+     * The points a pattern resolved to, in name order.
+     */
+    public static class Group {
+
+        private final String[] names;
+        private final GatewayPoint[] points;
+
+        Group(String[] names, GatewayPoint[] points) {
+            this.names = names;
+            this.points = points;
+        }
+
+        public int size() {
+            return points.length;
+        }
+
+        public String getName(int i) {
+            return names[i];
+        }
+
+        public GatewayPoint getPoint(int i) {
+            return points[i];
+        }
+
+        /**
+         * @return the names; callers must not modify the array.
+         */
+        public String[] getNames() {
+            return names;
+        }
+
+    }
+
+    private final NavigableMap<String, GatewayPoint> byName = new TreeMap<>();
+    private final Map<GatewayPoint, String> names = new HashMap<>();
+
+    // By pattern, dropped whenever the points change
+    private final Map<String, Group> cached = new HashMap<>();
+
+    public synchronized void add(String name, GatewayPoint point) {
+        byName.put(name, point);
+        names.put(point, name);
+        cached.clear();
+    }
+
+    public synchronized void remove(GatewayPoint point) {
+        String name = names.remove(point);
+
+        if (name != null) {
+            byName.remove(name);
+            cached.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return byName.size();
+    }
+
+    public synchronized Group resolve(String pattern) {
+        Group group = cached.get(pattern);
+        if (group != null) return group;
+
+        int star = pattern.indexOf('*');
+
+        if (star < 0) {
+            GatewayPoint point = byName.get(pattern);
+            return point != null
+                ? new Group(new String[]{pattern}, new GatewayPoint[]{point})
+                : new Group(new String[0], new GatewayPoint[0]);
+        }
+
+        Map<String, GatewayPoint> matches;
+
+        if (star == pattern.length() - 1) {
+            String prefix = pattern.substring(0, star);
+            matches = byName.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        } else {
+            Pattern regex = toRegex(pattern);
+            matches = new TreeMap<>();
+
+            byName.forEach((name, point) -> {
+                if (regex.matcher(name).matches()) matches.put(name, point);
+            });
+        }
+
+        group = new Group(matches.keySet().toArray(new String[0]), matches.values().toArray(new GatewayPoint[0]));
+
+        if (cached.size() >= MAX_CACHED) cached.clear();
+        cached.put(pattern, group);
+
+        return group;
+    }
+
+    private static Pattern toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        String[] parts = pattern.split("\\*", -1);
+
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) regex.append(".*");
+            regex.append(Pattern.quote(parts[i]));
+        }
+
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+}
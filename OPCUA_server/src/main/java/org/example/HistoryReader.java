@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadProcessedDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Answers OPC UA HistoryRead requests from the {@link HistoryStore}.
+ * <p>
+ * Raw reads return the values in {@code [startTime, endTime)}, in reverse if {@code startTime} is later than
+ * {@code endTime} or missing. Processed reads compute one of Count, Minimum, Maximum, Average, Range, Start or End
+ * per {@code processingInterval} from the good values in the interval; an interval without any has status
+ * {@code Bad_NoData}. Neither returns bounding values or modified values.
+ * <p>
+ * At most {@code numValuesPerNode}, and never more than {@code history.maxValuesPerRead}, values are returned per
+ * node; the rest is available through a continuation point. Continuation points carry the position to resume at
+ * (next time and how many values at that time were already returned), so the server keeps no state for them.
+ */
+public class HistoryReader {
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final HistoryStore store;
+    private final SerializationContext serializationContext;
+    private final int maxValuesPerRead;
+
+    private final LatencyHistogram readLatency;
+
+    public HistoryReader(
+        Config config, HistoryStore store, SerializationContext serializationContext, Metrics metrics) {
+
+        this.store = store;
+        this.serializationContext = serializationContext;
+
+        maxValuesPerRead = Math.max(1, config.getInt("history.maxValuesPerRead", 10_000));
+        readLatency = metrics.histogram("history.read");
+    }
+
+    /**
+     * @param index the position of {@code valueId} in the request, which selects its aggregate in a processed read.
+     */
+    public HistoryReadResult read(
+        HistoryReadDetails details, TimestampsToReturn timestamps, HistoryReadValueId valueId, int index) {
+
+        long start = System.nanoTime();
+        try {
+            if (details instanceof ReadRawModifiedDetails) {
+                return readRaw((ReadRawModifiedDetails) details, timestamps, valueId);
+            } else if (details instanceof ReadProcessedDetails) {
+                return readProcessed((ReadProcessedDetails) details, timestamps, valueId, index);
+            } else {
+                return failure(StatusCodes.Bad_HistoryOperationUnsupported);
+            }
+        } finally {
+            readLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private HistoryReadResult readRaw(
+        ReadRawModifiedDetails details, TimestampsToReturn timestamps, HistoryReadValueId valueId) {
+
+        if (Boolean.TRUE.equals(details.getIsReadModified())) {
+            return failure(StatusCodes.Bad_HistoryOperationUnsupported);
+        }
+
+        long startTime = millis(details.getStartTime());
+        long endTime = millis(details.getEndTime());
+        if (startTime == NONE && endTime == NONE) {
+            return failure(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        boolean reverse = startTime == NONE || endTime != NONE && startTime > endTime;
+
+        long from;
+        long to;
+        if (reverse) {
+            from = endTime != NONE && startTime != NONE ? endTime + 1 : Long.MIN_VALUE;
+            to = startTime != NONE ? startTime : endTime;
+        } else {
+            from = startTime;
+            to = endTime != NONE ? endTime - 1 : Long.MAX_VALUE;
+        }
+
+        // Resume where the previous call stopped, skipping the values at that time it already returned
+        long resumeTime = NONE;
+        int skip = 0;
+        ByteString continuationPoint = valueId.getContinuationPoint();
+        if (continuationPoint != null && continuationPoint.isNotNull()) {
+            ByteBuffer position = ByteBuffer.wrap(continuationPoint.bytesOrEmpty());
+            if (position.remaining() != 12) {
+                return failure(StatusCodes.Bad_ContinuationPointInvalid);
+            }
+
+            resumeTime = position.getLong();
+            skip = position.getInt();
+
+            if (reverse) to = resumeTime;
+            else from = resumeTime;
+        }
+
+        long requested = details.getNumValuesPerNode() != null ? details.getNumValuesPerNode().longValue() : 0;
+        int limit = requested > 0 ? (int) Math.min(requested, maxValuesPerRead) : maxValuesPerRead;
+
+        RawRead read = new RawRead(limit, timestamps, resumeTime, skip);
+        store.scan(valueId.getNodeId(), from, to, reverse, read);
+
+        ByteString next = read.next != NONE ? continuationPoint(read.next, read.sameTime) : ByteString.NULL_VALUE;
+
+        return result(read.values, next);
+    }
+
+    private HistoryReadResult readProcessed(
+        ReadProcessedDetails details, TimestampsToReturn timestamps, HistoryReadValueId valueId, int index) {
+
+        NodeId[] aggregates = details.getAggregateType();
+        if (aggregates == null || index >= aggregates.length) {
+            return failure(StatusCodes.Bad_AggregateListMismatch);
+        }
+
+        Aggregate aggregate = Aggregate.of(aggregates[index]);
+        if (aggregate == null) {
+            return failure(StatusCodes.Bad_AggregateNotSupported);
+        }
+
+        long startTime = millis(details.getStartTime());
+        long endTime = millis(details.getEndTime());
+        if (startTime == NONE || endTime == NONE || startTime == endTime) {
+            return failure(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        boolean reverse = startTime > endTime;
+        long from = Math.min(startTime, endTime);
+        long to = Math.max(startTime, endTime);
+
+        double processingInterval = details.getProcessingInterval() != null ? details.getProcessingInterval() : 0;
+        long interval = processingInterval > 0 ? Math.max(1, (long) processingInterval) : to - from;
+
+        long intervals = (to - from + interval - 1) / interval;
+        if (intervals > maxValuesPerRead && reverse) {
+            // reverse reads are computed forwards and turned around, so they must fit one response
+            return failure(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        ByteString continuationPoint = valueId.getContinuationPoint();
+        if (continuationPoint != null && continuationPoint.isNotNull()) {
+            ByteBuffer position = ByteBuffer.wrap(continuationPoint.bytesOrEmpty());
+            if (position.remaining() != 12) {
+                return failure(StatusCodes.Bad_ContinuationPointInvalid);
+            }
+            from = position.getLong();
+        }
+
+        long until = Math.min(to, from + interval * maxValuesPerRead);
+
+        Intervals calculation = new Intervals(aggregate, from, interval, until, timestamps);
+        store.scan(valueId.getNodeId(), from, until - 1, false, calculation);
+        List<DataValue> values = calculation.finish();
+
+        if (reverse) {
+            Collections.reverse(values);
+        }
+
+        return result(values, until < to ? continuationPoint(until, 0) : ByteString.NULL_VALUE);
+    }
+
+    private HistoryReadResult result(List<DataValue> values, ByteString continuationPoint) {
+        HistoryData data = new HistoryData(values.toArray(new DataValue[0]));
+
+        StatusCode status = values.isEmpty() ? new StatusCode(StatusCodes.Good_NoData) : StatusCode.GOOD;
+
+        return new HistoryReadResult(status, continuationPoint, ExtensionObject.encode(serializationContext, data));
+    }
+
+    private static HistoryReadResult failure(long statusCode) {
+        return new HistoryReadResult(new StatusCode(statusCode), ByteString.NULL_VALUE, null);
+    }
+
+    private static ByteString continuationPoint(long next, int skip) {
+        return ByteString.of(ByteBuffer.allocate(12).putLong(next).putInt(skip).array());
+    }
+
+    /**
+     * @return {@code time} in Unix ms, or {@link #NONE} if it isn't set.
+     */
+    private static long millis(@Nullable DateTime time) {
+        return time != null && time.getUtcTime() > 0 ? time.getJavaTime() : NONE;
+    }
+
+    private static DataValue dataValue(Object value, StatusCode status, long time, TimestampsToReturn timestamps) {
+        DateTime dateTime = GatewayReading.toDateTime(time);
+
+        boolean source = timestamps == TimestampsToReturn.Source || timestamps == TimestampsToReturn.Both;
+        boolean server = timestamps == TimestampsToReturn.Server || timestamps == TimestampsToReturn.Both;
+
+        return new DataValue(new Variant(value), status, source ? dateTime : null, server ? dateTime : null);
+    }
+
+    private enum Aggregate {
+        COUNT, MINIMUM, MAXIMUM, AVERAGE, RANGE, START, END;
+
+        @Nullable
+        static Aggregate of(NodeId aggregateType) {
+            if (aggregateType.equals(Identifiers.AggregateFunction_Count)) return COUNT;
+            if (aggregateType.equals(Identifiers.AggregateFunction_Minimum)) return MINIMUM;
+            if (aggregateType.equals(Identifiers.AggregateFunction_Maximum)) return MAXIMUM;
+            if (aggregateType.equals(Identifiers.AggregateFunction_Average)) return AVERAGE;
+            if (aggregateType.equals(Identifiers.AggregateFunction_Range)) return RANGE;
+            if (aggregateType.equals(Identifiers.AggregateFunction_Start)) return START;
+            if (aggregateType.equals(Identifiers.AggregateFunction_End)) return END;
+            return null;
+        }
+    }
+
+    /**
+     * Collects up to {@code limit} raw values and remembers where to continue.
+     */
+    private static class RawRead implements HistoryStore.SampleVisitor {
+
+        private final List<DataValue> values = new ArrayList<>();
+
+        private final int limit;
+        private final TimestampsToReturn timestamps;
+        private final long resumeTime;
+        private int skip;
+
+        // the time of the latest value returned, and how many values at that time were returned in total
+        private long lastTime = NONE;
+        private int sameTime;
+
+        private long next = NONE;
+
+        RawRead(int limit, TimestampsToReturn timestamps, long resumeTime, int skip) {
+            this.limit = limit;
+            this.timestamps = timestamps;
+            this.resumeTime = resumeTime;
+            this.skip = skip;
+
+            if (skip > 0) {
+                lastTime = resumeTime;
+                sameTime = skip;
+            }
+        }
+
+        @Override
+        public boolean visit(long time, long bits, byte type, int status) {
+            if (skip > 0 && time == resumeTime) {
+                skip--;
+                return true;
+            }
+
+            if (values.size() == limit) {
+                next = time;
+                if (time != lastTime) sameTime = 0;
+                return false;
+            }
+
+            values.add(dataValue(HistoryStore.fromBits(bits, type), HistoryStore.statusOf(status), time, timestamps));
+
+            sameTime = time == lastTime ? sameTime + 1 : 1;
+            lastTime = time;
+            return true;
+        }
+
+    }
+
+    /**
+     * Folds a forward scan into one aggregate value per interval.
+     */
+    private static class Intervals implements HistoryStore.SampleVisitor {
+
+        private final List<DataValue> values = new ArrayList<>();
+
+        private final Aggregate aggregate;
+        private final long interval;
+        private final long until;
+        private final TimestampsToReturn timestamps;
+
+        private long intervalStart;
+
+        private int count;
+        private int bad;
+        private double sum;
+        private double min;
+        private double max;
+        private long first;
+        private long last;
+        private byte type;
+
+        Intervals(Aggregate aggregate, long from, long interval, long until, TimestampsToReturn timestamps) {
+            this.aggregate = aggregate;
+            this.interval = interval;
+            this.until = until;
+            this.timestamps = timestamps;
+
+            intervalStart = from;
+        }
+
+        @Override
+        public boolean visit(long time, long bits, byte valueType, int status) {
+            while (time >= intervalStart + interval) {
+                emit();
+            }
+
+            if (status != 0 && !HistoryStore.statusOf(status).isGood()) {
+                bad++;
+                return true;
+            }
+
+            double value = HistoryStore.toDouble(bits, valueType);
+
+            if (count == 0) {
+                min = max = value;
+                first = bits;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            count++;
+            sum += value;
+            last = bits;
+            type = valueType;
+            return true;
+        }
+
+        List<DataValue> finish() {
+            while (intervalStart < until) {
+                emit();
+            }
+            return values;
+        }
+
+        private void emit() {
+            Object value;
+
+            if (aggregate == Aggregate.COUNT) {
+                value = count;
+            } else if (count == 0) {
+                value = null;
+            } else {
+                switch (aggregate) {
+                    case MINIMUM:
+                        value = min;
+                        break;
+                    case MAXIMUM:
+                        value = max;
+                        break;
+                    case AVERAGE:
+                        value = sum / count;
+                        break;
+                    case RANGE:
+                        value = max - min;
+                        break;
+                    case START:
+                        value = HistoryStore.fromBits(first, type);
+                        break;
+                    default:
+                        value = HistoryStore.fromBits(last, type);
+                        break;
+                }
+            }
+
+            StatusCode status;
+            if (value == null) {
+                status = new StatusCode(StatusCodes.Bad_NoData);
+            } else if (bad > 0) {
+                status = new StatusCode(StatusCodes.Uncertain_DataSubNormal);
+            } else {
+                status = StatusCode.GOOD;
+            }
+
+            values.add(dataValue(value, status, intervalStart, timestamps));
+
+            intervalStart += interval;
+            count = 0;
+            bad = 0;
+            sum = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An immutable, compressed run of one node's samples in a file named after its first timestamp
+ * ({@code <firstTime>[_<n>].seg}). Only its header is kept in memory; its content is read into a heap buffer with
+ * {@link #load()} when a scan needs it, so an unbounded number of segments costs neither memory nor mappings.
+ * <p>
+ * A sample is a time (Unix ms), the value as 64 bits (see {@link HistoryStore}) and a status code. Each sample is
+ * stored relative to the one before it: the time as a zig-zag varint delta, then a header byte, then the value's
+ * XOR with the previous value shifted past its trailing zeros as a varint (if it changed), then the status code as
+ * a varint (if it changed). A value that didn't change costs two bytes. The header byte holds bit 0 = value
+ * unchanged, bit 1 = status changed, bits 2-7 = trailing zeros of the XOR.
+ * <p>
+ * The file header is followed by a checkpoint for every {@value #CHECKPOINT_INTERVAL}th sample: its full time,
+ * value and status, and the payload offset of the sample after it. A lookup by time binary-searches the
+ * checkpoints and decodes at most {@value #CHECKPOINT_INTERVAL} samples to get there.
+ * <pre>
+ * int magic, byte version, byte valueType, short reserved
+ * int count, int checkpointCount
+ * long firstTime, long lastTime
+ * checkpointCount * (long time, long bits, int status, int offset)
+ * payload
+ * </pre>
+ */
+public class HistorySegment {
+
+    static final String SUFFIX = ".seg";
+
+    static final int CHECKPOINT_INTERVAL = 128;
+
+    private static final int MAGIC = 0x49435048; // "ICPH"
+    private static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int CHECKPOINT_SIZE = 24;
+
+    private final Path file;
+    private final byte valueType;
+    private final int count;
+    private final long firstTime;
+    private final long lastTime;
+
+    private final int checkpoints;
+    private final int payloadStart;
+
+    private HistorySegment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION) {
+            throw new IOException("Not a history segment: " + file);
+        }
+
+        valueType = buffer.get(5);
+        count = buffer.getInt(8);
+        checkpoints = buffer.getInt(12);
+        firstTime = buffer.getLong(16);
+        lastTime = buffer.getLong(24);
+        payloadStart = HEADER_SIZE + checkpoints * CHECKPOINT_SIZE;
+    }
+
+    /**
+     * Read the header of an existing segment file.
+     */
+    static HistorySegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new HistorySegment(file, readFully(channel, HEADER_SIZE));
+        }
+    }
+
+    /**
+     * Encode samples {@code [0, count)} into a new segment file in {@code directory}.
+     */
+    static HistorySegment write(
+        Path directory, byte valueType, long[] times, long[] values, int[] statuses, int count) throws IOException {
+
+        int checkpoints = (count + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL;
+
+        // worst case per sample: 10 bytes time delta, 1 header byte, 10 bytes value, 5 bytes status
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + checkpoints * CHECKPOINT_SIZE + count * 26);
+        buffer.putInt(MAGIC).put(VERSION).put(valueType).putShort((short) 0);
+        buffer.putInt(count).putInt(checkpoints);
+        buffer.putLong(times[0]).putLong(times[count - 1]);
+
+        int payloadStart = HEADER_SIZE + checkpoints * CHECKPOINT_SIZE;
+        buffer.position(payloadStart);
+
+        long previousTime = times[0];
+        long previousValue = 0;
+        int previousStatus = 0;
+
+        for (int i = 0; i < count; i++) {
+            putVarLong(buffer, zigZag(times[i] - previousTime));
+
+            long xor = values[i] ^ previousValue;
+            boolean statusChanged = statuses[i] != previousStatus;
+            int trailingZeros = xor != 0 ? Long.numberOfTrailingZeros(xor) : 0;
+
+            buffer.put((byte) ((xor == 0 ? 1 : 0) | (statusChanged ? 2 : 0) | trailingZeros << 2));
+
+            if (xor != 0) putVarLong(buffer, xor >>> trailingZeros);
+            if (statusChanged) putVarLong(buffer, statuses[i] & 0xFFFFFFFFL);
+
+            if (i % CHECKPOINT_INTERVAL == 0) {
+                int at = HEADER_SIZE + i / CHECKPOINT_INTERVAL * CHECKPOINT_SIZE;
+
+                buffer.putLong(at, times[i]);
+                buffer.putLong(at + 8, values[i]);
+                buffer.putInt(at + 16, statuses[i]);
+                buffer.putInt(at + 20, buffer.position() - payloadStart);
+            }
+
+            previousTime = times[i];
+            previousValue = values[i];
+            previousStatus = statuses[i];
+        }
+
+        buffer.flip();
+
+        // Segments flushed early can share a first timestamp
+        String name = Long.toString(times[0]);
+        for (int i = 1; Files.exists(directory.resolve(name + SUFFIX)); i++) {
+            name = times[0] + "_" + i;
+        }
+
+        Path file = directory.resolve(name + SUFFIX);
+        Path temporary = directory.resolve(name + SUFFIX + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(
+            temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return new HistorySegment(file, buffer.rewind());
+    }
+
+    /**
+     * Read the whole file, for {@link #read}.
+     */
+    ByteBuffer load() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("History segment too large: " + file);
+            }
+
+            ByteBuffer content = readFully(channel, (int) size);
+
+            if (content.limit() < payloadStart) {
+                throw new IOException("Truncated history segment: " + file);
+            }
+            return content;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // until full or end of file
+        }
+
+        return buffer.flip();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public byte getValueType() {
+        return valueType;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Append every sample with {@code from <= time <= to} to {@code samples}, in time order.
+     *
+     * @param buffer the segment's content, as {@link #load()} read it.
+     */
+    void read(ByteBuffer buffer, long from, long to, HistoryStore.Samples samples) {
+        if (from > lastTime || to < firstTime) return;
+
+        // The last checkpoint before from; later samples can't be earlier, so decoding starts there
+        int low = 0;
+        int high = checkpoints - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (buffer.getLong(HEADER_SIZE + middle * CHECKPOINT_SIZE) < from) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        int at = HEADER_SIZE + low * CHECKPOINT_SIZE;
+        long time = buffer.getLong(at);
+        long value = buffer.getLong(at + 8);
+        int status = buffer.getInt(at + 16);
+        int position = payloadStart + buffer.getInt(at + 20);
+
+        for (int i = low * CHECKPOINT_INTERVAL; ; ) {
+            if (time > to) return;
+            if (time >= from) samples.add(time, value, status);
+
+            if (++i >= count) return;
+
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            time += (delta >>> 1) ^ -(delta & 1);
+
+            int header = buffer.get(position++) & 0xFF;
+
+            if ((header & 1) == 0) {
+                long xor = 0;
+                shift = 0;
+                do {
+                    b = buffer.get(position++);
+                    xor |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value ^= xor << (header >>> 2);
+            }
+            if ((header & 2) != 0) {
+                long code = 0;
+                shift = 0;
+                do {
+                    b = buffer.get(position++);
+                    code |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                status = (int) code;
+            }
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    @Override
+    public String toString() {
+        return "HistorySegment{" + file.getFileName() + ", count=" + count + "}";
+    }
+
+}
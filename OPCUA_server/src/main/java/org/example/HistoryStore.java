@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only value history of the gateway points, one series per node.
+ * <p>
+ * Every value routed to a node is appended to the node's in-memory buffer, straight from the {@link PointStore}'s
+ * primitives; the buffer grows as needed up to {@code history.segmentSize} samples. A full buffer is handed to a
+ * single background writer, which compresses it into a {@link HistorySegment} file in
+ * {@code history.dir/<node id>/}, so the gateway's polling thread never waits for the disk. Reads merge the segments
+ * overlapping the requested time range (found by binary search over their time spans) with the buffers not yet
+ * written. Segment files are read when a scan needs them; the contents of the {@code history.cachedSegments} most
+ * recently read ones are kept. Segments older than {@code history.retention} days are deleted. The buffers are
+ * written out on {@link #close()}; samples still buffered when the process dies are lost.
+ * <p>
+ * Values are stored as 64 bits, booleans and integers as the number itself and floating point numbers as their
+ * IEEE 754 bits, so the segments' XOR encoding works on them unchanged. A series keeps the type of the value first
+ * appended; a value of another type starts a new segment. Timestamps are the source timestamp in Unix ms, and never
+ * go backwards within a series: an earlier timestamp is stored as the latest one.
+ */
+public class HistoryStore implements BulkPoller.PointListener, AutoCloseable {
+
+    static final byte TYPE_BOOLEAN = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_FLOAT = 3;
+    static final byte TYPE_DOUBLE = 4;
+
+    /**
+     * Receives the samples of a scan, the value as stored (see {@link #fromBits}); returns {@code false} to stop it.
+     */
+    public interface SampleVisitor {
+        boolean visit(long time, long bits, byte type, int status);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<NodeId, Series> series = new ConcurrentHashMap<>();
+
+    private final PointStore store;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final long retentionMillis;
+
+    // Writes full buffers in the order they filled up, off the gateway's polling thread
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The contents of the segments read last, least recently used first; guarded by itself
+    private final LinkedHashMap<HistorySegment, ByteBuffer> contents;
+
+    private final LongAdder appended;
+    private final LongAdder segmentsWritten;
+
+    public HistoryStore(Config config, PointStore store, Metrics metrics) {
+        this.store = store;
+
+        enabled = config.getBoolean("history.enabled", false);
+        directory = Paths.get(config.getString("history.dir", "history"));
+        segmentSize = Math.max(HistorySegment.CHECKPOINT_INTERVAL, config.getInt("history.segmentSize", 4096));
+        retentionMillis = TimeUnit.DAYS.toMillis(config.getLong("history.retention", 30));
+
+        int cachedSegments = config.getInt("history.cachedSegments", 256);
+        contents = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<HistorySegment, ByteBuffer> eldest) {
+                return size() > cachedSegments;
+            }
+        };
+
+        appended = metrics.counter("history.samples");
+        segmentsWritten = metrics.counter("history.segments");
+        metrics.gauge("history.series", series::size);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onUpdate(GatewayPoint point) {
+        if (!enabled) return;
+
+        store.read(point, (kind, bits, object, status, sourceTime, serverTime) -> {
+            byte type = typeOf(kind);
+            if (type == 0) return;
+
+            long millis = GatewayReading.toUnixMillis(sourceTime != 0 ? sourceTime : serverTime);
+
+            series(point.getNode().getNodeId()).append(millis, type, bits, status);
+            appended.increment();
+        });
+    }
+
+    /**
+     * Append {@code value} to the history of {@code nodeId}; values that aren't booleans or numbers are ignored.
+     */
+    public void append(NodeId nodeId, DataValue value) {
+        if (!enabled) return;
+
+        Object object = value.getValue().getValue();
+        byte type = typeOf(object);
+        if (type == 0) return;
+
+        DateTime time = value.getSourceTime() != null ? value.getSourceTime() : value.getServerTime();
+        long millis = time != null ? time.getJavaTime() : System.currentTimeMillis();
+        int status = value.getStatusCode() != null ? (int) value.getStatusCode().getValue() : 0;
+
+        series(nodeId).append(millis, type, toBits(object, type), status);
+        appended.increment();
+    }
+
+    /**
+     * Visit the samples of {@code nodeId} with {@code from <= time <= to} (Unix ms), in time order or in reverse.
+     */
+    public void scan(NodeId nodeId, long from, long to, boolean reverse, SampleVisitor visitor) {
+        Series nodeSeries = existingSeries(nodeId);
+
+        if (nodeSeries != null) {
+            nodeSeries.scan(from, to, reverse, visitor);
+        }
+    }
+
+    /**
+     * @return {@code true} if {@code nodeId} has history, in memory or on disk.
+     */
+    public boolean hasHistory(NodeId nodeId) {
+        return existingSeries(nodeId) != null;
+    }
+
+    /**
+     * Write every buffered sample out and wait for the writer, so nothing is lost on shutdown.
+     */
+    @Override
+    public void close() {
+        for (Series nodeSeries : series.values()) {
+            nodeSeries.flush();
+        }
+
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("History writer did not finish within 30 s, unwritten samples are lost");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    private Series series(NodeId nodeId) {
+        Series nodeSeries = series.get(nodeId);
+
+        return nodeSeries != null ? nodeSeries : series.computeIfAbsent(nodeId, this::load);
+    }
+
+    /**
+     * @return the series of {@code nodeId}, loading it from disk if it has a directory there, or {@code null}.
+     */
+    @Nullable
+    private Series existingSeries(NodeId nodeId) {
+        Series nodeSeries = series.get(nodeId);
+
+        if (nodeSeries == null && enabled && Files.isDirectory(directoryOf(nodeId))) {
+            nodeSeries = series(nodeId);
+        }
+
+        return nodeSeries;
+    }
+
+    private Path directoryOf(NodeId nodeId) {
+        return directory.resolve(URLEncoder.encode(nodeId.toParseableString(), StandardCharsets.UTF_8));
+    }
+
+    private Series load(NodeId nodeId) {
+        Path nodeDirectory = directoryOf(nodeId);
+        List<HistorySegment> segments = new ArrayList<>();
+
+        if (Files.isDirectory(nodeDirectory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(nodeDirectory, "*" + HistorySegment.SUFFIX)) {
+                for (Path file : files) {
+                    try {
+                        segments.add(HistorySegment.open(file));
+                    } catch (IOException e) {
+                        logger.warn("Skipping history segment {}: {}", file, e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Could not list history of {}: {}", nodeId, e.getMessage());
+            }
+        }
+
+        segments.sort(Comparator.comparingLong(HistorySegment::getFirstTime)
+            .thenComparing(segment -> segment.getFile().getFileName().toString()));
+
+        return new Series(nodeId, nodeDirectory, segments);
+    }
+
+    /**
+     * @return the content of {@code segment}, read from its file unless it was read recently, or {@code null} if it
+     * can't be read.
+     */
+    @Nullable
+    private ByteBuffer contentOf(HistorySegment segment) {
+        synchronized (contents) {
+            ByteBuffer content = contents.get(segment);
+            if (content != null) return content;
+        }
+
+        try {
+            ByteBuffer content = segment.load();
+
+            synchronized (contents) {
+                contents.put(segment, content);
+            }
+            return content;
+        } catch (IOException e) {
+            logger.warn("Could not read history segment {}: {}", segment, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the history type of a {@link PointStore} kind, whose encoding it shares, or 0 if it has none.
+     */
+    static byte typeOf(byte kind) {
+        switch (kind) {
+            case PointStore.KIND_BOOLEAN:
+                return TYPE_BOOLEAN;
+            case PointStore.KIND_INT32:
+            case PointStore.KIND_INT64:
+                return TYPE_LONG;
+            case PointStore.KIND_FLOAT:
+                return TYPE_FLOAT;
+            case PointStore.KIND_DOUBLE:
+                return TYPE_DOUBLE;
+            default:
+                return 0;
+        }
+    }
+
+    static byte typeOf(@Nullable Object value) {
+        if (value instanceof Boolean) return TYPE_BOOLEAN;
+        if (value instanceof Double) return TYPE_DOUBLE;
+        if (value instanceof Float) return TYPE_FLOAT;
+        if (value instanceof Number) return TYPE_LONG;
+        return 0;
+    }
+
+    static long toBits(Object value, byte type) {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return (Boolean) value ? 1 : 0;
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+                return Double.doubleToRawLongBits(((Number) value).doubleValue());
+            default:
+                return ((Number) value).longValue();
+        }
+    }
+
+    static Object fromBits(long bits, byte type) {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return bits != 0;
+            case TYPE_FLOAT:
+                return (float) Double.longBitsToDouble(bits);
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            default:
+                return bits;
+        }
+    }
+
+    static double toDouble(long bits, byte type) {
+        return type == TYPE_FLOAT || type == TYPE_DOUBLE ? Double.longBitsToDouble(bits) : bits;
+    }
+
+    static StatusCode statusOf(int status) {
+        return status == 0 ? StatusCode.GOOD : new StatusCode(status & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A growable run of samples in primitive arrays.
+     */
+    static class Samples {
+
+        long[] times = new long[64];
+        long[] values = new long[64];
+        int[] statuses = new int[64];
+        int size;
+
+        void add(long time, long value, int status) {
+            add(time, value, status, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Add a sample, growing the arrays to at most {@code capacity}.
+         */
+        void add(long time, long value, int status, int capacity) {
+            if (size == times.length) {
+                int grown = (int) Math.min((long) size * 2, Math.max(capacity, size + 1));
+
+                times = Arrays.copyOf(times, grown);
+                values = Arrays.copyOf(values, grown);
+                statuses = Arrays.copyOf(statuses, grown);
+            }
+
+            times[size] = time;
+            values[size] = value;
+            statuses[size] = status;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+    }
+
+    /**
+     * A full buffer on its way to the writer.
+     */
+    private static class Batch {
+
+        final byte type;
+        final Samples samples;
+
+        Batch(byte type, Samples samples) {
+            this.type = type;
+            this.samples = samples;
+        }
+
+    }
+
+    private class Series {
+
+        private final NodeId nodeId;
+        private final Path directory;
+
+        // Written segments in time order; replaced, never modified, so scans can use a snapshot
+        private volatile HistorySegment[] segments;
+
+        // Buffers handed to the writer but not written yet, oldest first
+        private final Deque<Batch> unwritten = new ArrayDeque<>();
+
+        private Samples buffer = new Samples();
+        private byte type;
+        private long lastTime = Long.MIN_VALUE;
+
+        Series(NodeId nodeId, Path directory, List<HistorySegment> segments) {
+            this.nodeId = nodeId;
+            this.directory = directory;
+            this.segments = segments.toArray(new HistorySegment[0]);
+
+            if (!segments.isEmpty()) {
+                lastTime = segments.get(segments.size() - 1).getLastTime();
+            }
+        }
+
+        synchronized void append(long time, byte valueType, long bits, int status) {
+            if (buffer.size > 0 && valueType != type) {
+                flush();
+            }
+            if (buffer.size == 0) {
+                type = valueType;
+            }
+
+            lastTime = Math.max(lastTime, time);
+
+            buffer.add(lastTime, bits, status, segmentSize);
+
+            if (buffer.size == segmentSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Hand the buffer to the writer, or write it right here once the writer has shut down.
+         */
+        synchronized void flush() {
+            if (buffer.size == 0) return;
+
+            Batch batch = new Batch(type, buffer);
+            unwritten.addLast(batch);
+            buffer = new Samples();
+
+            try {
+                writer.execute(() -> write(batch));
+            } catch (RejectedExecutionException e) {
+                write(batch);
+            }
+        }
+
+        private void write(Batch batch) {
+            HistorySegment segment = null;
+
+            try {
+                Files.createDirectories(directory);
+
+                Samples samples = batch.samples;
+                segment = HistorySegment.write(
+                    directory, batch.type, samples.times, samples.values, samples.statuses, samples.size);
+
+                segmentsWritten.increment();
+            } catch (IOException e) {
+                logger.warn(
+                    "Could not write history of {}, {} samples lost: {}", nodeId, batch.samples.size, e.getMessage());
+            }
+
+            synchronized (this) {
+                if (segment != null) {
+                    HistorySegment[] written = Arrays.copyOf(segments, segments.length + 1);
+                    written[segments.length] = segment;
+                    segments = expire(written);
+                }
+                unwritten.remove(batch);
+            }
+        }
+
+        private HistorySegment[] expire(HistorySegment[] all) {
+            long cutoff = System.currentTimeMillis() - retentionMillis;
+            int expired = 0;
+
+            while (expired < all.length - 1 && all[expired].getLastTime() < cutoff) {
+                try {
+                    Files.deleteIfExists(all[expired].getFile());
+                } catch (IOException e) {
+                    logger.warn("Could not delete expired history segment {}: {}", all[expired], e.getMessage());
+                }
+                synchronized (contents) {
+                    contents.remove(all[expired]);
+                }
+                expired++;
+            }
+
+            return expired > 0 ? Arrays.copyOfRange(all, expired, all.length) : all;
+        }
+
+        void scan(long from, long to, boolean reverse, SampleVisitor visitor) {
+            HistorySegment[] snapshot;
+            List<Batch> buffered = new ArrayList<>(unwritten.size() + 1);
+
+            synchronized (this) {
+                snapshot = segments;
+
+                for (Batch batch : unwritten) {
+                    buffered.add(new Batch(batch.type, copy(batch.samples, from, to)));
+                }
+                buffered.add(new Batch(type, copy(buffer, from, to)));
+            }
+
+            // The first segment that can hold samples at or after from
+            int first = 0;
+            int high = snapshot.length;
+            while (first < high) {
+                int middle = (first + high) >>> 1;
+
+                if (snapshot[middle].getLastTime() < from) {
+                    first = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            Samples samples = new Samples();
+
+            if (!reverse) {
+                for (int i = first; i < snapshot.length && snapshot[i].getFirstTime() <= to; i++) {
+                    if (!visit(snapshot[i], from, to, samples, false, visitor)) return;
+                }
+                for (Batch batch : buffered) {
+                    if (!visit(batch.samples, batch.type, false, visitor)) return;
+                }
+            } else {
+                for (int i = buffered.size() - 1; i >= 0; i--) {
+                    if (!visit(buffered.get(i).samples, buffered.get(i).type, true, visitor)) return;
+                }
+
+                int last = first;
+                while (last < snapshot.length && snapshot[last].getFirstTime() <= to) {
+                    last++;
+                }
+                for (int i = last - 1; i >= first; i--) {
+                    if (!visit(snapshot[i], from, to, samples, true, visitor)) return;
+                }
+            }
+        }
+
+        private Samples copy(Samples from, long fromTime, long toTime) {
+            Samples copy = new Samples();
+
+            for (int i = 0; i < from.size; i++) {
+                if (from.times[i] >= fromTime && from.times[i] <= toTime) {
+                    copy.add(from.times[i], from.values[i], from.statuses[i]);
+                }
+            }
+            return copy;
+        }
+
+        private boolean visit(
+            HistorySegment segment, long from, long to, Samples samples, boolean reverse, SampleVisitor visitor) {
+
+            ByteBuffer content = contentOf(segment);
+            if (content == null) return true;
+
+            samples.clear();
+            segment.read(content, from, to, samples);
+
+            return visit(samples, segment.getValueType(), reverse, visitor);
+        }
+
+        private boolean visit(Samples samples, byte valueType, boolean reverse, SampleVisitor visitor) {
+            for (int j = 0; j < samples.size; j++) {
+                int i = reverse ? samples.size - 1 - j : j;
+
+                if (!visitor.visit(samples.times[i], samples.values[i], valueType, samples.statuses[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.eclipse.milo.opcua.stack.core.util.ConversionUtil.l;
+
+/**
+ * End-to-end load driver for the server, usually run against a {@link GatewaySimulator}.
+ * <p>
+ * Opens {@code load.sessions} sessions to {@code load.endpoint}, each with {@code load.subscriptions} subscriptions
+ * monitoring every variable under {@code ICPS/nodeDevices}, and reports the sustained notification throughput and
+ * the gateway-change to client-notification latency, measured from the source timestamp of each notification.
+ * Samples taken during the first {@code load.warmup} ms are discarded; the run lasts {@code load.duration} ms.
+ */
+public class LoadDriver {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    private final List<OpcUaClient> clients = new ArrayList<>();
+
+    private final String endpoint;
+    private final int sessions;
+    private final int subscriptions;
+    private final double publishingInterval;
+    private final double samplingInterval;
+
+    public LoadDriver(Config config) {
+        endpoint = config.getString("load.endpoint", "opc.tcp://localhost:12686/milo");
+        sessions = config.getInt("load.sessions", 10);
+        subscriptions = config.getInt("load.subscriptions", 1);
+        publishingInterval = config.getDouble("load.publishingInterval", 100);
+        samplingInterval = config.getDouble("load.samplingInterval", 100);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load();
+        LoadDriver driver = new LoadDriver(config);
+
+        long warmup = config.getLong("load.warmup", 10_000);
+        long duration = config.getLong("load.duration", 60_000);
+        long reportInterval = config.getLong("load.reportInterval", 5_000);
+
+        try {
+            driver.connect();
+
+            Thread.sleep(warmup);
+            driver.recorder.reset();
+
+            long start = System.nanoTime();
+            long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+
+            while (System.nanoTime() < end) {
+                Thread.sleep(Math.min(reportInterval, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + 1));
+                logger.info("{}", driver.recorder.report(System.nanoTime() - start));
+            }
+
+            logger.info("Final: sessions={} {}", driver.sessions, driver.recorder.report(System.nanoTime() - start));
+        } finally {
+            driver.disconnect();
+        }
+    }
+
+    /**
+     * Connect every session and create its subscriptions and monitored items.
+     */
+    public void connect() throws Exception {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < sessions; i++) {
+            OpcUaClient client = OpcUaClient.create(endpoint);
+            clients.add(client);
+
+            futures.add(client.connect());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+        List<NodeId> nodeIds = browseVariables(clients.get(0));
+        logger.info("Monitoring {} variables from {} sessions", nodeIds.size(), sessions);
+
+        futures.clear();
+        for (OpcUaClient client : clients) {
+            for (int i = 0; i < subscriptions; i++) {
+                futures.add(subscribe(client, nodeIds));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+    }
+
+    public void disconnect() {
+        for (OpcUaClient client : clients) {
+            client.disconnect();
+        }
+    }
+
+    private List<NodeId> browseVariables(OpcUaClient client) throws Exception {
+        UShort namespaceIndex = client.readNamespaceTable().getIndex(Namespace.NAMESPACE_URI);
+
+        List<NodeId> nodeIds = new ArrayList<>();
+        collectVariables(client, new NodeId(namespaceIndex, "ICPS/nodeDevices"), nodeIds);
+        return nodeIds;
+    }
+
+    /**
+     * Browse {@code folderId} with the Browse service itself, so the driver only needs the service types that every
+     * Milo version shares, and collect the variables below it.
+     */
+    private void collectVariables(OpcUaClient client, NodeId folderId, List<NodeId> nodeIds) throws Exception {
+        BrowseDescription browse = new BrowseDescription(
+            folderId,
+            BrowseDirection.Forward,
+            Identifiers.HierarchicalReferences,
+            true,
+            uint(NodeClass.Object.getValue() | NodeClass.Variable.getValue()),
+            uint(BrowseResultMask.All.getValue())
+        );
+
+        ViewDescription view = new ViewDescription(NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint(0));
+        BrowseResult result = client.browse(view, uint(0), List.of(browse)).get().getResults()[0];
+
+        while (true) {
+            for (ReferenceDescription reference : l(result.getReferences())) {
+                NodeId nodeId = reference.getNodeId().local(client.getNamespaceTable()).orElse(null);
+                if (nodeId == null) continue;
+
+                if (reference.getNodeClass() == NodeClass.Variable) {
+                    nodeIds.add(nodeId);
+                } else {
+                    collectVariables(client, nodeId, nodeIds);
+                }
+            }
+
+            ByteString continuationPoint = result.getContinuationPoint();
+            if (continuationPoint == null || continuationPoint.isNull()) break;
+
+            result = client.browseNext(false, List.of(continuationPoint)).get().getResults()[0];
+        }
+    }
+
+    private CompletableFuture<?> subscribe(OpcUaClient client, List<NodeId> nodeIds) {
+        return client.getSubscriptionManager().createSubscription(publishingInterval).thenCompose(subscription -> {
+            List<MonitoredItemCreateRequest> requests = new ArrayList<>();
+
+            for (NodeId nodeId : nodeIds) {
+                ReadValueId readValueId =
+                    new ReadValueId(nodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE);
+                MonitoringParameters parameters = new MonitoringParameters(
+                    subscription.nextClientHandle(), samplingInterval, null, uint(10), true);
+
+                requests.add(new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, parameters));
+            }
+
+            UaSubscription.ItemCreationCallback onItemCreated =
+                (item, index) -> item.setValueConsumer(this::onValue);
+
+            return subscription.createMonitoredItems(TimestampsToReturn.Both, requests, onItemCreated);
+        });
+    }
+
+    private void onValue(DataValue value) {
+        DateTime sourceTime = value.getSourceTime();
+
+        if (sourceTime != null && value.getStatusCode() != null && value.getStatusCode().isGood()) {
+            recorder.record(System.currentTimeMillis() - sourceTime.getJavaTime());
+        }
+    }
+
+    /**
+     * Lock-free latency histogram with 1 ms buckets up to a minute (and one overflow bucket).
+     */
+    static class LatencyRecorder {
+
+        private static final int BUCKETS = 60_001;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long millis) {
+            long clamped = Math.max(0, millis);
+
+            counts.incrementAndGet((int) Math.min(clamped, BUCKETS));
+            max.accumulateAndGet(clamped, Math::max);
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            max.set(0);
+        }
+
+        String report(long elapsedNanos) {
+            long[] snapshot = new long[counts.length()];
+            long total = 0;
+
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+
+            return String.format(
+                "notifications=%d throughput=%.1f/s latency p50=%dms p90=%dms p99=%dms p99.9=%dms max=%dms",
+                total, total / seconds,
+                percentile(snapshot, total, 0.50), percentile(snapshot, total, 0.90),
+                percentile(snapshot, total, 0.99), percentile(snapshot, total, 0.999), max.get());
+        }
+
+        private static long percentile(long[] snapshot, long total, double quantile) {
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank && seen > 0) return i;
+            }
+
+            return 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * The server's counters, gauges and latency histograms, by dotted name (e.g. {@code gateway.rtt}), plus read and
+ * write counters per node.
+ * <p>
+ * Everything is cumulative and lock-free to update; rates and recent percentiles are derived by whoever reads the
+ * metrics ({@link DiagnosticsPublisher}, {@link MetricsEndpoint}).
+ * <p>
+ * A {@link #prefixed(String) prefixed} view registers into the same metrics under longer names, so components that
+ * exist once per gateway report under {@code gw.<name>.} without knowing it.
+ */
+public class Metrics {
+
+    private final Map<String, LongAdder> counters;
+    private final Map<String, LatencyHistogram> histograms;
+    private final Map<String, Supplier<? extends Number>> gauges;
+    private final Map<NodeId, NodeCounters> nodes;
+
+    private final String prefix;
+
+    public Metrics() {
+        counters = new ConcurrentSkipListMap<>();
+        histograms = new ConcurrentSkipListMap<>();
+        gauges = new ConcurrentSkipListMap<>();
+        nodes = new ConcurrentHashMap<>();
+        prefix = "";
+    }
+
+    private Metrics(Metrics parent, String prefix) {
+        counters = parent.counters;
+        histograms = parent.histograms;
+        gauges = parent.gauges;
+        nodes = parent.nodes;
+        this.prefix = parent.prefix + prefix;
+    }
+
+    /**
+     * @return a view of these metrics that puts {@code prefix} in front of every name it registers.
+     */
+    public Metrics prefixed(String prefix) {
+        return new Metrics(this, prefix);
+    }
+
+    public LongAdder counter(String name) {
+        String key = name(name);
+        LongAdder counter = counters.get(key);
+
+        return counter != null ? counter : counters.computeIfAbsent(key, n -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        String key = name(name);
+        LatencyHistogram histogram = histograms.get(key);
+
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, n -> new LatencyHistogram());
+    }
+
+    public void gauge(String name, Supplier<? extends Number> supplier) {
+        gauges.put(name(name), supplier);
+    }
+
+    private String name(String name) {
+        return prefix.isEmpty() ? name : prefix + name;
+    }
+
+    public NodeCounters node(NodeId nodeId) {
+        NodeCounters counters = nodes.get(nodeId);
+
+        return counters != null ? counters : nodes.computeIfAbsent(nodeId, id -> new NodeCounters());
+    }
+
+    public Map<String, LongAdder> getCounters() {
+        return counters;
+    }
+
+    public Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    public Map<String, Supplier<? extends Number>> getGauges() {
+        return gauges;
+    }
+
+    public Map<NodeId, NodeCounters> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format, names prefixed with {@code icps_} and dots turned
+     * into underscores. Histograms are written as summaries in seconds.
+     */
+    public void writeText(StringBuilder out) {
+        counters.forEach((name, counter) -> {
+            String metric = metricName(name) + "_total";
+
+            out.append("# TYPE ").append(metric).append(" counter\n");
+            out.append(metric).append(' ').append(counter.sum()).append('\n');
+        });
+
+        gauges.forEach((name, gauge) -> {
+            String metric = metricName(name);
+
+            out.append("# TYPE ").append(metric).append(" gauge\n");
+            out.append(metric).append(' ').append(gauge.get()).append('\n');
+        });
+
+        histograms.forEach((name, histogram) -> {
+            String metric = metricName(name) + "_seconds";
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+            out.append("# TYPE ").append(metric).append(" summary\n");
+            for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                out.append(metric).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.getValueAtQuantile(quantile))).append('\n');
+            }
+            out.append(metric).append("_sum ").append(seconds(snapshot.getSum())).append('\n');
+            out.append(metric).append("_count ").append(snapshot.getCount()).append('\n');
+        });
+
+        out.append("# TYPE icps_node_reads_total counter\n");
+        nodes.forEach((nodeId, counters) -> appendNode(out, "icps_node_reads_total", nodeId, counters.reads.sum()));
+        out.append("# TYPE icps_node_writes_total counter\n");
+        nodes.forEach((nodeId, counters) -> appendNode(out, "icps_node_writes_total", nodeId, counters.writes.sum()));
+    }
+
+    private static void appendNode(StringBuilder out, String metric, NodeId nodeId, long value) {
+        String label = nodeId.toParseableString().replace("\\", "\\\\").replace("\"", "\\\"");
+
+        out.append(metric).append("{node=\"").append(label).append("\"} ").append(value).append('\n');
+    }
+
+    private static String metricName(String name) {
+        return "icps_" + name.replace('.', '_');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    public static class NodeCounters {
+
+        final LongAdder reads = new LongAdder();
+        final LongAdder writes = new LongAdder();
+
+        public long getReads() {
+            return reads.sum();
+        }
+
+        public long getWrites() {
+            return writes.sum();
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.DelegatingAttributeDelegate;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * Counts external reads and writes per node and records how long external reads take in the rest of the chain
+ * ({@code node.read} and {@code node.write} histograms).
+ */
+public class MetricsDelegate extends DelegatingAttributeDelegate {
+
+    private final Metrics metrics;
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram writeLatency;
+
+    public MetricsDelegate(@Nullable AttributeDelegate parent, Metrics metrics) {
+        super(parent);
+
+        this.metrics = metrics;
+
+        readLatency = metrics.histogram("node.read");
+        writeLatency = metrics.histogram("node.write");
+    }
+
+    @Override
+    public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
+        // only measure external reads
+        if (!context.getSession().isPresent()) {
+            return super.getValue(context, node);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return super.getValue(context, node);
+        } finally {
+            readLatency.record(System.nanoTime() - start);
+            metrics.node(node.getNodeId()).reads.increment();
+        }
+    }
+
+    @Override
+    public void setValue(AttributeContext context, VariableNode node, DataValue value) throws UaException {
+        // only measure external writes
+        if (!context.getSession().isPresent()) {
+            super.setValue(context, node, value);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            super.setValue(context, node, value);
+        } finally {
+            writeLatency.record(System.nanoTime() - start);
+            metrics.node(node.getNodeId()).writes.increment();
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves {@link Metrics} as plain text ({@code GET /metrics}, Prometheus exposition format) on
+ * {@code metrics.bindAddress:metrics.port}, localhost only by default. A port of 0 or less disables the endpoint.
+ */
+public class MetricsEndpoint implements AutoCloseable {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Metrics metrics;
+    private final String bindAddress;
+    private final int port;
+
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    public MetricsEndpoint(Config config, Metrics metrics) {
+        this.metrics = metrics;
+
+        bindAddress = config.getString("metrics.bindAddress", "localhost");
+        port = config.getInt("metrics.port", 9464);
+    }
+
+    public void start() {
+        if (port <= 0) return;
+
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        } catch (IOException e) {
+            logger.warn("Metrics endpoint not started on {}:{}: {}", bindAddress, port, e.getMessage());
+            return;
+        }
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        httpServer.createContext("/metrics", this::handle);
+        httpServer.setExecutor(executor);
+        httpServer.start();
+
+        logger.info("Metrics served on http://{}:{}/metrics", bindAddress, port);
+    }
+
+    @Override
+    public void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            executor.shutdownNow();
+            httpServer = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            StringBuilder text = new StringBuilder(4096);
+            metrics.writeText(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
@@ -11,52 +11,55 @@
 package org.example;
 
 import java.io.*;
-import java.net.*;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
-import com.google.common.math.Quantiles;
-import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.DataItem;
 import org.eclipse.milo.opcua.sdk.server.api.ManagedNamespace;
 import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.api.methods.AbstractMethodInvocationHandler;
+import org.eclipse.milo.opcua.sdk.server.api.services.AttributeHistoryServices.HistoryReadContext;
+import org.eclipse.milo.opcua.sdk.server.api.services.MethodServices.CallContext;
 import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
-import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.BaseEventNode;
 import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.ServerNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectTypeNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegateChain;
 import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
-import org.eclipse.milo.opcua.stack.client.DiscoveryClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
-import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
-import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
-import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
-import org.eclipse.milo.opcua.stack.core.util.EndpointUtil;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.net.HttpURLConnection;
-import java.io.BufferedReader;
-import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfigBuilder;
 
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
-import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
 
 public class Namespace extends ManagedNamespace {
 
@@ -64,19 +67,164 @@ public class Namespace extends ManagedNamespace {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private final Config config;
+
     private final Random random = new Random();
 
     private final SubscriptionModel subscriptionModel;
 
+    // By name, in the order they are listed; the first one has the hand-configured devices
+    private final Map<String, Gateway> gateways = new LinkedHashMap<>();
+
+    private final Gateway primaryGateway;
+
+    private final PointIndex pointIndex = new PointIndex();
+
+    private final PointStore pointStore;
+
+    private final GatewayCache gatewayCache;
+
+    private final ChangeFilter changeFilter;
+
+    private final HistoryStore historyStore;
+
+    private final HistoryReader historyReader;
+
+    private final SamplingEngine samplingEngine;
+
+    private final EventEngine eventEngine;
+
+    private final RuleEngine ruleEngine;
+
+    private final AggregateEngine aggregateEngine;
+
+    private final PointSnapshot pointSnapshot;
+
+    private final GroupIndex groupIndex = new GroupIndex();
+
+    private final Metrics metrics = new Metrics();
+
+    private final StartupTimer startupTimer = new StartupTimer(metrics);
+
+    private final MetricsEndpoint metricsEndpoint;
+
+    private final DiagnosticsPublisher diagnosticsPublisher;
+
+    private final AuditLog auditLog;
+
+    private final AttributeDelegate readOnlyDelegate;
+
+    private final AttributeDelegate writableDelegate;
+
+    private final AttributeDelegate staticDelegate;
+
+    private final AttributeDelegate aggregateDelegate;
+
+    // By gateway name, and by device key (gateway/deviceId)
+    private final Map<String, UaFolderNode> gatewayFolders = new HashMap<>();
+
+    private final Map<String, UaFolderNode> deviceFolders = new HashMap<>();
+
+    // Discovered points in each device folder, by device key; a folder goes with its last point
+    private final Map<String, Integer> deviceFolderPoints = new HashMap<>();
+
+    // Gateway keys of the points added by discovery
+    private final Set<String> discoveredPoints = new HashSet<>();
+
+    private final List<ScheduledFuture<?>> discoveryFutures = new ArrayList<>();
+
+    private ScheduledFuture<?> snapshotFuture;
+
+    // By rule name
+    private final Map<String, UaFolderNode> ruleFolders = new HashMap<>();
+
+    private UaFolderNode devicesFolder;
+
+    private UaFolderNode diagnosticsFolder;
+
+    private UaFolderNode rulesFolder;
+
     Namespace(OpcUaServer server) {
+        this(server, Config.load());
+    }
+
+    Namespace(OpcUaServer server, Config config) {
         super(server, NAMESPACE_URI);
 
+        this.config = config;
         subscriptionModel = new SubscriptionModel(server, this);
+        pointStore = new PointStore(metrics);
+        gatewayCache = new GatewayCache(config, pointStore, this::refreshPoint);
+        changeFilter = new ChangeFilter(config, pointStore, metrics);
+
+        // Every gateway polls, writes and discovers on its own client and thread
+        for (String name : Gateway.names(config)) {
+            gateways.put(name, new Gateway(name, config, metrics, pointIndex, pointStore, changeFilter));
+        }
+        primaryGateway = gateways.values().iterator().next();
+
+        samplingEngine = new SamplingEngine(point -> gateway(point).getPollingScheduler(), pointStore, metrics);
+        historyStore = new HistoryStore(config, pointStore, metrics);
+        historyReader = new HistoryReader(config, historyStore, server.getSerializationContext(), metrics);
+        eventEngine = new EventEngine(config, server, pointStore, metrics);
+        ruleEngine = new RuleEngine(config, point -> gateway(point).getActuatorWriter(), pointStore, metrics);
+        aggregateEngine = new AggregateEngine(config, pointStore, metrics);
+        pointSnapshot = new PointSnapshot(config, metrics);
+
+        for (Gateway gateway : gateways.values()) {
+            gateway.getBulkPoller().addListener(samplingEngine);
+            gateway.getBulkPoller().addListener(historyStore);
+            gateway.getBulkPoller().addListener(eventEngine);
+            gateway.getActuatorWriter().addListener(eventEngine);
+            gateway.getBulkPoller().addListener(ruleEngine);
+            gateway.getActuatorWriter().addListener(ruleEngine);
+            gateway.getBulkPoller().addListener(aggregateEngine);
+            gateway.getActuatorWriter().addListener(aggregateEngine);
+            gateway.getPollingScheduler().addListener(eventEngine);
+        }
+
+        auditLog = new AuditLog(config);
+
+        // Reads of gateway-polled nodes are answered from the store (external ones through the cache),
+        // client writes to actuators are pushed to the gateway as they happen.
+        // The MetricsDelegate goes last, so it measures the whole chain.
+        readOnlyDelegate = AttributeDelegateChain.create(
+            new CachingDelegate(null, pointIndex, pointStore, gatewayCache),
+            parent -> new ValueLoggingDelegate(parent, auditLog),
+            parent -> new MetricsDelegate(parent, metrics)
+        );
+        writableDelegate = AttributeDelegateChain.create(
+            new ValueLoggingDelegate(auditLog),
+            parent -> new ActuatorDelegate(parent, pointIndex, point -> gateway(point).getActuatorWriter()),
+            parent -> new MetricsDelegate(parent, metrics)
+        );
+        staticDelegate = AttributeDelegateChain.create(
+            new ValueLoggingDelegate(auditLog),
+            parent -> new MetricsDelegate(parent, metrics)
+        );
+        aggregateDelegate = AttributeDelegateChain.create(
+            new AggregateDelegate(null, aggregateEngine),
+            parent -> new ValueLoggingDelegate(parent, auditLog),
+            parent -> new MetricsDelegate(parent, metrics)
+        );
+
+        metrics.gauge("points", pointIndex::size);
+        metrics.gauge("cache.hits", gatewayCache::getHits);
+        metrics.gauge("cache.staleHits", gatewayCache::getStaleHits);
+        metrics.gauge("cache.misses", gatewayCache::getMisses);
+        metrics.gauge("audit.written", auditLog::getWritten);
+        metrics.gauge("audit.dropped", auditLog::getDropped);
+        metrics.gauge("audit.rateLimited", auditLog::getRateLimited);
+
+        metricsEndpoint = new MetricsEndpoint(config, metrics);
+        diagnosticsPublisher = new DiagnosticsPublisher(
+            config, metrics, this::addDiagnosticsNode, server.getScheduledExecutorService());
     }
 
     @Override
     protected void onStartup() {
         super.onStartup();
+        startupTimer.start();
 
         // Create a "ICPS" main folder and add it to the node manager
         NodeId folderNodeId = newNodeId("ICPS");
@@ -89,6 +237,7 @@ public class Namespace extends ManagedNamespace {
         );
 
         getNodeManager().addNode(folderNode);
+        startupTimer.phase("root folder");
 
         // Make sure our new folder shows up under the server's Objects folder.
         folderNode.addReference(new Reference(
@@ -98,9 +247,11 @@ public class Namespace extends ManagedNamespace {
             false
         ));
 
-        // Add the rest of the nodes
+        // Add the rest of the nodes; the rule state nodes first, as rules fire on the first device values
+        addRules(folderNode);
         addVariableNodes(folderNode);
-
+        addDiagnostics(folderNode);
+        addGroupMethods(folderNode);
 
         // Set the EventNotifier bit on Server Node for Events.
         UaNode serverNode = getServer()
@@ -111,35 +262,34 @@ public class Namespace extends ManagedNamespace {
         if (serverNode instanceof ServerNode) {
             ((ServerNode) serverNode).setEventNotifier(ubyte(1));
 
-            // Post a bogus Event every couple seconds
-            getServer().getScheduledExecutorService().scheduleAtFixedRate(() -> {
-                try {
-                    BaseEventNode eventNode = getServer().getEventFactory().createEvent(
-                        newNodeId(UUID.randomUUID()),
-                        Identifiers.BaseEventType
-                    );
-
-                    eventNode.setBrowseName(new QualifiedName(1, "foo"));
-                    eventNode.setDisplayName(LocalizedText.english("foo"));
-                    eventNode.setEventId(ByteString.of(new byte[]{0, 1, 2, 3}));
-                    eventNode.setEventType(Identifiers.BaseEventType);
-                    eventNode.setSourceNode(serverNode.getNodeId());
-                    eventNode.setSourceName(serverNode.getDisplayName().getText());
-                    eventNode.setTime(DateTime.now());
-                    eventNode.setReceiveTime(DateTime.NULL_VALUE);
-                    eventNode.setMessage(LocalizedText.english("event message!"));
-                    eventNode.setSeverity(ushort(2));
-
-                    getServer().getEventBus().post(eventNode);
-
-                    eventNode.delete();
-                } catch (Throwable e) {
-                    logger.error("Error creating EventNode: {}", e.getMessage(), e);
-                }
-            }, 0, 2, TimeUnit.SECONDS);
+            // Device events are posted for the Server node's subscribers
+            eventEngine.start(this::addEventType);
         }
     }
 
+    /**
+     * Add an event type below {@code supertype}, so clients can browse it and filter on it.
+     */
+    private NodeId addEventType(String name, NodeId supertype) {
+        UaObjectTypeNode typeNode = UaObjectTypeNode.builder(getNodeContext())
+            .setNodeId(newNodeId("ICPS/EventTypes/" + name))
+            .setBrowseName(newQualifiedName(name))
+            .setDisplayName(LocalizedText.english(name))
+            .setIsAbstract(false)
+            .build();
+
+        getNodeManager().addNode(typeNode);
+
+        typeNode.addReference(new Reference(
+            typeNode.getNodeId(),
+            Identifiers.HasSubtype,
+            supertype.expanded(),
+            false
+        ));
+
+        return typeNode.getNodeId();
+    }
+
     private void addVariableNodes(UaFolderNode rootNode) {
         //addArrayNodes(rootNode);
         //addStatic(rootNode);
@@ -149,14 +299,136 @@ public class Namespace extends ManagedNamespace {
         //addDataAccessNodes(rootNode);
         //addWriteOnlyNodes(rootNode);
         addFolder(rootNode);
+        addGatewayFolders();
         //addWindowSensor(rootNode);
-        System.out.println(String.valueOf(getAPIData(1, "alarm")));
-        //System.out.println("The id for Window sensor is " + getDeviceID("Window Sensor"));
-        //getValue();
-        addWindowSensor(rootNode);
-        addSmartplug(rootNode);
-        nodeSubscription();
-        //sendData(true);
+        addWindowSensor();
+        addSmartplug();
+        startupTimer.phase("device nodes");
+
+        // Discovered devices and last known values come back from the snapshot, before any gateway is asked
+        restoreSnapshot();
+        startupTimer.phase("snapshot restored");
+
+        // The address space is complete; device values fill in as the gateways answer
+        List<CompletableFuture<Void>> initialReads = new ArrayList<>();
+
+        for (Gateway gateway : gateways.values()) {
+            initialReads.add(readInitialValues(gateway, pointIndex.points(gateway.getName())));
+        }
+        startupTimer.phase("initial reads dispatched");
+
+        CompletableFuture.allOf(initialReads.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            startupTimer.milestone("all initial values");
+            logger.info("Startup complete: {}", startupTimer);
+        });
+
+        for (Gateway gateway : gateways.values()) {
+            PollingScheduler pollingScheduler = gateway.getPollingScheduler();
+
+            pointIndex.polledPoints(gateway.getName())
+                .forEach(point -> pollingScheduler.add(point, hasInternalDemand(point)));
+            pollingScheduler.start();
+
+            // Pushed values hold the polls of their points, so the points must be scheduled first
+            gateway.getPushEndpoint().start();
+        }
+        startupTimer.phase("polling started");
+
+        // Everything else behind the gateways is discovered, now and on every re-scan
+        for (Gateway gateway : gateways.values()) {
+            Config gatewayConfig = gateway.getConfig();
+
+            if (gatewayConfig.getBoolean("discovery.enabled", true)) {
+                discoveryFutures.add(gateway.getScheduler().scheduleWithFixedDelay(
+                    () -> scanDevices(gateway), 0,
+                    gatewayConfig.getLong("discovery.rescanInterval", 60_000), TimeUnit.MILLISECONDS));
+            }
+        }
+
+        if (pointSnapshot.isEnabled() && pointSnapshot.getIntervalMillis() > 0) {
+            long interval = pointSnapshot.getIntervalMillis();
+
+            snapshotFuture = getServer().getScheduledExecutorService().scheduleWithFixedDelay(
+                this::writeSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        logger.info("Address space ready ({} gateways): {}", gateways.size(), startupTimer);
+    }
+
+    private Gateway gateway(GatewayPoint point) {
+        return gateways.get(point.getGateway());
+    }
+
+    /**
+     * Whether the server itself acts on the values of point - history, rules, aggregates or events - so its gateway
+     * polls it while no client monitors its node.
+     */
+    private boolean hasInternalDemand(GatewayPoint point) {
+        return historyStore.isEnabled()
+            || ruleEngine.reads(point)
+            || aggregateEngine.hasAggregates(point)
+            || eventEngine.raisesEvents(point);
+    }
+
+    /**
+     * Give every named gateway a folder of its own in {@code ICPS/nodeDevices}; the default gateway's devices are
+     * right in it.
+     */
+    private void addGatewayFolders() {
+        for (Gateway gateway : gateways.values()) {
+            if (gateway.isDefault()) {
+                gatewayFolders.put(gateway.getName(), devicesFolder);
+                continue;
+            }
+
+            UaFolderNode folder = new UaFolderNode(
+                getNodeContext(),
+                newNodeId("ICPS/nodeDevices/" + gateway.getName()),
+                newQualifiedName(gateway.getName()),
+                LocalizedText.english(gateway.getName())
+            );
+
+            getNodeManager().addNode(folder);
+            devicesFolder.addOrganizes(folder);
+            gatewayFolders.put(gateway.getName(), folder);
+        }
+    }
+
+    /**
+     * Read {@code points} of {@code gateway} in parallel, in one bulk cycle, without waiting for the answers.
+     *
+     * @return a future completing once every read has, failed or not.
+     */
+    private CompletableFuture<Void> readInitialValues(Gateway gateway, Collection<GatewayPoint> points) {
+        if (points.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        Map<GatewayPoint, CompletableFuture<Void>> futures = gateway.getBulkPoller().pollEach(points);
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(futures.size());
+        AtomicInteger failed = new AtomicInteger();
+
+        futures.forEach((point, future) -> future.whenComplete((v, ex) -> {
+            if (ex == null) {
+                startupTimer.milestone("first initial value");
+            } else {
+                failed.incrementAndGet();
+                logger.warn("Initial read of {} failed: {}", point, ex.getMessage());
+
+                if (pointStore.status(point) == (int) StatusCodes.Bad_WaitingForInitialData) {
+                    pointStore.writeStatus(point, (int) StatusCodes.Bad_NoCommunication);
+                }
+            }
+
+            if (remaining.decrementAndGet() == 0) {
+                logger.info(
+                    "Initial values of {} devices of {} read ({} failed)",
+                    futures.size(), gateway.getName(), failed.get());
+                done.complete(null);
+            }
+        }));
+
+        return done;
     }
 
     private void addStatic(UaFolderNode rootNode) {
@@ -186,7 +458,7 @@ public class Namespace extends ManagedNamespace {
 
         node.setValue(new DataValue(variant));
 
-        node.setAttributeDelegate(new ValueLoggingDelegate());
+        node.setAttributeDelegate(staticDelegate);
 
         getNodeManager().addNode(node);
         scalarTypesFolder.addOrganizes(node);
@@ -227,7 +499,8 @@ public class Namespace extends ManagedNamespace {
                         return new DataValue(new Variant(random.nextInt(100)));
                     }
                 },
-                ValueLoggingDelegate::new
+                parent -> new ValueLoggingDelegate(parent, auditLog),
+                parent -> new MetricsDelegate(parent, metrics)
             );
 
             node.setAttributeDelegate(delegate);
@@ -238,125 +511,12 @@ public class Namespace extends ManagedNamespace {
 
     }
 
-    private int getDeviceID(String name){ // TODO fix later
-        String GET_URL = "http://gw-6d26.sandbox.tek.sdu.dk/ssapi/zb/dev";
-        URL obj = null;
-        HttpURLConnection con = null;
-        int responseCode = 0;
-        int id = -1;
-        JSONObject json = null;
-        try {
-            obj = new URL(GET_URL);
-            con = (HttpURLConnection) obj.openConnection();
-            con.setRequestMethod("GET");
-            //con.setRequestProperty("User-Agent", USER_AGENT);
-            responseCode = con.getResponseCode();// Response code 200 or 201 is success, otherwise there is a problem.
-            System.out.println("GET Response Code :: " + responseCode);
-        } catch (IOException e){
-            e.printStackTrace();
-        }
-
-
-        try {
-            if (responseCode == HttpURLConnection.HTTP_OK) { // success
-                BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                String inputLine;
-                StringBuffer response = new StringBuffer();
-
-                while ((inputLine = reader.readLine()) != null) {
-                    response.append(inputLine);
-                }
-                reader.close();
-                json = new JSONObject(response);
-
-                //System.out.println(json.getJSONArray());
-                id = json.getInt("id");
-
-            } else {
-                System.out.println("GET failed");
-            }
-        }catch (IOException e) {
-            e.printStackTrace();
-        }
-        return id;
-    }
-
-    private JSONArray getAPIData(int id, String key){
-        String GET_URL = "http://gw-6d26.sandbox.tek.sdu.dk/ssapi/zb/dev/"+id+"/ldev/"+key+"/data";
-        URL obj = null;
-        HttpURLConnection con = null;
-        int responseCode = 0;
-        JSONArray json = null;
-        try {
-            obj = new URL(GET_URL);
-            con = (HttpURLConnection) obj.openConnection();
-            con.setRequestMethod("GET");
-            //con.setRequestProperty("User-Agent", USER_AGENT);
-            responseCode = con.getResponseCode();// Response code 200 or 201 is success, otherwise there is a problem.
-            System.out.println("GET Response Code :: " + responseCode);
-        } catch (IOException e){
-            e.printStackTrace();
-        }
-
-
-        try {
-            if (responseCode == HttpURLConnection.HTTP_OK) { // success
-                BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                String inputLine;
-                StringBuffer response = new StringBuffer();
-
-                while ((inputLine = reader.readLine()) != null) {
-                    response.append(inputLine);
-                }
-                reader.close();
-                json = new JSONArray(String.valueOf(response));
-            } else {
-                System.out.println("GET failed");
-            }
-        }catch (IOException e) {
-            e.printStackTrace();
-        }
-        return json;
-    }
-
-    private void sendData(Boolean onOff) {
-        String PUT_URL = "http://gw-6d26.sandbox.tek.sdu.dk/ssapi/zb/dev/4/ldev/smartplug/data/onoff";
-        String json ="{\"value\": " + onOff + "}";
-        URL obj = null;
-        HttpURLConnection con = null;
-        int responseCode = 0;
-        try {
-            obj = new URL(PUT_URL);
-            con = (HttpURLConnection) obj.openConnection();
-            con.setRequestProperty("Content-Type", "application/json;");
-            con.setDoOutput(true);
-            con.setRequestMethod("PUT");
-            OutputStream output = con.getOutputStream();
-            output.write(json.getBytes());
-            output.close();
-            responseCode = con.getResponseCode();
-            System.out.println("PUT Response Code :: " + responseCode);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                System.out.println("PUT SUCCESS");
-            } else {
-                System.out.println("PUT failed " + responseCode);
-            }
-        }
-
-
-    private String getValue(int id, String key){
-        JSONArray json = new JSONArray();
-        json = getAPIData(id,key);
-        return String.valueOf(json.getJSONObject(0).getBoolean("value"));
-
+    private CompletableFuture<Void> refreshPoint(GatewayPoint point) {
+        return gateway(point).getBulkPoller().poll(List.of(point));
     }
 
     private void addFolder(UaFolderNode rootNode) {
-        UaFolderNode scalarTypesFolder = new UaFolderNode(
+        UaFolderNode scalarTypesFolder = devicesFolder = new UaFolderNode(
                 getNodeContext(),
                 newNodeId("ICPS/nodeDevices"),
                 newQualifiedName("nodeDevices"),
@@ -382,140 +542,521 @@ public class Namespace extends ManagedNamespace {
 
         node.setValue(new DataValue(variant));
 
-        node.setAttributeDelegate(new ValueLoggingDelegate());
+        node.setAttributeDelegate(staticDelegate);
         getNodeManager().addNode(node);
         scalarTypesFolder.addOrganizes(node);
     }
 
-    private void addWindowSensor(UaFolderNode rootNode)  {
-        UaFolderNode scalarTypesFolder = new UaFolderNode(
-                getNodeContext(),
-                newNodeId("ICPS/nodeDevices"),
-                newQualifiedName("nodeDevices"),
-                LocalizedText.english("nodeDevices")
+    /**
+     * Create the {@code ICPS/Diagnostics} folder, which the {@link DiagnosticsPublisher} fills with a variable per
+     * metric, and start publishing.
+     */
+    private void addDiagnostics(UaFolderNode rootNode) {
+        diagnosticsFolder = new UaFolderNode(
+            getNodeContext(),
+            newNodeId("ICPS/Diagnostics"),
+            newQualifiedName("Diagnostics"),
+            LocalizedText.english("Diagnostics")
         );
 
-        getNodeManager().addNode(scalarTypesFolder);
-        rootNode.addOrganizes(scalarTypesFolder);
-
-        String name = "Window sensor";
-        NodeId typeId = Identifiers.Boolean;
-        Variant variant = new Variant(Boolean.valueOf(getValue(1, "alarm")));
+        getNodeManager().addNode(diagnosticsFolder);
+        rootNode.addOrganizes(diagnosticsFolder);
 
-        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(getNodeContext())
-                .setNodeId(newNodeId("ICPS/nodeDevices/" + name))
-                .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
-                .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
-                .setBrowseName(newQualifiedName(name))
-                .setDisplayName(LocalizedText.english(name))
-                .setDataType(typeId)
-                .setTypeDefinition(Identifiers.BaseDataVariableType)
-                .build();
+        diagnosticsPublisher.start();
+        metricsEndpoint.start();
+    }
 
-        node.setValue(new DataValue(variant));
+    /**
+     * Create the {@code ICPS/Rules} folder, with a folder per rule for the {@link RuleEngine} to publish its state in,
+     * if there are any rules.
+     */
+    private void addRules(UaFolderNode rootNode) {
+        if (ruleEngine.isEmpty()) return;
 
-        node.setAttributeDelegate(new ValueLoggingDelegate());
+        rulesFolder = new UaFolderNode(
+            getNodeContext(),
+            newNodeId("ICPS/Rules"),
+            newQualifiedName("Rules"),
+            LocalizedText.english("Rules")
+        );
 
-        getNodeManager().addNode(node);
-        scalarTypesFolder.addOrganizes(node);
+        getNodeManager().addNode(rulesFolder);
+        rootNode.addOrganizes(rulesFolder);
 
+        ruleEngine.start(this::addRuleNode);
     }
-    private void addAirQualitySensor(UaFolderNode rootNode){
 
+    /**
+     * Add the {@code ICPS/ReadGroup} and {@code ICPS/WriteGroup} methods, which read or write every device node whose
+     * name matches a pattern in one call.
+     */
+    private void addGroupMethods(UaFolderNode rootNode) {
+        UaMethodNode readNode = addMethodNode(
+            rootNode, "ReadGroup", "Read the values of all device nodes whose names match a pattern");
+        UaMethodNode writeNode = addMethodNode(
+            rootNode, "WriteGroup", "Write one or several values to all device nodes whose names match a pattern");
+
+        setInvocationHandler(readNode, new ReadGroupMethod(
+            readNode, config, groupIndex, gatewayCache, auditLog, metrics));
+        setInvocationHandler(writeNode, new WriteGroupMethod(
+            writeNode, config, groupIndex, pointStore, point -> gateway(point).getActuatorWriter(), auditLog, metrics));
     }
 
-    private void addMotionSensor(UaFolderNode rootNode){
+    private UaMethodNode addMethodNode(UaFolderNode folder, String name, String description) {
+        UaMethodNode methodNode = UaMethodNode.builder(getNodeContext())
+            .setNodeId(newNodeId("ICPS/" + name))
+            .setBrowseName(newQualifiedName(name))
+            .setDisplayName(LocalizedText.english(name))
+            .setDescription(LocalizedText.english(description))
+            .build();
+
+        getNodeManager().addNode(methodNode);
 
+        folder.addReference(new Reference(
+            folder.getNodeId(),
+            Identifiers.HasComponent,
+            methodNode.getNodeId().expanded(),
+            true
+        ));
+
+        return methodNode;
     }
-    private void addMultiSensor(UaFolderNode rootNode){
 
+    private static void setInvocationHandler(UaMethodNode methodNode, AbstractMethodInvocationHandler handler) {
+        methodNode.setProperty(UaMethodNode.InputArguments, handler.getInputArguments());
+        methodNode.setProperty(UaMethodNode.OutputArguments, handler.getOutputArguments());
+        methodNode.setInvocationHandler(handler);
     }
 
-    private void addSmartplug(UaFolderNode rootNode){
-        UaFolderNode scalarTypesFolder = new UaFolderNode(
+    private UaVariableNode addRuleNode(String rule, String name, NodeId typeId) {
+        UaFolderNode ruleFolder = ruleFolders.computeIfAbsent(rule, key -> {
+            UaFolderNode folder = new UaFolderNode(
                 getNodeContext(),
-                newNodeId("ICPS/nodeDevices"),
-                newQualifiedName("nodeDevices"),
-                LocalizedText.english("nodeDevices")
-        );
+                newNodeId("ICPS/Rules/" + rule),
+                newQualifiedName(rule),
+                LocalizedText.english(rule)
+            );
 
-        getNodeManager().addNode(scalarTypesFolder);
-        rootNode.addOrganizes(scalarTypesFolder);
+            getNodeManager().addNode(folder);
+            rulesFolder.addOrganizes(folder);
+            return folder;
+        });
+
+        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(getNodeContext())
+            .setNodeId(newNodeId("ICPS/Rules/" + rule + "/" + name))
+            .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+            .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+            .setBrowseName(newQualifiedName(name))
+            .setDisplayName(LocalizedText.english(name))
+            .setDataType(typeId)
+            .setTypeDefinition(Identifiers.BaseDataVariableType)
+            .build();
+
+        getNodeManager().addNode(node);
+        ruleFolder.addOrganizes(node);
+
+        return node;
+    }
+
+    private UaVariableNode addDiagnosticsNode(String name, NodeId typeId) {
+        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(getNodeContext())
+            .setNodeId(newNodeId("ICPS/Diagnostics/" + name))
+            .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+            .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+            .setBrowseName(newQualifiedName(name))
+            .setDisplayName(LocalizedText.english(name))
+            .setDataType(typeId)
+            .setTypeDefinition(Identifiers.BaseDataVariableType)
+            .build();
+
+        getNodeManager().addNode(node);
+        diagnosticsFolder.addOrganizes(node);
 
-        String name = "Smart plug";
-        NodeId typeId = Identifiers.Boolean;
-        Variant variant = new Variant(Boolean.valueOf(getValue(4, "smartplug")));
+        return node;
+    }
+
+    private void addWindowSensor() {
+        addDevicePoint(primaryGateway, gatewayFolders.get(primaryGateway.getName()),
+            "ICPS/nodeDevices/Window sensor", "Window sensor", 1, "alarm", Identifiers.Boolean, null);
+    }
+
+    private void addSmartplug() {
+        addDevicePoint(primaryGateway, gatewayFolders.get(primaryGateway.getName()),
+            "ICPS/nodeDevices/Smart plug", "Smart plug", 4, "smartplug", Identifiers.Boolean, "onoff");
+    }
+
+    /**
+     * Create the variable node mirroring an ldev of {@code gateway} and register it as a {@link GatewayPoint}.
+     *
+     * @param commandKey the data key client writes are sent to, or {@code null} for a read-only point.
+     */
+    private GatewayPoint addDevicePoint(
+        Gateway gateway, UaFolderNode folder, String path, String name, int deviceId, String ldevKey,
+        NodeId typeId, @Nullable String commandKey) {
+
+        Set<AccessLevel> access = EnumSet.of(AccessLevel.CurrentRead);
+        if (commandKey != null) access.add(AccessLevel.CurrentWrite);
+        if (historyStore.isEnabled()) access.add(AccessLevel.HistoryRead);
+
+        UByte accessLevel = ubyte(AccessLevel.getMask(access));
 
         UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(getNodeContext())
-                .setNodeId(newNodeId("ICPS/nodeDevices/" + name))
-                .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
-                .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
+                .setNodeId(newNodeId(path))
+                .setAccessLevel(accessLevel)
+                .setUserAccessLevel(accessLevel)
                 .setBrowseName(newQualifiedName(name))
                 .setDisplayName(LocalizedText.english(name))
                 .setDataType(typeId)
                 .setTypeDefinition(Identifiers.BaseDataVariableType)
+                .setHistorizing(historyStore.isEnabled())
                 .build();
 
-        node.setValue(new DataValue(variant));
+        node.setValue(new DataValue(new StatusCode(StatusCodes.Bad_WaitingForInitialData)));
 
-        node.setAttributeDelegate(new ValueLoggingDelegate());
+        // Delegates are stateless, so every device node shares one of two chains
+        node.setAttributeDelegate(commandKey != null ? writableDelegate : readOnlyDelegate);
 
         getNodeManager().addNode(node);
-        scalarTypesFolder.addOrganizes(node);
+        folder.addOrganizes(node);
+
+        GatewayPoint point = pointStore.newPoint(gateway.getName(), deviceId, ldevKey, node, commandKey);
+        pointIndex.add(point);
+
+        // Rules and group patterns name device nodes by their path below ICPS/nodeDevices
+        ruleEngine.bind(path.substring("ICPS/nodeDevices/".length()), point);
+        groupIndex.add(path.substring("ICPS/nodeDevices/".length()), point);
+
+        aggregateEngine.add(point, (aggregate, aggregateTypeId) ->
+            addAggregateNode(folder, path + "." + aggregate, name + "." + aggregate, aggregateTypeId));
+        return point;
     }
 
-    private void nodeSubscription() {
-        new Thread(() -> {
-            String previousValue = getValue(1, "alarm");
+    /**
+     * Create a node for an aggregate of a device point, next to the point's node.
+     */
+    private UaVariableNode addAggregateNode(UaFolderNode folder, String path, String name, NodeId typeId) {
+        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(getNodeContext())
+            .setNodeId(newNodeId(path))
+            .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+            .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+            .setBrowseName(newQualifiedName(name))
+            .setDisplayName(LocalizedText.english(name))
+            .setDataType(typeId)
+            .setTypeDefinition(Identifiers.BaseDataVariableType)
+            .build();
 
-            // Window Sensor
-            NodeId windowNodeId  = new NodeId(2, "ICPS/nodeDevices/Window sensor");
-            UaVariableNode windowNode = (UaVariableNode) getNodeManager().get(windowNodeId);
+        node.setAttributeDelegate(aggregateDelegate);
 
-            // Smart plug
-            NodeId smartNodeId  = new NodeId(2, "ICPS/nodeDevices/Smart plug");
-            UaVariableNode smartplugNode = (UaVariableNode) getNodeManager().get(smartNodeId);
+        getNodeManager().addNode(node);
+        folder.addOrganizes(node);
 
-            while (true) {
-                windowNode.setValue(new DataValue(new Variant(getValue(1,"alarm"))));
-                System.out.println("current value for smart plug " + smartplugNode.getValue());
+        return node;
+    }
 
-                if(smartplugNode.getValue().toString().contains("true")){
-                    sendData(true);
-                }
-                else if (smartplugNode.getValue().toString().contains("false")){
-                    sendData(false);
-                }
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+    private void scanDevices(Gateway gateway) {
+        gateway.getDiscovery().scan().thenAccept(changes -> applyDiscovery(gateway, changes)).exceptionally(ex -> {
+            logger.warn("Device discovery on {} failed: {}", gateway.getName(), ex.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Add nodes for newly discovered ldevs of {@code gateway} and remove the nodes of ldevs that disappeared, leaving
+     * everything else (including the hand-configured devices) untouched.
+     */
+    private synchronized void applyDiscovery(Gateway gateway, DeviceDiscovery.Changes changes) {
+        if (changes.isEmpty()) return;
+
+        String name = gateway.getName();
+        UaFolderNode gatewayFolder = gatewayFolders.get(name);
+
+        List<GatewayPoint> added = new ArrayList<>();
+
+        for (DeviceDiscovery.Ldev ldev : changes.getAdded()) {
+            if (pointIndex.get(name, ldev.getDeviceId(), ldev.getKey()) != null) continue;
+
+            DeviceTypeMapping.Type type = gateway.getTypeMapping().get(ldev.getKey(), ldev.getType());
+
+            added.add(addDiscoveredPoint(
+                gateway, ldev.getDeviceId(), ldev.getDeviceName(), ldev.getKey(),
+                type.getDataType(), type.getCommandKey()));
+        }
+
+        for (String key : changes.getRemoved()) {
+            if (!discoveredPoints.remove(name + "/" + key)) continue;
+
+            GatewayPoint point = pointIndex.remove(name, key);
+            if (point == null) continue;
+
+            gateway.getPollingScheduler().remove(point);
+            ruleEngine.unbind(point);
+            groupIndex.remove(point);
+            changeFilter.remove(point);
+            gatewayCache.remove(point);
+            pointStore.remove(point);
+
+            UaFolderNode deviceFolder = deviceFolders.get(point.getDeviceKey());
+            for (UaVariableNode aggregateNode : aggregateEngine.remove(point)) {
+                if (deviceFolder != null) {
+                    deviceFolder.removeOrganizes(aggregateNode);
                 }
+                aggregateNode.delete();
+            }
+            if (deviceFolder != null) {
+                deviceFolder.removeOrganizes(point.getNode());
+            }
+            point.getNode().delete();
+
+            Integer left = deviceFolderPoints.merge(
+                point.getDeviceKey(), -1, (count, delta) -> count + delta > 0 ? count + delta : null);
+
+            if (left == null && deviceFolder != null) {
+                deviceFolders.remove(point.getDeviceKey());
+                gatewayFolder.removeOrganizes(deviceFolder);
+                deviceFolder.delete();
             }
+        }
+
+        readInitialValues(gateway, added);
+
+        for (GatewayPoint point : added) {
+            if (!point.isWritable()) {
+                gateway.getPollingScheduler().add(point, hasInternalDemand(point));
+            }
+        }
+
+        logger.info(
+            "Discovery on {}: {} ldevs added, {} removed, {} points total",
+            name, added.size(), changes.getRemoved().size(), pointIndex.size(name));
+    }
+
+    /**
+     * Add the node of an ldev found by discovery, in a folder for its device.
+     */
+    private GatewayPoint addDiscoveredPoint(
+        Gateway gateway, int deviceId, String deviceName, String ldevKey, NodeId typeId,
+        @Nullable String commandKey) {
+
+        String name = gateway.getName();
+        String pathPrefix = gateway.isDefault() ? "ICPS/nodeDevices/" : "ICPS/nodeDevices/" + name + "/";
+
+        UaFolderNode deviceFolder = deviceFolders.computeIfAbsent(name + "/" + deviceId, key -> {
+            UaFolderNode folder = new UaFolderNode(
+                getNodeContext(),
+                newNodeId(pathPrefix + deviceId),
+                newQualifiedName(deviceName),
+                LocalizedText.english(deviceName)
+            );
+
+            getNodeManager().addNode(folder);
+            gatewayFolders.get(name).addOrganizes(folder);
+            return folder;
+        });
+
+        GatewayPoint point = addDevicePoint(
+            gateway, deviceFolder, pathPrefix + deviceId + "/" + ldevKey, ldevKey,
+            deviceId, ldevKey, typeId, commandKey);
+
+        discoveredPoints.add(point.getGatewayKey());
+        deviceFolderPoints.merge(point.getDeviceKey(), 1, Integer::sum);
+        return point;
+    }
+
+    /**
+     * Recreate the discovered points of the last {@link PointSnapshot} and give every point its last known value.
+     * Points of gateways that are no longer configured (or no longer discover) are left out; the first scan of each
+     * gateway removes the restored points that are gone.
+     */
+    private synchronized void restoreSnapshot() {
+        List<PointSnapshot.Entry> entries = pointSnapshot.read();
+        if (entries.isEmpty()) return;
+
+        Map<String, List<String>> restoredKeys = new HashMap<>();
+        int values = 0;
+
+        for (PointSnapshot.Entry entry : entries) {
+            Gateway gateway = gateways.get(entry.getGateway());
+            if (gateway == null) continue;
+
+            GatewayPoint point = pointIndex.get(entry.getGateway(), entry.getDeviceId(), entry.getLdevKey());
+
+            if (point == null && entry.getDeviceName() != null
+                && gateway.getConfig().getBoolean("discovery.enabled", true)) {
+
+                point = addDiscoveredPoint(
+                    gateway, entry.getDeviceId(), entry.getDeviceName(), entry.getLdevKey(),
+                    entry.getDataType(), entry.getCommandKey());
+
+                restoredKeys.computeIfAbsent(gateway.getName(), name -> new ArrayList<>()).add(point.getKey());
+            }
+
+            // A point whose type changed since keeps waiting for the gateway
+            if (point == null || !entry.hasValue() || entry.getKind() != pointStore.kind(point)) continue;
+
+            pointStore.restore(
+                point, entry.getBits(), entry.getObject(), entry.getStatus(),
+                entry.getSourceTime(), entry.getServerTime());
+
+            // Writable nodes hold their own value
+            if (point.isWritable()) {
+                point.getNode().setValue(pointStore.get(point));
+            }
+            values++;
+        }
+
+        restoredKeys.forEach((name, keys) -> gateways.get(name).getDiscovery().remember(keys));
 
-        }).start();
+        logger.info(
+            "Restored {} points ({} with values) from {}",
+            entries.size(), values, pointSnapshot.getFile());
     }
 
+    /**
+     * Write every point and its current value to the {@link PointSnapshot}.
+     *
+     * @return {@code false} if writing failed.
+     */
+    private synchronized boolean writeSnapshot() {
+        try {
+            pointSnapshot.write(pointIndex.points(), pointStore, point -> {
+                if (!discoveredPoints.contains(point.getGatewayKey())) return null;
+
+                UaFolderNode deviceFolder = deviceFolders.get(point.getDeviceKey());
+                return deviceFolder != null ? deviceFolder.getDisplayName().getText() : null;
+            });
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Writing the point snapshot {} failed: {}", pointSnapshot.getFile(), e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    protected void onShutdown() {
+        discoveryFutures.forEach(future -> future.cancel(false));
+        if (snapshotFuture != null) snapshotFuture.cancel(false);
+        eventEngine.stop();
+        gateways.values().forEach(Gateway::close);
+
+        // The gateways are quiet now, so this is the final state
+        if (pointSnapshot.isEnabled() && writeSnapshot()) {
+            logger.info("Point snapshot written to {}", pointSnapshot.getFile());
+        }
+
+        diagnosticsPublisher.stop();
+        metricsEndpoint.close();
 
+        auditLog.close();
+        logger.info("Audit log closed: {}", auditLog);
 
+        historyStore.close();
 
+        super.onShutdown();
+    }
+
+    /**
+     * Answer HistoryRead from the {@link HistoryStore}. Reads decode segment files, so they run on the server's
+     * executor rather than the thread that received the request.
+     */
+    @Override
+    public void historyRead(
+        HistoryReadContext context, HistoryReadDetails readDetails,
+        TimestampsToReturn timestamps, List<HistoryReadValueId> readValueIds) {
+
+        getServer().getExecutorService().execute(() -> {
+            List<HistoryReadResult> results = new ArrayList<>(readValueIds.size());
+
+            for (int i = 0; i < readValueIds.size(); i++) {
+                HistoryReadValueId valueId = readValueIds.get(i);
+                UaNode node = getNodeManager().get(valueId.getNodeId());
+
+                // Nodes of removed devices keep their history
+                if (node == null && !historyStore.hasHistory(valueId.getNodeId())) {
+                    results.add(new HistoryReadResult(
+                        new StatusCode(StatusCodes.Bad_NodeIdUnknown), ByteString.NULL_VALUE, null));
+                } else if (node != null && !(node instanceof UaVariableNode
+                    && Boolean.TRUE.equals(((UaVariableNode) node).getHistorizing()))) {
+                    results.add(new HistoryReadResult(
+                        new StatusCode(StatusCodes.Bad_HistoryOperationUnsupported), ByteString.NULL_VALUE, null));
+                } else {
+                    results.add(historyReader.read(readDetails, timestamps, valueId, i));
+                }
+            }
+
+            context.success(results);
+        });
+    }
+
+    /**
+     * Run method calls on the server's executor: WriteGroup waits for the gateways' answers, which must not hold up
+     * the thread that received the request.
+     */
+    @Override
+    public void call(CallContext context, List<CallMethodRequest> requests) {
+        getServer().getExecutorService().execute(() -> super.call(context, requests));
+    }
+
+    // DataItems on gateway-polled nodes are served by the SamplingEngine, all others by the SubscriptionModel
 
     @Override
     public void onDataItemsCreated(List<DataItem> dataItems) {
-        subscriptionModel.onDataItemsCreated(dataItems);
+        subscriptionModel.onDataItemsCreated(sampledItems(dataItems, samplingEngine::onDataItemCreated));
     }
 
     @Override
-    public void onDataItemsModified(List<DataItem> dataItems) { subscriptionModel.onDataItemsModified(dataItems); }
+    public void onDataItemsModified(List<DataItem> dataItems) {
+        subscriptionModel.onDataItemsModified(sampledItems(dataItems, samplingEngine::onDataItemModified));
+    }
 
     @Override
     public void onDataItemsDeleted(List<DataItem> dataItems) {
-        subscriptionModel.onDataItemsDeleted(dataItems);
+        subscriptionModel.onDataItemsDeleted(sampledItems(dataItems, samplingEngine::onDataItemDeleted));
     }
 
     @Override
     public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
-        subscriptionModel.onMonitoringModeChanged(monitoredItems);
+        List<MonitoredItem> remaining = new ArrayList<>();
+
+        for (MonitoredItem item : monitoredItems) {
+            GatewayPoint point = polledPoint(item);
+
+            if (point != null && item instanceof DataItem) {
+                samplingEngine.onMonitoringModeChanged(point, (DataItem) item);
+            } else {
+                remaining.add(item);
+            }
+        }
+
+        subscriptionModel.onMonitoringModeChanged(remaining);
+    }
+
+    /**
+     * Hand the items on gateway-polled nodes to {@code engineCallback}.
+     *
+     * @return the remaining items.
+     */
+    private List<DataItem> sampledItems(List<DataItem> dataItems, BiConsumer<GatewayPoint, DataItem> engineCallback) {
+        List<DataItem> remaining = new ArrayList<>();
+
+        for (DataItem item : dataItems) {
+            GatewayPoint point = polledPoint(item);
+
+            if (point != null) {
+                engineCallback.accept(point, item);
+            } else {
+                remaining.add(item);
+            }
+        }
+
+        return remaining;
+    }
+
+    private GatewayPoint polledPoint(MonitoredItem item) {
+        if (!AttributeId.Value.uid().equals(item.getReadValueId().getAttributeId())) return null;
+
+        GatewayPoint point = pointIndex.get(item.getReadValueId().getNodeId());
+
+        return point != null && !point.isWritable() ? point : null;
     }
 
 }
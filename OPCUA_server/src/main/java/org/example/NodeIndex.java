@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Assigns every {@link NodeId} seen by the {@link AuditLog} a small, stable integer, so audit records can refer to
+ * nodes by index instead of by object, and keeps each node's audit sampling and rate limit state.
+ */
+public class NodeIndex {
+
+    private final Map<NodeId, Node> byNodeId = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Node> byIndex = new CopyOnWriteArrayList<>();
+
+    private final Config config;
+    private final int defaultSampleEvery;
+    private final int defaultMaxPerSecond;
+
+    public NodeIndex(Config config) {
+        this.config = config;
+
+        defaultSampleEvery = Math.max(1, config.getInt("audit.sampleEvery", 1));
+        defaultMaxPerSecond = config.getInt("audit.maxPerSecond", 100);
+    }
+
+    public Node get(NodeId nodeId) {
+        Node node = byNodeId.get(nodeId);
+
+        return node != null ? node : byNodeId.computeIfAbsent(nodeId, this::newNode);
+    }
+
+    public NodeId getNodeId(int index) {
+        return byIndex.get(index).nodeId;
+    }
+
+    public int size() {
+        return byIndex.size();
+    }
+
+    private synchronized Node newNode(NodeId nodeId) {
+        // Per-node overrides are keyed by the identifier, e.g. audit.maxPerSecond.ICPS/Static/Int32
+        String identifier = String.valueOf(nodeId.getIdentifier());
+
+        Node node = new Node(
+            byIndex.size(), nodeId,
+            Math.max(1, config.getInt("audit.sampleEvery." + identifier, defaultSampleEvery)),
+            config.getInt("audit.maxPerSecond." + identifier, defaultMaxPerSecond)
+        );
+
+        byIndex.add(node);
+        return node;
+    }
+
+    public static class Node {
+
+        private static final long WINDOW_NANOS = 1_000_000_000L;
+
+        private final int index;
+        private final NodeId nodeId;
+        private final int sampleEvery;
+        private final int maxPerSecond;
+
+        private final AtomicLong seen = new AtomicLong();
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        private final AtomicInteger windowCount = new AtomicInteger();
+
+        Node(int index, NodeId nodeId, int sampleEvery, int maxPerSecond) {
+            this.index = index;
+            this.nodeId = nodeId;
+            this.sampleEvery = sampleEvery;
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public NodeId getNodeId() {
+            return nodeId;
+        }
+
+        /**
+         * @return {@code false} if this operation is skipped by sampling ({@code audit.sampleEvery}).
+         */
+        boolean sample() {
+            return sampleEvery == 1 || seen.getAndIncrement() % sampleEvery == 0;
+        }
+
+        /**
+         * @return {@code false} if the node already used up this second's {@code audit.maxPerSecond} records.
+         */
+        boolean tryAcquire(long nowNanos) {
+            if (maxPerSecond <= 0) return true;
+
+            long start = windowStart.get();
+            if (nowNanos - start >= WINDOW_NANOS && windowStart.compareAndSet(start, nowNanos)) {
+                windowCount.set(0);
+            }
+
+            return windowCount.incrementAndGet() <= maxPerSecond;
+        }
+
+    }
+
+}
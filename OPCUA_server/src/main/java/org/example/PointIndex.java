@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Index of every {@link GatewayPoint} of every gateway, by {@link GatewayPoint#getGatewayKey() gateway key}
+ * ({@code gateway/deviceId/ldevKey}) and by {@link NodeId}.
+ */
+public class PointIndex {
+
+    private final Map<String, GatewayPoint> byKey = new ConcurrentHashMap<>();
+    private final Map<NodeId, GatewayPoint> byNodeId = new ConcurrentHashMap<>();
+
+    public void add(GatewayPoint point) {
+        byKey.put(point.getGatewayKey(), point);
+        byNodeId.put(point.getNode().getNodeId(), point);
+    }
+
+    /**
+     * @param key the point's key within {@code gateway}, {@code deviceId/ldevKey}.
+     */
+    public GatewayPoint remove(String gateway, String key) {
+        GatewayPoint point = byKey.remove(gateway + "/" + key);
+
+        if (point != null) {
+            byNodeId.remove(point.getNode().getNodeId());
+        }
+
+        return point;
+    }
+
+    public GatewayPoint get(String gateway, int deviceId, String ldevKey) {
+        return byKey.get(GatewayPoint.key(gateway, deviceId, ldevKey));
+    }
+
+    public GatewayPoint get(NodeId nodeId) {
+        return byNodeId.get(nodeId);
+    }
+
+    public Collection<GatewayPoint> points() {
+        return Collections.unmodifiableCollection(byKey.values());
+    }
+
+    public List<GatewayPoint> points(String gateway) {
+        List<GatewayPoint> points = new ArrayList<>();
+
+        for (GatewayPoint point : byKey.values()) {
+            if (point.getGateway().equals(gateway)) {
+                points.add(point);
+            }
+        }
+
+        return points;
+    }
+
+    /**
+     * @return the points of {@code gateway} whose value is owned by the gateway and has to be polled.
+     */
+    public List<GatewayPoint> polledPoints(String gateway) {
+        List<GatewayPoint> points = new ArrayList<>();
+
+        for (GatewayPoint point : byKey.values()) {
+            if (!point.isWritable() && point.getGateway().equals(gateway)) {
+                points.add(point);
+            }
+        }
+
+        return points;
+    }
+
+    public int size() {
+        return byKey.size();
+    }
+
+    public int size(String gateway) {
+        int size = 0;
+
+        for (GatewayPoint point : byKey.values()) {
+            if (point.getGateway().equals(gateway)) size++;
+        }
+
+        return size;
+    }
+
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * The last known value of every {@link GatewayPoint}, kept in one file ({@code snapshot.file}) so that a restarted
+ * server has its device nodes and their values back before it has talked to a gateway.
+ * <p>
+ * The file is written every {@code snapshot.interval} ms and on shutdown, to a temporary file that then replaces the
+ * previous snapshot, so a crash while writing leaves the previous one intact. It is read once, at startup, in one
+ * sequential pass over a memory mapping; a snapshot that is missing, truncated or fails its checksum is ignored.
+ * <pre>
+ * int magic, byte version, byte reserved, short reserved
+ * int count, long writtenAt (Unix ms)
+ * count * record
+ * int crc32 (of everything before it)
+ *
+ * record: string gateway, int deviceId, string ldevKey,
+ *         string deviceName (null for hand-configured points), int dataType (ns=0 numeric id, 0 if other),
+ *         string commandKey, byte hasValue,
+ *         [byte kind, long bits, int status, long sourceTime, long serverTime, byte objectTag, object]
+ * string: short length (-1 for null), UTF-8 bytes
+ * </pre>
+ * Only the value of String points (and Booleans, numbers and strings of points of other types) has an object.
+ */
+public class PointSnapshot {
+
+    private static final int MAGIC = 0x49435053; // "ICPS"
+    private static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 20;
+
+    private static final byte TAG_NONE = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_DOUBLE = 2;
+    private static final byte TAG_BOOLEAN = 3;
+    private static final byte TAG_LONG = 4;
+
+    /**
+     * A point as it was when the snapshot was written.
+     */
+    public static class Entry {
+
+        private final String gateway;
+        private final int deviceId;
+        private final String ldevKey;
+        private final String deviceName;
+        private final NodeId dataType;
+        private final String commandKey;
+
+        private boolean hasValue;
+        private byte kind;
+        private long bits;
+        private Object object;
+        private int status;
+        private long sourceTime;
+        private long serverTime;
+
+        Entry(
+            String gateway, int deviceId, String ldevKey, @Nullable String deviceName, NodeId dataType,
+            @Nullable String commandKey) {
+
+            this.gateway = gateway;
+            this.deviceId = deviceId;
+            this.ldevKey = ldevKey;
+            this.deviceName = deviceName;
+            this.dataType = dataType;
+            this.commandKey = commandKey;
+        }
+
+        public String getGateway() {
+            return gateway;
+        }
+
+        public int getDeviceId() {
+            return deviceId;
+        }
+
+        public String getLdevKey() {
+            return ldevKey;
+        }
+
+        /**
+         * @return the name of the device the point was discovered on, or {@code null} for a hand-configured point.
+         */
+        @Nullable
+        public String getDeviceName() {
+            return deviceName;
+        }
+
+        public NodeId getDataType() {
+            return dataType;
+        }
+
+        @Nullable
+        public String getCommandKey() {
+            return commandKey;
+        }
+
+        /**
+         * @return {@code true} if the point had a value, not just a status.
+         */
+        public boolean hasValue() {
+            return hasValue;
+        }
+
+        public byte getKind() {
+            return kind;
+        }
+
+        public long getBits() {
+            return bits;
+        }
+
+        @Nullable
+        public Object getObject() {
+            return object;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public long getSourceTime() {
+            return sourceTime;
+        }
+
+        public long getServerTime() {
+            return serverTime;
+        }
+
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final boolean enabled;
+    private final Path file;
+    private final long intervalMillis;
+
+    private final LongAdder writes;
+    private final LatencyHistogram writeDuration;
+
+    // Reused by every write, grown as needed
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    private volatile int lastCount;
+    private volatile int lastSize;
+
+    public PointSnapshot(Config config, Metrics metrics) {
+        enabled = config.getBoolean("snapshot.enabled", true);
+        file = Paths.get(config.getString("snapshot.file", "snapshot/points.snap"));
+        intervalMillis = config.getLong("snapshot.interval", 30_000);
+
+        writes = metrics.counter("snapshot.writes");
+        writeDuration = metrics.histogram("snapshot.write");
+        metrics.gauge("snapshot.points", () -> lastCount);
+        metrics.gauge("snapshot.bytes", () -> lastSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return how often the snapshot is written, in ms; 0 or less to write it only on shutdown.
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the points of the snapshot, in the order they were written; none if there is no valid snapshot.
+     */
+    public List<Entry> read() {
+        if (!enabled) return Collections.emptyList();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return decode(mapped);
+        } catch (NoSuchFileException e) {
+            logger.info("No point snapshot at {}", file);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            logger.warn("Ignoring point snapshot {}: {}", file, e.getMessage());
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Write the current state of {@code points} as the new snapshot.
+     *
+     * @param deviceNames the name of the device a point was discovered on, {@code null} for hand-configured points.
+     */
+    public synchronized void write(
+        Collection<GatewayPoint> points, PointStore store, Function<GatewayPoint, String> deviceNames)
+        throws IOException {
+
+        long start = System.nanoTime();
+
+        buffer.clear();
+        buffer.putInt(MAGIC).put(VERSION).put((byte) 0).putShort((short) 0);
+        buffer.putInt(0).putLong(System.currentTimeMillis());
+
+        int count = 0;
+        for (GatewayPoint point : points) {
+            String deviceName = deviceNames.apply(point);
+            int position = buffer.position();
+
+            while (true) {
+                try {
+                    encode(point, store, deviceName);
+                    break;
+                } catch (BufferOverflowException e) {
+                    // Keep what is encoded so far and encode the point again
+                    grow(position);
+                }
+            }
+            count++;
+        }
+        buffer.putInt(8, count);
+
+        if (buffer.remaining() < 4) {
+            grow(buffer.position());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        int size = buffer.limit();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(
+            temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        lastCount = count;
+        lastSize = size;
+        writes.increment();
+        writeDuration.record(System.nanoTime() - start);
+    }
+
+    private void grow(int position) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+
+        buffer.position(position).flip();
+        buffer = grown.put(buffer);
+    }
+
+    private void encode(GatewayPoint point, PointStore store, @Nullable String deviceName) {
+        putString(point.getGateway());
+        buffer.putInt(point.getDeviceId());
+        putString(point.getLdevKey());
+        putString(deviceName);
+        buffer.putInt(dataTypeId(point.getNode().getDataType()));
+        putString(point.getCommandKey());
+
+        store.read(point, (kind, bits, object, status, sourceTime, serverTime) -> {
+            byte tag = tagOf(object);
+
+            // A status without a value, or a value that can't be written back
+            if (sourceTime == 0 || (object != null && tag == TAG_NONE)) {
+                buffer.put((byte) 0);
+                return;
+            }
+
+            buffer.put((byte) 1);
+            buffer.put(kind).putLong(bits).putInt(status).putLong(sourceTime).putLong(serverTime);
+            buffer.put(tag);
+
+            switch (tag) {
+                case TAG_STRING:
+                    putString((String) object);
+                    break;
+                case TAG_DOUBLE:
+                    buffer.putDouble((Double) object);
+                    break;
+                case TAG_BOOLEAN:
+                    buffer.put((byte) ((Boolean) object ? 1 : 0));
+                    break;
+                case TAG_LONG:
+                    buffer.putLong(((Number) object).longValue());
+                    break;
+                default:
+                    break;
+            }
+        });
+    }
+
+    private List<Entry> decode(ByteBuffer in) throws IOException {
+        if (in.capacity() < HEADER_SIZE + 4 || in.getInt(0) != MAGIC || in.get(4) != VERSION) {
+            throw new IOException("not a point snapshot");
+        }
+
+        int end = in.capacity() - 4;
+
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().limit(end));
+        if ((int) crc.getValue() != in.getInt(end)) {
+            throw new IOException("checksum mismatch");
+        }
+
+        int count = in.getInt(8);
+        List<Entry> entries = new ArrayList<>(count);
+
+        in.position(HEADER_SIZE).limit(end);
+
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(
+                getString(in), in.getInt(), getString(in), getString(in), dataType(in.getInt()), getString(in));
+
+            if (in.get() != 0) {
+                entry.hasValue = true;
+                entry.kind = in.get();
+                entry.bits = in.getLong();
+                entry.status = in.getInt();
+                entry.sourceTime = in.getLong();
+                entry.serverTime = in.getLong();
+
+                switch (in.get()) {
+                    case TAG_STRING:
+                        entry.object = getString(in);
+                        break;
+                    case TAG_DOUBLE:
+                        entry.object = in.getDouble();
+                        break;
+                    case TAG_BOOLEAN:
+                        entry.object = in.get() != 0;
+                        break;
+                    case TAG_LONG:
+                        entry.object = in.getLong();
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    private void putString(@Nullable String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    @Nullable
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte tagOf(@Nullable Object object) {
+        if (object == null) return TAG_NONE;
+        if (object instanceof String && ((String) object).length() <= Short.MAX_VALUE / 3) return TAG_STRING;
+        if (object instanceof Double) return TAG_DOUBLE;
+        if (object instanceof Boolean) return TAG_BOOLEAN;
+        if (object instanceof Long || object instanceof Integer) return TAG_LONG;
+        return TAG_NONE;
+    }
+
+    private static int dataTypeId(@Nullable NodeId dataType) {
+        if (dataType != null && dataType.getNamespaceIndex().intValue() == 0
+            && dataType.getIdentifier() instanceof UInteger) {
+
+            return ((UInteger) dataType.getIdentifier()).intValue();
+        }
+        return 0;
+    }
+
+    private static NodeId dataType(int id) {
+        // BaseDataType for a type that wasn't a standard one
+        return id != 0 ? new NodeId(0, uint(id)) : Identifiers.BaseDataType;
+    }
+
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The current values of all {@link GatewayPoint}s, in primitive columns indexed by the point's slot: the value as 64
+ * bits (in the point's {@link #kind kind}), the status code, the source and server timestamps (as {@link DateTime}
+ * UTC ticks) and when the gateway last confirmed it ({@link System#nanoTime()}, 0 if never). Only String points keep
+ * an object, the string itself.
+ * <p>
+ * Columns come in chunks of {@value #CHUNK_SIZE} slots that never move, so the store grows without copying and
+ * memory scales with the number of points; updates write primitives in place and allocate nothing. A
+ * {@link DataValue} is only built when a read or a notification asks for one ({@link #get}).
+ * <p>
+ * Every slot has a sequence number that is odd while the slot is written (a seqlock): writers claim it with a CAS,
+ * readers never lock, they re-read until they saw the same even sequence before and after.
+ * <p>
+ * Every slot also has a generation, bumped when its point is removed. A point remembers the generation it was
+ * created in, and writes for it are dropped once that changed, so a poll still in flight for a removed point can't
+ * write into the slot's next owner.
+ */
+public class PointStore {
+
+    static final int CHUNK_SIZE = 1024;
+
+    static final byte KIND_OTHER = 0;
+    static final byte KIND_BOOLEAN = 1;
+    static final byte KIND_INT32 = 2;
+    static final byte KIND_INT64 = 3;
+    static final byte KIND_FLOAT = 4;
+    static final byte KIND_DOUBLE = 5;
+    static final byte KIND_STRING = 6;
+
+    private static final int WAITING = (int) StatusCodes.Bad_WaitingForInitialData;
+    private static final int LAST_USABLE = (int) StatusCodes.Uncertain_LastUsableValue;
+
+    /**
+     * Receives one consistent read of a slot.
+     */
+    public interface SlotVisitor {
+        void visit(byte kind, long bits, @Nullable Object object, int status, long sourceTime, long serverTime);
+    }
+
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int nextSlot;
+    private int size;
+
+    public PointStore(Metrics metrics) {
+        metrics.gauge("store.points", this::size);
+        metrics.gauge("store.slots", this::capacity);
+    }
+
+    /**
+     * Create a point with a slot of its own, holding {@code Bad_WaitingForInitialData} until the first write.
+     */
+    public synchronized GatewayPoint newPoint(
+        String gateway, int deviceId, String ldevKey, UaVariableNode node, @Nullable String commandKey) {
+
+        Integer free = freeSlots.poll();
+        int slot = free != null ? free : nextSlot++;
+
+        if (slot >= capacity()) {
+            Chunk[] grown = new Chunk[chunks.length + 1];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            grown[chunks.length] = new Chunk();
+            chunks = grown;
+        }
+
+        Chunk chunk = chunk(slot);
+        int i = slot % CHUNK_SIZE;
+
+        claim(chunk, i);
+        int generation = chunk.generation[i];
+        chunk.kind[i] = kindOf(node.getDataType());
+        chunk.bits[i] = 0;
+        chunk.objects[i] = null;
+        chunk.status[i] = WAITING;
+        chunk.sourceTime[i] = 0;
+        chunk.serverTime[i] = 0;
+        chunk.confirmedAt[i] = 0;
+        release(chunk, i);
+
+        size++;
+
+        return new GatewayPoint(gateway, deviceId, ldevKey, node, commandKey, slot, generation);
+    }
+
+    /**
+     * Give the slot of a removed point back for reuse; later writes for the point are dropped.
+     */
+    public synchronized void remove(GatewayPoint point) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        if (!claim(chunk, i, point)) return;
+        chunk.generation[i]++;
+        chunk.objects[i] = null;
+        release(chunk, i);
+
+        freeSlots.add(point.getSlot());
+        size--;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return chunks.length * CHUNK_SIZE;
+    }
+
+    public byte kind(GatewayPoint point) {
+        return chunk(point.getSlot()).kind[point.getSlot() % CHUNK_SIZE];
+    }
+
+    /**
+     * Store a new value confirmed by the gateway.
+     *
+     * @param bits       the value encoded for the point's kind (see {@link #toBits}); ignored for String points.
+     * @param object     the value of a String point, otherwise {@code null}.
+     * @param sourceTime the source timestamp in {@link DateTime} ticks.
+     * @return {@code false} if the point was removed and nothing was written.
+     */
+    public boolean write(GatewayPoint point, long bits, @Nullable Object object, int status, long sourceTime) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+        long now = DateTime.now().getUtcTime();
+
+        if (!claim(chunk, i, point)) return false;
+        chunk.bits[i] = bits;
+        chunk.objects[i] = object;
+        chunk.status[i] = status;
+        chunk.sourceTime[i] = sourceTime;
+        chunk.serverTime[i] = now;
+        chunk.confirmedAt[i] = System.nanoTime();
+        release(chunk, i);
+
+        return true;
+    }
+
+    /**
+     * Store {@code value} (a Java object as written by a client) as the point's confirmed value.
+     *
+     * @return {@code false} if the point was removed and nothing was written.
+     */
+    public boolean write(GatewayPoint point, Object value, int status) {
+        byte kind = kind(point);
+        long now = DateTime.now().getUtcTime();
+
+        if (kind == KIND_STRING || kind == KIND_OTHER) {
+            return write(point, 0, value, status, now);
+        } else if (value instanceof Boolean) {
+            return write(point, (Boolean) value ? 1 : 0, null, status, now);
+        } else if (value instanceof Number) {
+            return write(point, toBits(kind, ((Number) value).doubleValue()), null, status, now);
+        } else {
+            return write(point, 0, value, status, now);
+        }
+    }
+
+    /**
+     * Store a value kept from before a restart (see {@link PointSnapshot}). A good value becomes
+     * {@code Uncertain_LastUsableValue}, and the value counts as never confirmed by the gateway, so the first read
+     * refreshes it and the first polled value replaces it.
+     */
+    public void restore(
+        GatewayPoint point, long bits, @Nullable Object object, int status, long sourceTime, long serverTime) {
+
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        if (!claim(chunk, i, point)) return;
+        chunk.bits[i] = bits;
+        chunk.objects[i] = object;
+        chunk.status[i] = (status & 0xC0000000) == 0 ? LAST_USABLE : status;
+        chunk.sourceTime[i] = sourceTime;
+        chunk.serverTime[i] = serverTime;
+        chunk.confirmedAt[i] = 0;
+        release(chunk, i);
+    }
+
+    /**
+     * Change the status of the point's value, keeping the value.
+     */
+    public void writeStatus(GatewayPoint point, int status) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        if (!claim(chunk, i, point)) return;
+        chunk.status[i] = status;
+        chunk.serverTime[i] = DateTime.now().getUtcTime();
+        release(chunk, i);
+    }
+
+    /**
+     * Mark the point's value as confirmed now, after the gateway answered with the same value.
+     */
+    public void touch(GatewayPoint point) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        if (!claim(chunk, i, point)) return;
+        chunk.confirmedAt[i] = System.nanoTime();
+        release(chunk, i);
+    }
+
+    /**
+     * @return when the gateway last confirmed the point's value ({@link System#nanoTime()}), or 0 if it never did.
+     */
+    public long confirmedAt(GatewayPoint point) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        while (true) {
+            int sequence = stableSequence(chunk, i);
+            long confirmedAt = chunk.confirmedAt[i];
+
+            if (validate(chunk, i, sequence)) return confirmedAt;
+        }
+    }
+
+    public int status(GatewayPoint point) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        while (true) {
+            int sequence = stableSequence(chunk, i);
+            int status = chunk.status[i];
+
+            if (validate(chunk, i, sequence)) return status;
+        }
+    }
+
+    /**
+     * Pass one consistent read of the point's slot to {@code visitor}.
+     */
+    public void read(GatewayPoint point, SlotVisitor visitor) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        while (true) {
+            int sequence = stableSequence(chunk, i);
+
+            byte kind = chunk.kind[i];
+            long bits = chunk.bits[i];
+            Object object = chunk.objects[i];
+            int status = chunk.status[i];
+            long sourceTime = chunk.sourceTime[i];
+            long serverTime = chunk.serverTime[i];
+
+            if (validate(chunk, i, sequence)) {
+                visitor.visit(kind, bits, object, status, sourceTime, serverTime);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the point's value as a {@link DataValue}, built for this call.
+     */
+    public DataValue get(GatewayPoint point) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        while (true) {
+            int sequence = stableSequence(chunk, i);
+
+            byte kind = chunk.kind[i];
+            long bits = chunk.bits[i];
+            Object object = chunk.objects[i];
+            int status = chunk.status[i];
+            long sourceTime = chunk.sourceTime[i];
+            long serverTime = chunk.serverTime[i];
+            long confirmedAt = chunk.confirmedAt[i];
+            int generation = chunk.generation[i];
+
+            if (!validate(chunk, i, sequence)) continue;
+
+            if (generation != point.getGeneration()) {
+                return new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+            }
+
+            // no value yet, only a status; restored values have a source time but were never confirmed
+            if (confirmedAt == 0 && sourceTime == 0) {
+                return new DataValue(new StatusCode(status & 0xFFFFFFFFL));
+            }
+
+            return new DataValue(
+                new Variant(valueOf(kind, bits, object)),
+                status == 0 ? StatusCode.GOOD : new StatusCode(status & 0xFFFFFFFFL),
+                sourceTime != 0 ? new DateTime(sourceTime) : null,
+                new DateTime(serverTime)
+            );
+        }
+    }
+
+    /**
+     * @return the point's value, encoded as by {@link #toBits}.
+     */
+    public long bits(GatewayPoint point) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        while (true) {
+            int sequence = stableSequence(chunk, i);
+            long bits = chunk.bits[i];
+
+            if (validate(chunk, i, sequence)) return bits;
+        }
+    }
+
+    /**
+     * @return the value of a String point, otherwise {@code null}.
+     */
+    @Nullable
+    public Object object(GatewayPoint point) {
+        Chunk chunk = chunk(point.getSlot());
+        int i = point.getSlot() % CHUNK_SIZE;
+
+        while (true) {
+            int sequence = stableSequence(chunk, i);
+            Object object = chunk.objects[i];
+
+            if (validate(chunk, i, sequence)) return object;
+        }
+    }
+
+    static byte kindOf(@Nullable NodeId dataType) {
+        if (Identifiers.Boolean.equals(dataType)) return KIND_BOOLEAN;
+        if (Identifiers.Int32.equals(dataType)) return KIND_INT32;
+        if (Identifiers.Int64.equals(dataType)) return KIND_INT64;
+        if (Identifiers.Float.equals(dataType)) return KIND_FLOAT;
+        if (Identifiers.Double.equals(dataType)) return KIND_DOUBLE;
+        if (Identifiers.String.equals(dataType)) return KIND_STRING;
+        return KIND_OTHER;
+    }
+
+    /**
+     * @return {@code value} converted to {@code kind} and encoded: booleans as 0/1, integers as longs, floating
+     * point values as their double bits.
+     */
+    static long toBits(byte kind, double value) {
+        switch (kind) {
+            case KIND_BOOLEAN:
+                return value != 0.0 ? 1 : 0;
+            case KIND_INT32:
+                return (int) Math.round(value);
+            case KIND_INT64:
+                return Math.round(value);
+            case KIND_FLOAT:
+                return Double.doubleToRawLongBits((float) value);
+            default:
+                return Double.doubleToRawLongBits(value);
+        }
+    }
+
+    static double toDouble(byte kind, long bits) {
+        switch (kind) {
+            case KIND_BOOLEAN:
+            case KIND_INT32:
+            case KIND_INT64:
+                return bits;
+            default:
+                return Double.longBitsToDouble(bits);
+        }
+    }
+
+    @Nullable
+    static Object valueOf(byte kind, long bits, @Nullable Object object) {
+        switch (kind) {
+            case KIND_BOOLEAN:
+                return bits != 0;
+            case KIND_INT32:
+                return (int) bits;
+            case KIND_INT64:
+                return bits;
+            case KIND_FLOAT:
+                return (float) Double.longBitsToDouble(bits);
+            case KIND_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            default:
+                return object;
+        }
+    }
+
+    private Chunk chunk(int slot) {
+        return chunks[slot / CHUNK_SIZE];
+    }
+
+    private static void claim(Chunk chunk, int i) {
+        while (true) {
+            int sequence = chunk.sequence.get(i);
+
+            if ((sequence & 1) == 0 && chunk.sequence.compareAndSet(i, sequence, sequence + 1)) return;
+
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Claim the slot of {@code point} for writing, unless the point was removed.
+     */
+    private static boolean claim(Chunk chunk, int i, GatewayPoint point) {
+        claim(chunk, i);
+
+        if (chunk.generation[i] == point.getGeneration()) return true;
+
+        release(chunk, i);
+        return false;
+    }
+
+    private static void release(Chunk chunk, int i) {
+        chunk.sequence.incrementAndGet(i);
+    }
+
+    private static int stableSequence(Chunk chunk, int i) {
+        while (true) {
+            int sequence = chunk.sequence.get(i);
+
+            if ((sequence & 1) == 0) return sequence;
+
+            Thread.onSpinWait();
+        }
+    }
+
+    private static boolean validate(Chunk chunk, int i, int sequence) {
+        // keep the field reads above from moving past the second sequence read
+        VarHandle.acquireFence();
+
+        return chunk.sequence.get(i) == sequence;
+    }
+
+    private static final class Chunk {
+
+        final AtomicIntegerArray sequence = new AtomicIntegerArray(CHUNK_SIZE);
+        final int[] generation = new int[CHUNK_SIZE];
+        final byte[] kind = new byte[CHUNK_SIZE];
+        final long[] bits = new long[CHUNK_SIZE];
+        final Object[] objects = new Object[CHUNK_SIZE];
+        final int[] status = new int[CHUNK_SIZE];
+        final long[] sourceTime = new long[CHUNK_SIZE];
+        final long[] serverTime = new long[CHUNK_SIZE];
+        final long[] confirmedAt = new long[CHUNK_SIZE];
+
+    }
+
+}
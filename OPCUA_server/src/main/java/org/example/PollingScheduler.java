@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls each {@link GatewayPoint} on its own schedule.
+ * <p>
+ * A tick task on the server's scheduled executor collects the points that are due and polls them together through
+ * the {@link BulkPoller}. Each point has:
+ * <ul>
+ *     <li>an interval, {@code poll.interval.<deviceId>/<ldevKey>}, {@code poll.interval.<deviceId>} or
+ *     {@code poll.interval};</li>
+ *     <li>in demand-driven mode ({@code poll.demandDriven}, the default), the fastest sampling interval requested by
+ *     the DataItems monitoring its node (no faster than {@code poll.minInterval}), and no polling at all while none
+ *     does, unless the server itself acts on the point's values (see {@link #add}), which polls it at least every
+ *     {@code poll.interval};</li>
+ *     <li>otherwise, a shorter interval used while OPC UA clients monitor its node, {@code poll.activeInterval...}
+ *     (same lookup);</li>
+ *     <li>a first poll jittered over its interval, as is the first after demand resumes, so points don't all fall
+ *     on the same tick;</li>
+ *     <li>an exponential backoff, up to {@code poll.maxInterval}, while the gateway fails or answers slower than
+ *     {@code poll.slowThreshold};</li>
+ *     <li>no polls while the gateway pushes its values (see {@link PushEndpoint}): a point is polled again once
+ *     nothing has been pushed for it for {@code push.silence} ms.</li>
+ * </ul>
+ */
+public class PollingScheduler {
+
+    public interface PollListener {
+        void onPoll(GatewayPoint point, @Nullable Throwable failure);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<GatewayPoint, PollState> states = new ConcurrentHashMap<>();
+
+    private final List<PollListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Config config;
+    private final BulkPoller bulkPoller;
+    private final ScheduledExecutorService scheduler;
+
+    private final LatencyHistogram lag;
+    private final LatencyHistogram duration;
+    private final LongAdder polls;
+    private final LongAdder failures;
+
+    private final boolean demandDriven;
+    private final long minIntervalMillis;
+    private final long tickMillis;
+    private final long slowThresholdNanos;
+    private final long maxIntervalNanos;
+    private final long silenceNanos;
+
+    private volatile ScheduledFuture<?> tickFuture;
+
+    public PollingScheduler(
+        Config config, BulkPoller bulkPoller, ScheduledExecutorService scheduler, Metrics metrics) {
+
+        this.config = config;
+        this.bulkPoller = bulkPoller;
+        this.scheduler = scheduler;
+
+        lag = metrics.histogram("poll.lag");
+        duration = metrics.histogram("poll.duration");
+        polls = metrics.counter("poll.polls");
+        failures = metrics.counter("poll.failures");
+
+        demandDriven = config.getBoolean("poll.demandDriven", true);
+        minIntervalMillis = config.getLong("poll.minInterval", 100);
+        tickMillis = config.getLong("poll.tick", 100);
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("poll.slowThreshold", 2000));
+        maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("poll.maxInterval", 60_000));
+        silenceNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("push.silence", 5000));
+    }
+
+    /**
+     * Start polling {@code point}.
+     *
+     * @param internalDemand whether the server itself acts on the point's values (history, rules, aggregates,
+     *                       events), so it is polled while no DataItem monitors it.
+     */
+    public void add(GatewayPoint point, boolean internalDemand) {
+        long interval = millis("poll.interval", point, 1000);
+        long activeInterval = millis("poll.activeInterval", point, Math.min(interval, 250));
+
+        long firstDue = System.nanoTime() + jitter(TimeUnit.MILLISECONDS.toNanos(interval));
+
+        states.put(point, new PollState(interval, activeInterval, demandDriven, internalDemand, firstDue));
+    }
+
+    public void remove(GatewayPoint point) {
+        states.remove(point);
+    }
+
+    /**
+     * @param listener told the outcome of every scheduled poll of a point.
+     */
+    public void addListener(PollListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Update the demand on {@code point}.
+     *
+     * @param monitoredItems   the number of DataItems sampling its node.
+     * @param samplingInterval the fastest sampling interval (ms) they request; ignored unless demand-driven.
+     */
+    public void setDemand(GatewayPoint point, int monitoredItems, long samplingInterval) {
+        PollState state = states.get(point);
+
+        if (state != null) {
+            state.setDemand(monitoredItems, Math.max(minIntervalMillis, samplingInterval));
+        }
+    }
+
+    /**
+     * A value of {@code point} was pushed; hold its polls until the pushes go silent.
+     */
+    public void pushed(GatewayPoint point) {
+        PollState state = states.get(point);
+
+        if (state != null) {
+            state.pushed(System.nanoTime() + silenceNanos);
+        }
+    }
+
+    public synchronized void start() {
+        if (tickFuture == null) {
+            tickFuture = scheduler.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            List<GatewayPoint> due = new ArrayList<>();
+
+            states.forEach((point, state) -> {
+                long late = state.claimIfDue(now);
+
+                if (late >= 0) {
+                    lag.record(late);
+                    due.add(point);
+                }
+            });
+
+            if (due.isEmpty()) return;
+
+            Map<GatewayPoint, CompletableFuture<Void>> futures = bulkPoller.pollEach(due);
+
+            futures.forEach((point, future) -> future.whenComplete((v, ex) -> {
+                PollState state = states.get(point);
+                if (state == null) return;
+
+                long elapsed = System.nanoTime() - now;
+                boolean backoff = ex != null || elapsed > slowThresholdNanos;
+
+                duration.record(elapsed);
+                polls.increment();
+
+                if (ex != null) {
+                    failures.increment();
+                    logger.debug("Poll of {} failed: {}", point, ex.getMessage());
+                }
+
+                state.completed(System.nanoTime(), backoff, maxIntervalNanos);
+
+                for (PollListener listener : listeners) {
+                    listener.onPoll(point, ex);
+                }
+            }));
+        } catch (Throwable t) {
+            logger.error("Polling tick failed: {}", t.getMessage(), t);
+        }
+    }
+
+    private long millis(String key, GatewayPoint point, long defaultValue) {
+        long value = config.getLong(key + "." + point.getKey(), -1);
+        if (value < 0) value = config.getLong(key + "." + point.getDeviceId(), -1);
+        if (value < 0) value = config.getLong(key, defaultValue);
+        return value;
+    }
+
+    /**
+     * @return a random delay within {@code intervalNanos}, so points starting together are spread over it.
+     */
+    private static long jitter(long intervalNanos) {
+        return ThreadLocalRandom.current().nextLong(Math.max(1, intervalNanos));
+    }
+
+    private static class PollState {
+
+        private final long intervalNanos;
+        private final long activeIntervalNanos;
+        private final boolean demandDriven;
+        private final boolean internalDemand;
+
+        private long nextDue;
+        private long lastCompleted;
+        private int backoff = 1;
+        private int monitoredItems;
+        private long demandIntervalNanos;
+        private boolean inFlight;
+        private boolean pushed;
+        private long pushedUntil;
+
+        PollState(
+            long intervalMillis, long activeIntervalMillis, boolean demandDriven, boolean internalDemand,
+            long firstDue) {
+
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            this.activeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(activeIntervalMillis);
+            this.demandDriven = demandDriven;
+            this.internalDemand = internalDemand;
+            this.nextDue = firstDue;
+            this.lastCompleted = firstDue;
+        }
+
+        /**
+         * @return how late the poll is in nanoseconds if it was due and is now in flight, otherwise {@code -1}.
+         */
+        synchronized long claimIfDue(long now) {
+            if (pushed) {
+                if (now - pushedUntil < 0) {
+                    // Polled again from the end of the silence, not late by the whole time values were pushed
+                    if (nextDue - pushedUntil < 0) nextDue = pushedUntil;
+                    return -1;
+                }
+                pushed = false;
+            }
+
+            if (!inFlight && !isIdle() && now - nextDue >= 0) {
+                inFlight = true;
+                return now - nextDue;
+            }
+            return -1;
+        }
+
+        synchronized void completed(long now, boolean slowOrFailed, long maxIntervalNanos) {
+            inFlight = false;
+            lastCompleted = now;
+
+            if (slowOrFailed) {
+                backoff = (int) Math.min(backoff * 2L, 1024);
+            } else {
+                backoff = 1;
+            }
+
+            nextDue = now + Math.min(currentInterval() * backoff, Math.max(maxIntervalNanos, currentInterval()));
+        }
+
+        synchronized void pushed(long until) {
+            pushed = true;
+            pushedUntil = until;
+        }
+
+        synchronized void setDemand(int monitoredItems, long samplingIntervalMillis) {
+            boolean wasIdle = isIdle();
+
+            this.monitoredItems = monitoredItems;
+            this.demandIntervalNanos = TimeUnit.MILLISECONDS.toNanos(samplingIntervalMillis);
+
+            if (wasIdle) {
+                // Resume within one interval; a client monitoring many nodes resumes them all at once
+                nextDue = System.nanoTime() + jitter(currentInterval());
+            } else {
+                // Pull the next poll forward if the interval got shorter
+                nextDue = Math.min(nextDue, lastCompleted + currentInterval() * backoff);
+            }
+        }
+
+        /**
+         * @return {@code true} if nothing needs this point polled.
+         */
+        private boolean isIdle() {
+            return demandDriven && monitoredItems == 0 && !internalDemand;
+        }
+
+        private long currentInterval() {
+            if (demandDriven) {
+                if (monitoredItems == 0) return intervalNanos;
+
+                return internalDemand ? Math.min(demandIntervalNanos, intervalNanos) : demandIntervalNanos;
+            } else {
+                return monitoredItems > 0 ? activeIntervalNanos : intervalNanos;
+            }
+        }
+
+    }
+
+}
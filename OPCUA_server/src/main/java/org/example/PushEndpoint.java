@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the values a gateway pushes as they change, so that pushed points don't wait for their next poll.
+ * <p>
+ * Sources connect over TCP to {@code push.bindAddress:push.port} (localhost only by default; a port of 0 or less, the
+ * default, disables the endpoint) and send one record per line: an object in the gateway's data format, with the
+ * device id and ldev key,
+ * <pre>{"id": 5, "key": "temperature", "value": 21.5, "timestamp": 1700000000000}</pre>
+ * One thread serves every source through a non-blocking {@link Selector}. Whatever a read brings in is decoded as a
+ * batch: each complete line is decoded in place by a {@link GatewayJsonDecoder} and handed to the {@link BulkPoller}
+ * like a polled value, so it goes through the {@link ChangeFilter} too. Records for unknown or writable points, and
+ * records without a value, are counted and dropped.
+ * <p>
+ * Flow control is per source. A source may send {@code push.maxRate} records per second, with bursts of up to one
+ * second's worth. A source over its rate is not read again until it is back under it, so TCP pushes the backpressure
+ * onto the sender instead of into the server's memory. At most {@code push.maxSources} sources are connected at
+ * once, and a line longer than {@value #MAX_RECORD} bytes disconnects its source.
+ * <p>
+ * Pushing comes on top of polling: the {@link PollingScheduler} holds the polls of a pushed point, and polls it again
+ * once nothing has been pushed for it for {@code push.silence} ms, whether its source disconnected or went quiet.
+ */
+public class PushEndpoint implements AutoCloseable {
+
+    static final int MAX_RECORD = 4096;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final GatewayJsonDecoder decoder = new GatewayJsonDecoder();
+    private final GatewayJsonDecoder.ReadingHandler handler = this::apply;
+
+    // Sources over their rate, only touched by the endpoint thread
+    private final List<Source> paused = new ArrayList<>();
+
+    private final String gateway;
+    private final String threadName;
+    private final PointIndex pointIndex;
+    private final BulkPoller bulkPoller;
+    private final PollingScheduler pollingScheduler;
+
+    private final String bindAddress;
+    private final int port;
+    private final int maxSources;
+    private final double maxRate;
+    private final long silenceMillis;
+
+    private final LongAdder records;
+    private final LongAdder ignored;
+    private final LongAdder malformed;
+    private final LongAdder throttled;
+
+    private volatile int sourceCount;
+    private volatile boolean running;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+
+    /**
+     * @param gateway    the name of the gateway whose points the records are for.
+     * @param threadName the name of the endpoint's thread.
+     */
+    public PushEndpoint(
+        String gateway, String threadName, Config config, PointIndex pointIndex, BulkPoller bulkPoller,
+        PollingScheduler pollingScheduler, Metrics metrics) {
+
+        this.gateway = gateway;
+        this.threadName = threadName;
+        this.pointIndex = pointIndex;
+        this.bulkPoller = bulkPoller;
+        this.pollingScheduler = pollingScheduler;
+
+        bindAddress = config.getString("push.bindAddress", "localhost");
+        port = config.getInt("push.port", 0);
+        maxSources = config.getInt("push.maxSources", 64);
+        maxRate = Math.max(1, config.getDouble("push.maxRate", 10_000));
+        silenceMillis = config.getLong("push.silence", 5000);
+
+        records = metrics.counter("push.records");
+        ignored = metrics.counter("push.ignored");
+        malformed = metrics.counter("push.malformed");
+        throttled = metrics.counter("push.throttled");
+        metrics.gauge("push.sources", () -> sourceCount);
+    }
+
+    public synchronized void start() {
+        if (port <= 0 || running) return;
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(bindAddress, port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            logger.warn("Push endpoint not started on {}:{}: {}", bindAddress, port, e.getMessage());
+            closeQuietly();
+            return;
+        }
+
+        running = true;
+
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+
+        logger.info("Accepting pushed values for gateway {} on {}:{}", gateway, bindAddress, getPort());
+    }
+
+    /**
+     * @return the port the endpoint listens on, or the configured one if it isn't started.
+     */
+    public int getPort() {
+        ServerSocketChannel channel = serverChannel;
+
+        if (channel != null && channel.isOpen()) {
+            try {
+                return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            } catch (IOException e) {
+                return port;
+            }
+        }
+
+        return port;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) return;
+
+        running = false;
+        selector.wakeup();
+
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(this::ready, selectTimeout(System.nanoTime()));
+                resume(System.nanoTime());
+            }
+        } catch (Throwable t) {
+            logger.error("Push endpoint of gateway {} failed: {}", gateway, t.getMessage(), t);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void ready(SelectionKey key) {
+        if (!key.isValid()) return;
+
+        if (key.isAcceptable()) {
+            accept();
+        } else if (key.isReadable()) {
+            read((Source) key.attachment());
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) return;
+
+            if (sourceCount >= maxSources) {
+                logger.warn("Refusing push source {}: {} sources connected", channel.getRemoteAddress(), sourceCount);
+                channel.close();
+                return;
+            }
+
+            channel.configureBlocking(false);
+
+            Source source = new Source(channel, String.valueOf(channel.getRemoteAddress()), maxRate);
+            source.key = channel.register(selector, SelectionKey.OP_READ, source);
+            sourceCount++;
+
+            logger.info("Push source {} connected to gateway {}", source.name, gateway);
+        } catch (IOException e) {
+            logger.warn("Accepting a push source failed: {}", e.getMessage());
+        }
+    }
+
+    private void read(Source source) {
+        try {
+            if (source.channel.read(source.buffer) < 0) {
+                disconnect(source, "closed by the source");
+                return;
+            }
+        } catch (IOException e) {
+            disconnect(source, e.getMessage());
+            return;
+        }
+
+        drain(source);
+    }
+
+    /**
+     * Apply the complete lines in the source's buffer, as many as its rate allows, and keep the rest for later.
+     */
+    private void drain(Source source) {
+        ByteBuffer buffer = source.buffer;
+        byte[] bytes = buffer.array();
+        int end = buffer.position();
+        int start = 0;
+
+        long now = System.nanoTime();
+        source.refill(now, maxRate);
+
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] != '\n') continue;
+
+            if (source.tokens < 1) {
+                pause(source, now);
+                break;
+            }
+
+            source.tokens--;
+            decode(bytes, start, i - start);
+            start = i + 1;
+        }
+
+        if (start > 0) {
+            System.arraycopy(bytes, start, bytes, 0, end - start);
+            buffer.position(end - start);
+        }
+
+        if (!source.paused && buffer.position() > MAX_RECORD) {
+            disconnect(source, "record longer than " + MAX_RECORD + " bytes");
+        }
+    }
+
+    private void decode(byte[] bytes, int offset, int length) {
+        while (length > 0 && (bytes[offset + length - 1] == '\r' || bytes[offset + length - 1] == ' ')) length--;
+        if (length == 0) return;
+
+        try {
+            decoder.decodeRecord(bytes, offset, length, handler);
+        } catch (IOException e) {
+            malformed.increment();
+            logger.debug("Malformed push record: {}", e.getMessage());
+        }
+    }
+
+    private void apply(GatewayReading reading) {
+        int type = reading.getType();
+
+        if (reading.getId() < 0 || reading.getKey().length() == 0 || type == GatewayReading.NONE) {
+
+            malformed.increment();
+            return;
+        }
+
+        GatewayPoint point = pointIndex.get(gateway, (int) reading.getId(), reading.getKey().toString());
+
+        // Writable points are owned by the server, not the gateway
+        if (point == null || point.isWritable()) {
+            ignored.increment();
+            return;
+        }
+
+        records.increment();
+        pollingScheduler.pushed(point);
+        bulkPoller.push(point, reading);
+    }
+
+    private void pause(Source source, long now) {
+        source.paused = true;
+        source.resumeAt = now + (long) ((1 - source.tokens) / maxRate * 1e9);
+        source.key.interestOps(0);
+        paused.add(source);
+        throttled.increment();
+    }
+
+    private void resume(long now) {
+        for (int i = paused.size() - 1; i >= 0; i--) {
+            Source source = paused.get(i);
+            if (now - source.resumeAt < 0) continue;
+
+            paused.remove(i);
+            source.paused = false;
+
+            drain(source);
+
+            if (!source.paused && source.key.isValid()) {
+                source.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * @return how long the selector may wait before a paused source is due to resume, 0 for as long as it likes.
+     */
+    private long selectTimeout(long now) {
+        long timeout = 0;
+
+        for (Source source : paused) {
+            long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(source.resumeAt - now) + 1);
+            timeout = timeout == 0 ? millis : Math.min(timeout, millis);
+        }
+
+        return timeout;
+    }
+
+    private void disconnect(Source source, String reason) {
+        paused.remove(source);
+        source.key.cancel();
+
+        try {
+            source.channel.close();
+        } catch (IOException e) {
+            logger.debug("Closing push source {}: {}", source.name, e.getMessage());
+        }
+
+        sourceCount--;
+
+        logger.info(
+            "Push source {} disconnected ({}); its points are polled again after {} ms",
+            source.name, reason, silenceMillis);
+    }
+
+    private void closeQuietly() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Closing the push endpoint: {}", e.getMessage());
+        }
+
+        sourceCount = 0;
+    }
+
+    private static class Source {
+
+        final SocketChannel channel;
+        final String name;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        SelectionKey key;
+        boolean paused;
+        long resumeAt;
+
+        double tokens;
+        long refilledAt = System.nanoTime();
+
+        Source(SocketChannel channel, String name, double tokens) {
+            this.channel = channel;
+            this.name = name;
+            this.tokens = tokens;
+        }
+
+        /**
+         * Add the records the source has earned since the last refill, up to one second's worth.
+         */
+        void refill(long now, double rate) {
+            tokens = Math.min(rate, tokens + (now - refilledAt) * rate / 1e9);
+            refilledAt = now;
+        }
+
+    }
+
+}
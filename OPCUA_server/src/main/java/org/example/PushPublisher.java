@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local stand-in for a gateway pushing its changes to a {@link PushEndpoint}, so push ingestion can be load tested
+ * without the real gateway.
+ * <p>
+ * Opens {@code pub.connections} connections to {@code pub.host:pub.port} and pushes changes of the devices a
+ * {@link GatewaySimulator} with {@code pub.devices} devices would have (all but the smart plug, which is written, not
+ * read), spread over the connections. Each connection sends {@code pub.rate} records per second, written every
+ * {@code pub.tick} ms; a connection that can't keep up (because the endpoint throttles it) sends what it can and
+ * reports the shortfall. Every record carries the time it was sent as its {@code timestamp}, which is what the
+ * {@link LoadDriver} measures end-to-end latency from.
+ */
+public class PushPublisher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushPublisher.class);
+
+    private final List<Connection> connections = new ArrayList<>();
+
+    private final LongAdder sent = new LongAdder();
+
+    private final String host;
+    private final int port;
+    private final int deviceCount;
+    private final double rate;
+    private final long tickMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private long startedAt;
+
+    public PushPublisher(Config config) {
+        host = config.getString("pub.host", "localhost");
+        port = config.getInt("pub.port", 12690);
+        deviceCount = config.getInt("pub.devices", 100);
+        rate = config.getDouble("pub.rate", 1000);
+        tickMillis = config.getLong("pub.tick", 10);
+
+        int connectionCount = Math.max(1, config.getInt("pub.connections", 1));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(connectionCount, r -> {
+            Thread thread = new Thread(r, "push-publisher-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < connectionCount; i++) {
+            List<Integer> ids = new ArrayList<>();
+            for (int id = 1; id <= deviceCount; id++) {
+                if (id != 4 && id % connectionCount == i) ids.add(id);
+            }
+            if (!ids.isEmpty()) {
+                connections.add(new Connection(ids));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PushPublisher publisher = new PushPublisher(Config.load());
+        publisher.start();
+
+        while (true) {
+            Thread.sleep(10_000);
+            logger.info("{}", publisher);
+        }
+    }
+
+    public void start() throws IOException {
+        startedAt = System.nanoTime();
+
+        for (Connection connection : connections) {
+            connection.open();
+            scheduler.scheduleWithFixedDelay(connection::publish, 0, tickMillis, TimeUnit.MILLISECONDS);
+        }
+
+        logger.info(
+            "Pushing {} records/s from {} devices over {} connections to {}:{}",
+            rate * connections.size(), deviceCount, connections.size(), host, port);
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        long behind = 0;
+        for (Connection connection : connections) {
+            behind += connection.behind;
+        }
+
+        return String.format(
+            "connections=%d sent=%d rate=%.0f/s behind=%d",
+            connections.size(), sent.sum(), sent.sum() / Math.max(seconds, 1e-9), behind);
+    }
+
+    private class Connection {
+
+        private final int[] ids;
+        private final String[] ldevKeys;
+        private final double[] values;
+
+        private final StringBuilder text = new StringBuilder(64 * 1024);
+
+        private SocketChannel channel;
+        private long published;
+        private int next;
+
+        // Records due but not sent yet, because the endpoint reads slower than the rate
+        private volatile long behind;
+
+        Connection(List<Integer> ids) {
+            this.ids = new int[ids.size()];
+            this.ldevKeys = new String[ids.size()];
+            this.values = new double[ids.size()];
+
+            for (int i = 0; i < this.ids.length; i++) {
+                int id = ids.get(i);
+                this.ids[i] = id;
+                this.ldevKeys[i] = GatewaySimulator.ldevKey(id);
+                this.values[i] = isNumeric(ldevKeys[i]) ? 20.0 : 0.0;
+            }
+        }
+
+        void open() throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+        }
+
+        void close() {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+                logger.debug("Closing push connection: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * Write the records due since the start, at most one second's worth at a time; blocks while the endpoint
+         * doesn't read.
+         */
+        void publish() {
+            long due = (long) ((System.nanoTime() - startedAt) / 1e9 * rate) - published;
+            long batch = Math.min(due, (long) Math.max(1, rate));
+
+            if (batch <= 0) return;
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long timestamp = System.currentTimeMillis();
+
+            text.setLength(0);
+            for (long i = 0; i < batch; i++) {
+                int n = next;
+                next = (next + 1) % ids.length;
+
+                text.append("{\"id\":").append(ids[n])
+                    .append(",\"key\":\"").append(ldevKeys[n])
+                    .append("\",\"value\":");
+
+                if (isNumeric(ldevKeys[n])) {
+                    values[n] = Math.round((values[n] + random.nextGaussian()) * 100) / 100.0;
+                    text.append(values[n]);
+                } else {
+                    values[n] = 1 - values[n];
+                    text.append(values[n] != 0);
+                }
+
+                text.append(",\"timestamp\":").append(timestamp).append("}\n");
+            }
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                // Stops this connection's schedule
+                throw new UncheckedIOException("Push connection to " + host + ":" + port + " failed", e);
+            }
+
+            published += batch;
+            sent.add(batch);
+            behind = due - batch;
+        }
+
+        private boolean isNumeric(String ldevKey) {
+            return ldevKey.equals("temperature") || ldevKey.equals("humidity");
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.server.api.methods.AbstractMethodInvocationHandler;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+
+/**
+ * {@code ReadGroup(Pattern)}: the current values of every device point whose name matches {@code Pattern} (see
+ * {@link GroupIndex}), in one call, as four arrays of the same length: the names, the values, their status codes and
+ * their source timestamps.
+ * <p>
+ * Values are read like single nodes are: gateway-polled points from the store through the {@link GatewayCache}, so
+ * stale values are refreshed in the background, and writable points from their nodes. Every value is audited as a
+ * read of its node. Groups of more than {@code groups.maxSize} points are refused.
+ */
+public class ReadGroupMethod extends AbstractMethodInvocationHandler {
+
+    private static final Argument PATTERN = new Argument(
+        "Pattern", Identifiers.String, ValueRanks.Scalar, null,
+        LocalizedText.english("Device node names below ICPS/nodeDevices, * matching anything, e.g. 12/* or */smartplug")
+    );
+
+    private static final Argument NAMES = new Argument(
+        "Names", Identifiers.String, ValueRanks.OneDimension, null,
+        LocalizedText.english("The names of the matching nodes, in name order")
+    );
+
+    private static final Argument VALUES = new Argument(
+        "Values", Identifiers.BaseDataType, ValueRanks.OneDimension, null,
+        LocalizedText.english("Their values")
+    );
+
+    private static final Argument STATUS_CODES = new Argument(
+        "StatusCodes", Identifiers.StatusCode, ValueRanks.OneDimension, null,
+        LocalizedText.english("The status codes of their values")
+    );
+
+    private static final Argument SOURCE_TIMESTAMPS = new Argument(
+        "SourceTimestamps", Identifiers.UtcTime, ValueRanks.OneDimension, null,
+        LocalizedText.english("The source timestamps of their values")
+    );
+
+    private final GroupIndex groups;
+    private final GatewayCache cache;
+    private final AuditLog auditLog;
+    private final int maxSize;
+
+    private final LatencyHistogram duration;
+
+    public ReadGroupMethod(
+        UaMethodNode node, Config config, GroupIndex groups, GatewayCache cache, AuditLog auditLog, Metrics metrics) {
+
+        super(node);
+
+        this.groups = groups;
+        this.cache = cache;
+        this.auditLog = auditLog;
+
+        maxSize = config.getInt("groups.maxSize", 10_000);
+        duration = metrics.histogram("groups.read");
+    }
+
+    @Override
+    public Argument[] getInputArguments() {
+        return new Argument[]{PATTERN};
+    }
+
+    @Override
+    public Argument[] getOutputArguments() {
+        return new Argument[]{NAMES, VALUES, STATUS_CODES, SOURCE_TIMESTAMPS};
+    }
+
+    @Override
+    protected Variant[] invoke(InvocationContext context, Variant[] inputValues) throws UaException {
+        long start = System.nanoTime();
+
+        GroupIndex.Group group = groups.resolve(pattern(inputValues[0]));
+        if (group.size() > maxSize) {
+            throw new UaException(StatusCodes.Bad_TooManyOperations, group.size() + " nodes match, at most " + maxSize);
+        }
+
+        Variant[] values = new Variant[group.size()];
+        StatusCode[] statusCodes = new StatusCode[group.size()];
+        DateTime[] sourceTimes = new DateTime[group.size()];
+
+        for (int i = 0; i < group.size(); i++) {
+            GatewayPoint point = group.getPoint(i);
+
+            // Writable nodes hold their own value
+            DataValue value = point.isWritable() ? point.getNode().getValue() : cache.get(point);
+            auditLog.record(AuditLog.READ, point.getNode().getNodeId(), value);
+
+            values[i] = value.getValue();
+            statusCodes[i] = value.getStatusCode() != null ? value.getStatusCode() : StatusCode.GOOD;
+            sourceTimes[i] = value.getSourceTime() != null ? value.getSourceTime() : DateTime.MIN_VALUE;
+        }
+
+        duration.record(System.nanoTime() - start);
+
+        return new Variant[]{
+            new Variant(group.getNames()), new Variant(values), new Variant(statusCodes), new Variant(sourceTimes)
+        };
+    }
+
+    static String pattern(Variant input) throws UaException {
+        Object pattern = input.getValue();
+
+        if (!(pattern instanceof String) || ((String) pattern).isEmpty()) {
+            throw new UaException(StatusCodes.Bad_InvalidArgument, "Pattern must be a non-empty string");
+        }
+
+        return (String) pattern;
+    }
+
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Device-to-device control loops evaluated inside the server: a rule switches actuators through their
+ * {@link ActuatorWriter} as soon as the values it watches change, without a round trip through an OPC UA client.
+ * <p>
+ * Rules are listed in {@code rules} (names of letters, digits and underscores) and declared over the nodes of
+ * {@code ICPS/nodeDevices}, named by their path below it ({@code Window sensor}, {@code 12/temperature},
+ * {@code siteA/12/temperature}):
+ * <pre>
+ * rules.windowPlug.when=Window sensor == true
+ * rules.windowPlug.then=Smart plug = false
+ * rules.windowPlug.else=Smart plug = true
+ * </pre>
+ * {@code when} compares node values with constants ({@code ==}, {@code !=}, {@code <}, {@code <=}, {@code >},
+ * {@code >=}; booleans read as 1 and 0), joined by {@code &&} and, binding looser, {@code ||}. A comparison is false
+ * while its node has no good value. {@code then} (run when the condition becomes true) and the optional {@code else}
+ * (run when it becomes false again) set writable nodes to constants, several separated by {@code ;}. A node that
+ * already has the value isn't written again, unless its last write failed.
+ * <p>
+ * The rules are compiled once into a graph: every node has the comparisons that read it, every comparison the
+ * {@code &&} clauses it is part of, and every clause and rule a count of how many of its parts are true. A change
+ * only re-evaluates the comparisons on the changed node and, for those that flip, adjusts the counts above them, so
+ * its cost depends on how many rules read the node and not on how many rules there are. Nodes that no rule reads
+ * cost one map lookup.
+ * <p>
+ * Rules whose nodes don't exist yet (because discovery hasn't found them) are bound as soon as the nodes are added.
+ * Each rule's state is published as {@code ICPS/Rules/<name>/Active} and {@code ICPS/Rules/<name>/Firings}.
+ */
+public class RuleEngine implements BulkPoller.PointListener {
+
+    public interface NodeFactory {
+        UaVariableNode create(String rule, String name, NodeId dataType);
+    }
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_]+");
+
+    private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LE = 2;
+    private static final int GE = 3;
+    private static final int LT = 4;
+    private static final int GT = 5;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // By node name, both guarded by this
+    private final Map<String, Input> inputs = new HashMap<>();
+    private final Map<String, Target> targets = new HashMap<>();
+
+    // By text, so that every clause and rule with the same comparison shares it
+    private final Map<String, Condition> conditions = new HashMap<>();
+
+    // The inputs of bound points, looked up without the lock for every change
+    private final Map<GatewayPoint, Input> bound = new ConcurrentHashMap<>();
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    private final Function<GatewayPoint, ActuatorWriter> writers;
+    private final PointStore store;
+
+    private final LongAdder firings;
+    private final LongAdder actions;
+    private final LongAdder failures;
+    private final LatencyHistogram evaluation;
+
+    /**
+     * @param writers the actuator writer of a point's gateway.
+     */
+    public RuleEngine(
+        Config config, Function<GatewayPoint, ActuatorWriter> writers, PointStore store, Metrics metrics) {
+
+        this.writers = writers;
+        this.store = store;
+
+        firings = metrics.counter("rules.firings");
+        actions = metrics.counter("rules.actions");
+        failures = metrics.counter("rules.failures");
+        evaluation = metrics.histogram("rules.evaluation");
+        metrics.gauge("rules.active", this::countActive);
+
+        for (String name : config.getString("rules", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) continue;
+
+            if (!NAME.matcher(name).matches()) {
+                logger.warn("Ignoring rule '{}': names are letters, digits and underscores", name);
+                continue;
+            }
+
+            try {
+                compile(name,
+                    config.getString("rules." + name + ".when", ""),
+                    config.getString("rules." + name + ".then", ""),
+                    config.getString("rules." + name + ".else", ""));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignoring rule '{}': {}", name, e.getMessage());
+            }
+        }
+
+        if (!rules.isEmpty()) {
+            logger.info("{} rules over {} nodes, acting on {} nodes", rules.size(), inputs.size(), targets.size());
+        }
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Publish the state of every rule in nodes made by {@code nodeFactory}.
+     */
+    public synchronized void start(NodeFactory nodeFactory) {
+        for (Rule rule : rules) {
+            rule.activeNode = nodeFactory.create(rule.name, "Active", Identifiers.Boolean);
+            rule.firingsNode = nodeFactory.create(rule.name, "Firings", Identifiers.Int64);
+            rule.publish();
+        }
+    }
+
+    /**
+     * Bind the rules that use node {@code name} to its point, and evaluate them on its current value.
+     *
+     * @param name the node's path below {@code ICPS/nodeDevices}.
+     */
+    public synchronized void bind(String name, GatewayPoint point) {
+        Target target = targets.get(name);
+        if (target != null) {
+            target.point = point;
+        }
+
+        Input input = inputs.get(name);
+        if (input != null) {
+            input.point = point;
+            bound.put(point, input);
+            evaluate(input);
+        }
+    }
+
+    /**
+     * Unbind a point that was removed; the rules that read it see it as having no value.
+     */
+    public synchronized void unbind(GatewayPoint point) {
+        for (Target target : targets.values()) {
+            if (target.point == point) target.point = null;
+        }
+
+        Input input = bound.remove(point);
+        if (input != null) {
+            input.point = null;
+            evaluate(input);
+        }
+    }
+
+    /**
+     * @return {@code true} if a rule reads the value of {@code point}.
+     */
+    public boolean reads(GatewayPoint point) {
+        return bound.containsKey(point);
+    }
+
+    @Override
+    public void onUpdate(GatewayPoint point) {
+        Input input = bound.get(point);
+        if (input == null) return;
+
+        long start = System.nanoTime();
+
+        synchronized (this) {
+            evaluate(input);
+        }
+
+        evaluation.record(System.nanoTime() - start);
+    }
+
+    private void evaluate(Input input) {
+        double value = value(input.point);
+
+        for (Condition condition : input.conditions) {
+            boolean state = !Double.isNaN(value) && condition.test(value);
+            if (state == condition.state) continue;
+
+            condition.state = state;
+
+            for (Clause clause : condition.clauses) {
+                boolean wasSatisfied = clause.isSatisfied();
+                clause.trueCount += state ? 1 : -1;
+
+                if (clause.isSatisfied() != wasSatisfied) {
+                    clause.rule.satisfiedClauses += wasSatisfied ? -1 : 1;
+                    clause.rule.update();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the point's value as a number, or NaN if it has no good value (or none that compares).
+     */
+    private double value(@Nullable GatewayPoint point) {
+        if (point == null || (store.status(point) & 0xC0000000) != 0) return Double.NaN;
+
+        byte kind = store.kind(point);
+
+        if (kind == PointStore.KIND_STRING || kind == PointStore.KIND_OTHER) {
+            Object object = store.object(point);
+
+            if (object instanceof Number) return ((Number) object).doubleValue();
+            if (object instanceof Boolean) return (Boolean) object ? 1.0 : 0.0;
+            if (object instanceof String) {
+                try {
+                    return Double.parseDouble((String) object);
+                } catch (NumberFormatException e) {
+                    return Double.NaN;
+                }
+            }
+            return Double.NaN;
+        }
+
+        return PointStore.toDouble(kind, store.bits(point));
+    }
+
+    private void act(Rule rule, Action[] actions) {
+        for (Action action : actions) {
+            GatewayPoint point = action.target.point;
+
+            if (point == null || !point.isWritable()) {
+                logger.debug("Rule {}: {} is not a writable node", rule.name, action.target.name);
+                continue;
+            }
+
+            byte kind = store.kind(point);
+            long bits = PointStore.toBits(kind, action.value);
+            Object value = PointStore.valueOf(
+                kind, bits, kind == PointStore.KIND_STRING ? Double.toString(action.value) : action.value);
+
+            UaVariableNode node = point.getNode();
+            if (value == null || !isChange(node.getValue(), value)) continue;
+
+            // Like a client write: the node shows the desired value while the gateway is told
+            node.setValue(new DataValue(new Variant(value), StatusCode.GOOD, DateTime.now()));
+            this.actions.increment();
+
+            writers.apply(point).write(point, value).thenAccept(status -> {
+                if (!status.isGood()) {
+                    failures.increment();
+                    logger.warn("Rule {}: writing {}={} failed: {}", rule.name, action.target.name, value, status);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return {@code true} unless the node already has {@code value} with a good status.
+     */
+    private static boolean isChange(DataValue current, Object value) {
+        StatusCode status = current.getStatusCode();
+
+        return !value.equals(current.getValue().getValue()) || status == null || !status.isGood();
+    }
+
+    private synchronized long countActive() {
+        long active = 0;
+        for (Rule rule : rules) {
+            if (rule.active) active++;
+        }
+        return active;
+    }
+
+    private void compile(String name, String when, String then, String orElse) {
+        if (when.isBlank()) throw new IllegalArgumentException("no 'when' condition");
+        if (then.isBlank() && orElse.isBlank()) throw new IllegalArgumentException("no 'then' or 'else' actions");
+
+        Rule rule = new Rule(name, actions(then), actions(orElse));
+
+        for (String clauseText : when.split("\\|\\|")) {
+            Map<String, Condition> parts = new LinkedHashMap<>();
+
+            for (String text : clauseText.split("&&")) {
+                Condition condition = condition(text);
+                parts.put(condition.text, condition);
+            }
+
+            Clause clause = new Clause(rule, parts.size());
+            rule.clauses.add(clause);
+
+            for (Condition condition : parts.values()) {
+                condition.clauses.add(clause);
+            }
+        }
+
+        rules.add(rule);
+    }
+
+    private Condition condition(String text) {
+        text = text.trim();
+
+        for (int i = 0; i < text.length(); i++) {
+            for (int op = 0; op < OPERATORS.length; op++) {
+                if (!text.startsWith(OPERATORS[op], i)) continue;
+
+                String node = text.substring(0, i).trim();
+                double constant = constant(text.substring(i + OPERATORS[op].length()).trim());
+                if (node.isEmpty()) throw new IllegalArgumentException("no node in '" + text + "'");
+
+                String key = node + " " + OPERATORS[op] + " " + constant;
+                Condition condition = conditions.get(key);
+
+                if (condition == null) {
+                    Input input = inputs.computeIfAbsent(node, n -> new Input());
+                    condition = new Condition(key, op, constant);
+                    input.conditions.add(condition);
+                    conditions.put(key, condition);
+                }
+
+                return condition;
+            }
+        }
+
+        throw new IllegalArgumentException("no comparison in '" + text + "'");
+    }
+
+    private Action[] actions(String text) {
+        List<Action> actions = new ArrayList<>();
+
+        for (String action : text.split(";")) {
+            if (action.isBlank()) continue;
+
+            int equals = action.indexOf('=');
+            if (equals <= 0) throw new IllegalArgumentException("'" + action.trim() + "' is not '<node> = <value>'");
+
+            String node = action.substring(0, equals).trim();
+            actions.add(new Action(
+                targets.computeIfAbsent(node, Target::new),
+                constant(action.substring(equals + 1).trim())));
+        }
+
+        return actions.toArray(new Action[0]);
+    }
+
+    private static double constant(String text) {
+        if (text.equalsIgnoreCase("true")) return 1.0;
+        if (text.equalsIgnoreCase("false")) return 0.0;
+
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + text + "' is not a boolean or number");
+        }
+    }
+
+    private static class Input {
+
+        final List<Condition> conditions = new ArrayList<>();
+
+        GatewayPoint point;
+
+    }
+
+    private static class Target {
+
+        final String name;
+
+        volatile GatewayPoint point;
+
+        Target(String name) {
+            this.name = name;
+        }
+
+    }
+
+    private static class Condition {
+
+        final String text;
+        final int op;
+        final double constant;
+        final List<Clause> clauses = new ArrayList<>();
+
+        boolean state;
+
+        Condition(String text, int op, double constant) {
+            this.text = text;
+            this.op = op;
+            this.constant = constant;
+        }
+
+        boolean test(double value) {
+            switch (op) {
+                case EQ: return value == constant;
+                case NE: return value != constant;
+                case LE: return value <= constant;
+                case GE: return value >= constant;
+                case LT: return value < constant;
+                default: return value > constant;
+            }
+        }
+
+    }
+
+    private static class Clause {
+
+        final Rule rule;
+        final int size;
+
+        int trueCount;
+
+        Clause(Rule rule, int size) {
+            this.rule = rule;
+            this.size = size;
+        }
+
+        boolean isSatisfied() {
+            return trueCount == size;
+        }
+
+    }
+
+    private static class Action {
+
+        final Target target;
+        final double value;
+
+        Action(Target target, double value) {
+            this.target = target;
+            this.value = value;
+        }
+
+    }
+
+    private class Rule {
+
+        final String name;
+        final List<Clause> clauses = new ArrayList<>();
+        final Action[] then;
+        final Action[] orElse;
+
+        int satisfiedClauses;
+        boolean active;
+        long firingCount;
+
+        UaVariableNode activeNode;
+        UaVariableNode firingsNode;
+
+        Rule(String name, Action[] then, Action[] orElse) {
+            this.name = name;
+            this.then = then;
+            this.orElse = orElse;
+        }
+
+        /**
+         * Fire or release the rule if its condition changed.
+         */
+        void update() {
+            boolean satisfied = satisfiedClauses > 0;
+            if (satisfied == active) return;
+
+            active = satisfied;
+
+            if (active) {
+                firingCount++;
+                firings.increment();
+                logger.debug("Rule {} fired", name);
+                act(this, then);
+            } else {
+                act(this, orElse);
+            }
+
+            publish();
+        }
+
+        void publish() {
+            if (activeNode == null) return;
+
+            DateTime now = DateTime.now();
+            activeNode.setValue(new DataValue(new Variant(active), StatusCode.GOOD, now));
+            firingsNode.setValue(new DataValue(new Variant(firingCount), StatusCode.GOOD, now));
+        }
+
+    }
+
+}
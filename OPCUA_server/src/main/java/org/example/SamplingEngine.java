@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * Subscription-aware sampling of gateway-polled nodes, used instead of Milo's {@code SubscriptionModel} for them.
+ * <p>
+ * For every point it tracks the DataItems monitoring its node, their sampling intervals and monitoring modes, and
+ * tells the {@link PollingScheduler} of the point's gateway how often the point is needed: the fastest sampling
+ * interval of any item with sampling enabled, or not at all when there is none. Values routed by the
+ * {@link BulkPoller} are pushed straight into those items, so nothing is sampled a second time on a timer; the value
+ * is read from the {@link PointStore} once per change, and only if an item samples the point.
+ */
+public class SamplingEngine implements BulkPoller.PointListener {
+
+    private final Map<GatewayPoint, List<DataItem>> items = new ConcurrentHashMap<>();
+
+    private final Function<GatewayPoint, PollingScheduler> pollingSchedulers;
+    private final PointStore store;
+
+    private final LongAdder updates;
+    private final LongAdder notifications;
+
+    /**
+     * @param pollingSchedulers the scheduler polling a point, the one of its gateway.
+     */
+    public SamplingEngine(
+        Function<GatewayPoint, PollingScheduler> pollingSchedulers, PointStore store, Metrics metrics) {
+
+        this.pollingSchedulers = pollingSchedulers;
+        this.store = store;
+
+        updates = metrics.counter("sampling.updates");
+        notifications = metrics.counter("sampling.notifications");
+        metrics.gauge("sampling.dataItems", this::getDataItemCount);
+    }
+
+    public void onDataItemCreated(GatewayPoint point, DataItem item) {
+        items.computeIfAbsent(point, p -> new CopyOnWriteArrayList<>()).add(item);
+
+        if (item.isSamplingEnabled()) {
+            // Initial value, as the SubscriptionModel's first sample would have delivered it
+            item.setValue(store.get(point));
+        }
+
+        updateDemand(point);
+    }
+
+    public void onDataItemModified(GatewayPoint point, DataItem item) {
+        updateDemand(point);
+    }
+
+    public void onDataItemDeleted(GatewayPoint point, DataItem item) {
+        List<DataItem> pointItems = items.get(point);
+
+        if (pointItems != null) {
+            pointItems.remove(item);
+        }
+
+        updateDemand(point);
+    }
+
+    public void onMonitoringModeChanged(GatewayPoint point, DataItem item) {
+        if (item.isSamplingEnabled()) {
+            item.setValue(store.get(point));
+        }
+
+        updateDemand(point);
+    }
+
+    @Override
+    public void onUpdate(GatewayPoint point) {
+        List<DataItem> pointItems = items.get(point);
+        updates.increment();
+
+        if (pointItems != null) {
+            DataValue value = null;
+            int pushed = 0;
+
+            for (DataItem item : pointItems) {
+                if (item.isSamplingEnabled()) {
+                    if (value == null) value = store.get(point);
+
+                    item.setValue(value);
+                    pushed++;
+                }
+            }
+
+            notifications.add(pushed);
+        }
+    }
+
+    /**
+     * @return the number of DataItems monitoring gateway points, across all points.
+     */
+    public int getDataItemCount() {
+        int count = 0;
+
+        for (List<DataItem> pointItems : items.values()) {
+            count += pointItems.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return {@code true} if at least one DataItem with sampling enabled monitors {@code point}.
+     */
+    public boolean isSampled(GatewayPoint point) {
+        List<DataItem> pointItems = items.get(point);
+
+        if (pointItems != null) {
+            for (DataItem item : pointItems) {
+                if (item.isSamplingEnabled()) return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void updateDemand(GatewayPoint point) {
+        List<DataItem> pointItems = items.getOrDefault(point, List.of());
+
+        int sampling = 0;
+        double fastest = Double.MAX_VALUE;
+
+        for (DataItem item : pointItems) {
+            if (item.isSamplingEnabled()) {
+                sampling++;
+                fastest = Math.min(fastest, item.getSamplingInterval());
+            }
+        }
+
+        pollingSchedulers.apply(point).setDemand(point, sampling, sampling > 0 ? (long) Math.ceil(fastest) : 0);
+    }
+
+}
@@ -35,12 +35,16 @@ public class Server {
 
         server.startup().get();
 
+        // The namespace shuts down synchronously, so stopping the process still writes the snapshot and history
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "server-shutdown"));
+
         while(true) {
             sleep(1000); // sleep 1s
         }
     }
 
     private final OpcUaServer server;
+    private final Namespace namespace;
 
     public Server() throws Exception {
 
@@ -62,7 +66,7 @@ public class Server {
 
         server = new OpcUaServer(serverConfig);
 
-        Namespace namespace = new Namespace(server);
+        namespace = new Namespace(server);
         namespace.startup();
     }
 
@@ -95,6 +99,8 @@ public class Server {
     }
 
     public CompletableFuture<OpcUaServer> shutdown() {
+        namespace.shutdown();
+
         return server.shutdown();
     }
 
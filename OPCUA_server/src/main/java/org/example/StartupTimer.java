@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each phase of namespace startup took.
+ * <p>
+ * Synchronous phases are recorded with {@link #phase(String)} (time since the previous phase); milestones reached
+ * asynchronously, such as the arrival of initial values, with {@link #milestone(String)} (time since
+ * {@link #start()}). Each is published as a gauge, e.g. {@code startup.rootFolderMs} for the phase
+ * {@code root folder}, so the breakdown shows up among the diagnostics nodes and on the metrics endpoint.
+ */
+public class StartupTimer {
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, Long> milestones = new LinkedHashMap<>();
+
+    private final Metrics metrics;
+
+    private long start = System.nanoTime();
+    private long last = start;
+
+    public StartupTimer(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Start timing, forgetting anything recorded before.
+     */
+    public synchronized void start() {
+        phases.clear();
+        milestones.clear();
+        start = System.nanoTime();
+        last = start;
+    }
+
+    public synchronized void phase(String name) {
+        long now = System.nanoTime();
+        long nanos = now - last;
+
+        phases.put(name, nanos);
+        last = now;
+        publish(name, nanos);
+    }
+
+    /**
+     * Record {@code name} the first time it is reached.
+     */
+    public synchronized void milestone(String name) {
+        long nanos = System.nanoTime() - start;
+
+        if (milestones.putIfAbsent(name, nanos) == null) {
+            publish(name, nanos);
+        }
+    }
+
+    private void publish(String name, long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+        metrics.gauge("startup." + camelCase(name) + "Ms", () -> millis);
+    }
+
+    private static String camelCase(String name) {
+        StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (!Character.isLetterOrDigit(c)) {
+                upper = sb.length() > 0;
+            } else {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        phases.forEach((name, nanos) ->
+            sb.append(sb.length() > 0 ? ", " : "").append(name).append('=')
+                .append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms"));
+
+        milestones.forEach((name, nanos) ->
+            sb.append(sb.length() > 0 ? ", " : "").append(name).append("@+")
+                .append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms"));
+
+        return sb.toString();
+    }
+
+}
@@ -18,17 +18,22 @@ import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.DelegatingAttributeDelegate;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+/**
+ * Records every external read and write of a node's value in the {@link AuditLog}.
+ */
 public class ValueLoggingDelegate extends DelegatingAttributeDelegate {
 
-    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final AuditLog auditLog;
 
-    public ValueLoggingDelegate() {}
+    public ValueLoggingDelegate(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
 
-    public ValueLoggingDelegate(@Nullable AttributeDelegate parent) {
+    public ValueLoggingDelegate(@Nullable AttributeDelegate parent, AuditLog auditLog) {
         super(parent);
+
+        this.auditLog = auditLog;
     }
 
     @Override
@@ -37,9 +42,7 @@ public class ValueLoggingDelegate extends DelegatingAttributeDelegate {
 
         // only log external reads
         if (context.getSession().isPresent()) {
-            logger.info(
-                "getValue() nodeId={} value={}",
-                node.getNodeId(), value);
+            auditLog.record(AuditLog.READ, node.getNodeId(), value);
         }
 
         return value;
@@ -49,9 +52,7 @@ public class ValueLoggingDelegate extends DelegatingAttributeDelegate {
     public void setValue(AttributeContext context, VariableNode node, DataValue value) throws UaException {
         // only log external writes
         if (context.getSession().isPresent()) {
-            logger.info(
-                "setValue() nodeId={} value={}",
-                node.getNodeId(), value);
+            auditLog.record(AuditLog.WRITE, node.getNodeId(), value);
         }
 
         super.setValue(context, node, value);
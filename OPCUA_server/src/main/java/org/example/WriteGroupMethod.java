@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.server.api.methods.AbstractMethodInvocationHandler;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * {@code WriteGroup(Pattern, Values)}: write every writable device point whose name matches {@code Pattern} (see
+ * {@link GroupIndex}) in one call, with one value for all of them or one value per point in name order. Returns the
+ * names and, for each, the status of its write.
+ * <p>
+ * Each point is written as a client write to its node would be: the node takes the value, which is audited, and a
+ * changed value (or the same one again after a failed write) is queued on the {@link ActuatorWriter} of the point's
+ * gateway, which sends commands for different devices concurrently. The call waits for the gateway's answers up to
+ * {@code groups.writeTimeout} ms, so a scene change across hundreds of devices takes one round trip; writes still
+ * pending then are reported as {@code Bad_Timeout}, but not cancelled. Points that aren't writable, and values of the
+ * wrong type, fail on their own without stopping the others.
+ */
+public class WriteGroupMethod extends AbstractMethodInvocationHandler {
+
+    private static final Argument PATTERN = new Argument(
+        "Pattern", Identifiers.String, ValueRanks.Scalar, null,
+        LocalizedText.english("Device node names below ICPS/nodeDevices, * matching anything, e.g. */smartplug")
+    );
+
+    private static final Argument VALUES = new Argument(
+        "Values", Identifiers.BaseDataType, ValueRanks.OneDimension, null,
+        LocalizedText.english("One value for all matching nodes, or one per node in name order")
+    );
+
+    private static final Argument NAMES = new Argument(
+        "Names", Identifiers.String, ValueRanks.OneDimension, null,
+        LocalizedText.english("The names of the matching nodes, in name order")
+    );
+
+    private static final Argument RESULTS = new Argument(
+        "Results", Identifiers.StatusCode, ValueRanks.OneDimension, null,
+        LocalizedText.english("The result of writing each of them")
+    );
+
+    private static final StatusCode NOT_WRITABLE = new StatusCode(StatusCodes.Bad_NotWritable);
+    private static final StatusCode TYPE_MISMATCH = new StatusCode(StatusCodes.Bad_TypeMismatch);
+    private static final StatusCode TIMEOUT = new StatusCode(StatusCodes.Bad_Timeout);
+
+    private final GroupIndex groups;
+    private final PointStore store;
+    private final Function<GatewayPoint, ActuatorWriter> writers;
+    private final AuditLog auditLog;
+    private final int maxSize;
+    private final long timeoutMillis;
+
+    private final LatencyHistogram duration;
+
+    /**
+     * @param writers the writer of a point, the one of its gateway.
+     */
+    public WriteGroupMethod(
+        UaMethodNode node, Config config, GroupIndex groups, PointStore store,
+        Function<GatewayPoint, ActuatorWriter> writers, AuditLog auditLog, Metrics metrics) {
+
+        super(node);
+
+        this.groups = groups;
+        this.store = store;
+        this.writers = writers;
+        this.auditLog = auditLog;
+
+        maxSize = config.getInt("groups.maxSize", 10_000);
+        timeoutMillis = config.getLong("groups.writeTimeout", 5000);
+        duration = metrics.histogram("groups.write");
+    }
+
+    @Override
+    public Argument[] getInputArguments() {
+        return new Argument[]{PATTERN, VALUES};
+    }
+
+    @Override
+    public Argument[] getOutputArguments() {
+        return new Argument[]{NAMES, RESULTS};
+    }
+
+    @Override
+    protected Variant[] invoke(InvocationContext context, Variant[] inputValues) throws UaException {
+        long start = System.nanoTime();
+
+        GroupIndex.Group group = groups.resolve(ReadGroupMethod.pattern(inputValues[0]));
+        Object[] values = values(inputValues[1], group.size());
+
+        if (group.size() > maxSize) {
+            throw new UaException(StatusCodes.Bad_TooManyOperations, group.size() + " nodes match, at most " + maxSize);
+        }
+
+        StatusCode[] results = new StatusCode[group.size()];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[group.size()];
+
+        for (int i = 0; i < group.size(); i++) {
+            GatewayPoint point = group.getPoint(i);
+
+            if (!point.isWritable()) {
+                results[i] = NOT_WRITABLE;
+                continue;
+            }
+
+            Object value = convert(store.kind(point), values.length == 1 ? values[0] : values[i]);
+            if (value == null) {
+                results[i] = TYPE_MISMATCH;
+                continue;
+            }
+
+            UaVariableNode node = point.getNode();
+            DataValue previous = node.getValue();
+            StatusCode previousStatus = previous.getStatusCode();
+
+            DataValue written = new DataValue(new Variant(value), StatusCode.GOOD, DateTime.now());
+            auditLog.record(AuditLog.WRITE, node.getNodeId(), written);
+            node.setValue(written);
+
+            // Like a client write, an unchanged value isn't sent again unless its last write failed
+            if (value.equals(previous.getValue().getValue()) && previousStatus != null && previousStatus.isGood()) {
+                results[i] = StatusCode.GOOD;
+            } else {
+                futures[i] = writers.apply(point).write(point, value);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        for (int i = 0; i < futures.length; i++) {
+            if (futures[i] != null) {
+                results[i] = await(futures[i], deadline);
+            }
+        }
+
+        duration.record(System.nanoTime() - start);
+
+        return new Variant[]{new Variant(group.getNames()), new Variant(results)};
+    }
+
+    /**
+     * @return the values to write, unwrapped from the Variants of the array.
+     */
+    private static Object[] values(Variant input, int groupSize) throws UaException {
+        Object[] elements = input.getValue() instanceof Object[] ? (Object[]) input.getValue() : new Object[0];
+        Object[] values = new Object[elements.length];
+
+        for (int i = 0; i < elements.length; i++) {
+            values[i] = elements[i] instanceof Variant ? ((Variant) elements[i]).getValue() : elements[i];
+        }
+
+        if (values.length != 1 && values.length != groupSize) {
+            throw new UaException(
+                StatusCodes.Bad_InvalidArgument,
+                "Expected 1 or " + groupSize + " values, got " + values.length);
+        }
+
+        return values;
+    }
+
+    /**
+     * @return {@code value} as the node of a point of {@code kind} holds it, or {@code null} if it doesn't fit.
+     */
+    @Nullable
+    private static Object convert(byte kind, @Nullable Object value) {
+        switch (kind) {
+            case PointStore.KIND_BOOLEAN:
+                return value instanceof Boolean ? value : null;
+            case PointStore.KIND_INT32:
+            case PointStore.KIND_INT64:
+            case PointStore.KIND_FLOAT:
+            case PointStore.KIND_DOUBLE:
+                if (!(value instanceof Number)) return null;
+                return PointStore.valueOf(kind, PointStore.toBits(kind, ((Number) value).doubleValue()), null);
+            case PointStore.KIND_STRING:
+                return value instanceof String ? value : null;
+            default:
+                return value;
+        }
+    }
+
+    private static StatusCode await(CompletableFuture<?> future, long deadline) {
+        try {
+            return (StatusCode) future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return TIMEOUT;
+        } catch (ExecutionException e) {
+            return new StatusCode(StatusCodes.Bad_UnexpectedError);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TIMEOUT;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AggregateEngineTest {
+
+    private final TestServer server = new TestServer();
+    private final Properties properties = new Properties();
+
+    // The nodes of the aggregates added, by name
+    private final Map<String, UaVariableNode> nodes = new LinkedHashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void aggregatesChangesOverTheWindow() {
+        properties.setProperty("aggregates.temperature", "min:60000, max:60000, count:60000, avg:3600000");
+        AggregateEngine aggregateEngine = new AggregateEngine(
+            new Config(properties), server.getPointStore(), server.getMetrics());
+
+        GatewayPoint point = add(aggregateEngine, 12, "temperature");
+        assertEquals(Set.of("min.1m", "max.1m", "count.1m", "avg.1h"), nodes.keySet());
+
+        for (double value : new double[]{21.5, 19.0, 23.25}) {
+            server.getPointStore().write(point, value, 0);
+            aggregateEngine.onUpdate(point);
+        }
+
+        assertEquals(19.0, value(aggregateEngine, "min.1m"));
+        assertEquals(23.25, value(aggregateEngine, "max.1m"));
+        assertEquals(3L, value(aggregateEngine, "count.1m"));
+
+        double average = (Double) value(aggregateEngine, "avg.1h");
+        assertTrue(average >= 19.0 && average <= 23.25, "average " + average);
+    }
+
+    @Test
+    void skipsValuesWithoutGoodStatus() {
+        properties.setProperty("aggregates.12/temperature", "count:60000");
+        AggregateEngine aggregateEngine = new AggregateEngine(
+            new Config(properties), server.getPointStore(), server.getMetrics());
+
+        GatewayPoint point = add(aggregateEngine, 12, "temperature");
+
+        server.getPointStore().write(point, 21.0, 0);
+        aggregateEngine.onUpdate(point);
+        server.getPointStore().write(point, 22.0, (int) StatusCodes.Bad_NoCommunication);
+        aggregateEngine.onUpdate(point);
+
+        assertEquals(1L, value(aggregateEngine, "count.1m"));
+    }
+
+    @Test
+    void ignoresMalformedAggregates() {
+        properties.setProperty("aggregates.temperature", "median:60000, max, max:soon, max:-5, max:1500");
+        AggregateEngine aggregateEngine = new AggregateEngine(
+            new Config(properties), server.getPointStore(), server.getMetrics());
+
+        GatewayPoint point = add(aggregateEngine, 12, "temperature");
+        GatewayPoint other = add(aggregateEngine, 13, "humidity");
+
+        assertEquals(Set.of("max.1500ms"), nodes.keySet());
+        assertTrue(aggregateEngine.hasAggregates(point));
+        assertFalse(aggregateEngine.hasAggregates(other));
+
+        assertEquals(1, aggregateEngine.remove(point).size());
+        assertFalse(aggregateEngine.hasAggregates(point));
+    }
+
+    @Test
+    void aggregatesWithoutSubscriptions() throws Exception {
+        properties.setProperty("aggregates.12/temperature", "count:60000");
+        Config config = server.startGateway(properties);
+        AggregateEngine aggregateEngine = new AggregateEngine(config, server.getPointStore(), server.getMetrics());
+        server.getGateway().getBulkPoller().addListener(aggregateEngine);
+
+        GatewayPoint point = add(aggregateEngine, 12, "temperature");
+
+        assertTrue(server.awaitPoll(point, aggregateEngine.hasAggregates(point)), "temperature was never polled");
+        assertTrue((Long) value(aggregateEngine, "count.1m") > 0, "no changes aggregated without a subscription");
+    }
+
+    private GatewayPoint add(AggregateEngine aggregateEngine, int deviceId, String ldevKey) {
+        String name = deviceId + "/" + ldevKey;
+        GatewayPoint point = server.newPoint(name, deviceId, ldevKey, Identifiers.Double, null);
+
+        aggregateEngine.add(point, (aggregate, dataType) -> {
+            UaVariableNode node = server.newDeviceNode(name + "." + aggregate, dataType);
+            nodes.put(aggregate, node);
+            return node;
+        });
+
+        return point;
+    }
+
+    private Object value(AggregateEngine aggregateEngine, String name) {
+        DataValue value = aggregateEngine.get(nodes.get(name).getNodeId());
+        assertTrue(value.getStatusCode().isGood(), name + ": " + value);
+        return value.getValue().getValue();
+    }
+
+}
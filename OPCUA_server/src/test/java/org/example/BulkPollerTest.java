@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkPollerTest {
+
+    private final TestServer server = new TestServer();
+
+    private PointStore store;
+    private Gateway gateway;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("sim.devices", "4");
+
+        server.startGateway(properties);
+        store = server.getPointStore();
+        gateway = server.getGateway();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void writablePointShowsPolledValue() {
+        GatewayPoint point = server.newPoint("Smart plug", 4, "smartplug", Identifiers.Boolean, "onoff");
+        UaVariableNode node = point.getNode();
+
+        gateway.getBulkPoller().poll(List.of(point)).join();
+
+        DataValue value = node.getValue();
+        assertTrue(value.getStatusCode().isGood(), value.toString());
+        assertInstanceOf(Boolean.class, value.getValue().getValue());
+        assertEquals(store.get(point).getValue(), value.getValue());
+    }
+
+    @Test
+    void collectionPollsAllPointsInOneRequest() {
+        GatewayPoint alarm = server.newPoint("Window sensor", 1, "alarm", Identifiers.Boolean, null);
+        GatewayPoint plug = server.newPoint("Smart plug", 4, "smartplug", Identifiers.Boolean, null);
+        long requests = server.getSimulator().getRequestCount();
+
+        gateway.getBulkPoller().poll(List.of(alarm, plug)).join();
+
+        assertEquals(1, server.getSimulator().getRequestCount() - requests);
+        assertTrue(store.confirmedAt(alarm) != 0, "alarm was not routed from /dev");
+        assertTrue(store.confirmedAt(plug) != 0, "smart plug was not routed from /dev");
+    }
+
+    @Test
+    void failedCollectionFailsTheCycle() {
+        GatewayPoint alarm = server.newPoint("Window sensor", 1, "alarm", Identifiers.Boolean, null);
+        GatewayPoint plug = server.newPoint("Smart plug", 4, "smartplug", Identifiers.Boolean, null);
+        server.getSimulator().close();
+
+        Map<GatewayPoint, CompletableFuture<Void>> futures = gateway.getBulkPoller().pollEach(List.of(alarm, plug));
+
+        for (CompletableFuture<Void> future : futures.values()) {
+            assertThrows(Exception.class, future::join);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.eventbus.Subscribe;
+import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.BaseEventNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventEngineTest {
+
+    private final TestServer server = new TestServer();
+
+    // The messages of the events posted on the server's event bus
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    private EventEngine eventEngine;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("sim.devices", "4");
+        // Count the event subscribers as one instead of checking the server's subscriptions
+        properties.setProperty("events.subscriberCheck", "0");
+        properties.setProperty("events.offlineAfter", "2");
+
+        Config config = server.startGateway(properties);
+        server.getServer().getEventFactory().startup();
+        server.getServer().getEventBus().register(this);
+
+        eventEngine = new EventEngine(config, server.getServer(), server.getPointStore(), server.getMetrics());
+        eventEngine.start((name, supertype) -> new NodeId(2, "ICPS/Types/" + name));
+
+        server.getGateway().getBulkPoller().addListener(eventEngine);
+        server.getGateway().getPollingScheduler().addListener(eventEngine);
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventEngine.stop();
+        server.getServer().getEventFactory().shutdown();
+        server.close();
+    }
+
+    @Subscribe
+    public void onEvent(BaseEventNode event) {
+        events.add(event.getMessage().getText());
+    }
+
+    @Test
+    void raisesAlarmWithoutSubscriptions() throws Exception {
+        GatewayPoint alarm = server.newPoint("Window sensor", 1, "alarm", Identifiers.Boolean, null);
+
+        // Nothing monitors the node, only its events get it polled
+        assertTrue(server.awaitPoll(alarm, eventEngine.raisesEvents(alarm)), "alarm was never polled");
+        assertEquals(0, counter("events.raised"), "raised before the sensor tripped");
+
+        server.getSimulator().setValue(1, true);
+
+        assertEquals("Window sensor tripped", events.poll(TestServer.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, counter("events.raised"));
+        assertEquals(1, counter("events.posted"));
+    }
+
+    @Test
+    void raisesOfflineEventWhenTheGatewayStopsAnswering() throws Exception {
+        GatewayPoint alarm = server.newPoint("Window sensor", 1, "alarm", Identifiers.Boolean, null);
+        assertTrue(server.awaitPoll(alarm, true), "alarm was never polled");
+
+        server.getSimulator().close();
+
+        String offline = events.poll(TestServer.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertTrue(offline != null && offline.startsWith("Device " + alarm.getDeviceKey() + " offline"), offline);
+        assertEquals(1, counter("events.posted"));
+    }
+
+    private long counter(String name) {
+        return server.getMetrics().getCounters().get(name).sum();
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GatewayJsonDecoderTest {
+
+    private final GatewayJsonDecoder decoder = new GatewayJsonDecoder();
+
+    @Test
+    void decodesNumbers() throws IOException {
+        String[] numbers = {"0", "-7", "21.5", "-0.125", "1e3", "2.5E-2", "1E+2", "123456789012345678901", "0.1"};
+        double[] expected = {0, -7, 21.5, -0.125, 1000, 0.025, 100, 1.2345678901234568e20, 0.1};
+
+        for (int i = 0; i < numbers.length; i++) {
+            List<GatewayReading> readings = decode("{\"value\": " + numbers[i] + "}", 1);
+
+            assertEquals(GatewayReading.NUMBER, readings.get(0).getType(), numbers[i]);
+            assertEquals(expected[i], readings.get(0).getNumber(), Math.ulp(expected[i]), numbers[i]);
+        }
+    }
+
+    @Test
+    void decodesMappedFieldsAndSkipsTheRest() throws IOException {
+        String json = "[{\"id\": 12, \"key\": \"temperature\", \"unit\": {\"name\": \"\\\"C\\\"\", \"list\": [1, [2]]},"
+            + " \"value\": 21.5, \"ts\": 1600000000}, {\"value\": true, \"timestamp\": 1600000000123, \"x\": null}]";
+
+        List<GatewayReading> readings = decode(json, 10);
+
+        assertEquals(2, readings.size());
+        assertEquals(12, readings.get(0).getId());
+        assertEquals("temperature", readings.get(0).getKey().toString());
+        assertEquals(21.5, readings.get(0).getNumber());
+        // Epoch seconds are taken as milliseconds
+        assertEquals(1_600_000_000_000L, readings.get(0).getTimestamp());
+        assertEquals(true, readings.get(1).getBoolean());
+        assertEquals(1_600_000_000_123L, readings.get(1).getTimestamp());
+    }
+
+    @Test
+    void decodesEscapesAndUtf8() throws IOException {
+        String json = "{\"value\": \"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u20AC \u00e9\u20ac \uD83D\uDE00\"}";
+
+        List<GatewayReading> readings = decode(json, 1);
+
+        assertEquals(GatewayReading.STRING, readings.get(0).getType());
+        assertEquals("a\"b\\c/d\n\t\u00e9\u20ac \u00e9\u20ac \uD83D\uDE00", readings.get(0).getText().toString());
+    }
+
+    @Test
+    void stopsAfterMaxReadings() throws IOException {
+        List<GatewayReading> readings = decode("[{\"value\": 1}, {\"value\": 2}, {\"value\": 3}]", 2);
+
+        assertEquals(2, readings.size());
+        assertEquals(2.0, readings.get(1).getNumber());
+    }
+
+    @Test
+    void decodesRecordsInPlace() throws IOException {
+        byte[] bytes = "xx{\"key\": \"alarm\", \"value\": false}yy".getBytes(StandardCharsets.UTF_8);
+        List<GatewayReading> readings = new ArrayList<>();
+
+        decoder.decodeRecord(bytes, 2, bytes.length - 4, reading -> readings.add(copy(reading)));
+
+        assertEquals("alarm", readings.get(0).getKey().toString());
+        assertEquals(GatewayReading.BOOLEAN, readings.get(0).getType());
+        assertEquals(false, readings.get(0).getBoolean());
+
+        // The record must be complete within its bounds
+        assertThrows(IOException.class, () -> decoder.decodeRecord(bytes, 2, 10, reading -> { }));
+    }
+
+    @Test
+    void rejectsMalformedResponses() {
+        String[] responses = {
+            "", "42", "[{\"value\" 1}]", "[{\"value\": tru}]", "[{\"value\": 1}", "{\"value\": \"\\uZZ\"}"
+        };
+
+        for (String json : responses) {
+            assertThrows(IOException.class, () -> decode(json, 10), json);
+        }
+    }
+
+    /**
+     * Decode {@code json} from a stream returning one byte per read, so that every value straddles a refill.
+     */
+    private List<GatewayReading> decode(String json, int maxReadings) throws IOException {
+        InputStream bytes = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        InputStream trickle = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return bytes.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return bytes.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        List<GatewayReading> readings = new ArrayList<>();
+        decoder.decode(trickle, maxReadings, reading -> readings.add(copy(reading)));
+        return readings;
+    }
+
+    // The decoder reuses its reading
+    private static GatewayReading copy(GatewayReading reading) {
+        GatewayReading copy = new GatewayReading();
+        copy.key.append(reading.key);
+        copy.text.append(reading.text);
+        copy.type = reading.type;
+        copy.booleanValue = reading.booleanValue;
+        copy.numberValue = reading.numberValue;
+        copy.id = reading.id;
+        copy.timestamp = reading.timestamp;
+        return copy;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.List;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class GroupIndexTest {
+
+    private final TestServer server = new TestServer();
+    private final GroupIndex groupIndex = new GroupIndex();
+
+    @BeforeEach
+    void setUp() {
+        for (String name : new String[]{
+            "12/temperature", "12/humidity", "120/temperature", "4/smartplug", "siteA/7/smartplug", "Smart plug",
+            "a.b", "axb"}) {
+
+            add(name);
+        }
+    }
+
+    @Test
+    void resolvesNamesDirectly() {
+        assertEquals(List.of("12/temperature"), names("12/temperature"));
+        assertEquals(List.of(), names("13/temperature"));
+
+        GatewayPoint dewpoint = add("12/dewpoint");
+        assertSame(dewpoint, groupIndex.resolve("12/dewpoint").getPoint(0));
+    }
+
+    @Test
+    void resolvesPrefixesAsRanges() {
+        assertEquals(List.of("12/humidity", "12/temperature"), names("12/*"));
+        assertEquals(List.of("12/humidity", "12/temperature", "120/temperature"), names("12*"));
+        assertEquals(8, groupIndex.resolve("*").size());
+        assertEquals(List.of(), names("9/*"));
+    }
+
+    @Test
+    void matchesOtherPatternsAcrossSlashes() {
+        assertEquals(List.of("4/smartplug", "siteA/7/smartplug"), names("*/smartplug"));
+        assertEquals(List.of("12/temperature", "120/temperature"), names("12*temperature"));
+        assertEquals(List.of("Smart plug"), names("S*a*t*plug"));
+        assertEquals(List.of("siteA/7/smartplug"), names("*A/*/*"));
+    }
+
+    @Test
+    void quotesRegexCharacters() {
+        assertEquals(List.of("a.b"), names("a.b"));
+        assertEquals(List.of("a.b"), names("*.b"));
+        assertEquals(List.of(), names("*[ab]"));
+    }
+
+    @Test
+    void dropsCachedGroupsWhenPointsChange() {
+        GroupIndex.Group plugs = groupIndex.resolve("*/smartplug");
+        assertSame(plugs, groupIndex.resolve("*/smartplug"));
+
+        GatewayPoint added = add("5/smartplug");
+        GroupIndex.Group withAdded = groupIndex.resolve("*/smartplug");
+
+        assertNotSame(plugs, withAdded);
+        assertEquals(List.of("4/smartplug", "5/smartplug", "siteA/7/smartplug"), List.of(withAdded.getNames()));
+
+        groupIndex.remove(added);
+
+        assertEquals(List.of("4/smartplug", "siteA/7/smartplug"), names("*/smartplug"));
+        assertEquals(8, groupIndex.size());
+    }
+
+    private GatewayPoint add(String name) {
+        GatewayPoint point = server.newPoint(name, 1, "temperature", Identifiers.Double, null);
+        groupIndex.add(name, point);
+        return point;
+    }
+
+    private List<String> names(String pattern) {
+        return List.of(groupIndex.resolve(pattern).getNames());
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadProcessedDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryReaderTest {
+
+    private static final NodeId NODE = new NodeId(2, "ICPS/nodeDevices/12/temperature");
+    private static final long START = 1_600_000_000_000L;
+
+    private final TestServer server = new TestServer();
+    private final SerializationContext serializationContext = server.getServer().getSerializationContext();
+
+    private HistoryStore historyStore;
+    private HistoryReader historyReader;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("history.enabled", "true");
+        properties.setProperty("history.dir", Files.createTempDirectory("history").toString());
+        properties.setProperty("history.segmentSize", "128");
+        properties.setProperty("history.retention", "100000");
+        properties.setProperty("history.maxValuesPerRead", "150");
+
+        Config config = new Config(properties);
+        historyStore = new HistoryStore(config, server.getPointStore(), server.getMetrics());
+        historyReader = new HistoryReader(config, historyStore, serializationContext, server.getMetrics());
+
+        // One value a second, 0 to 499, and three more at the time of the last one
+        for (int i = 0; i < 500; i++) {
+            append(i, i);
+        }
+        for (int i = 500; i < 503; i++) {
+            append(499, i);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        historyStore.close();
+    }
+
+    @Test
+    void rawReadPagesThroughContinuationPoints() {
+        ReadRawModifiedDetails details = new ReadRawModifiedDetails(false, time(0), time(1000), uint(100), false);
+
+        List<List<DataValue>> pages = readAll(details, 0);
+
+        // 503 values, 100 a page; the last page resumes among the values sharing one time
+        assertEquals(6, pages.size());
+        assertEquals(100, pages.get(0).size());
+        assertEquals(3, pages.get(5).size());
+
+        List<DataValue> values = flatten(pages);
+        assertEquals(503, values.size());
+        for (int i = 0; i < 503; i++) {
+            assertEquals((double) i, values.get(i).getValue().getValue());
+        }
+        assertEquals(time(0), values.get(0).getSourceTime());
+    }
+
+    @Test
+    void rawReadIsCappedByMaxValuesPerRead() {
+        ReadRawModifiedDetails details = new ReadRawModifiedDetails(false, time(0), time(1000), uint(0), false);
+
+        List<List<DataValue>> pages = readAll(details, 0);
+
+        assertEquals(150, pages.get(0).size());
+        assertEquals(503, flatten(pages).size());
+    }
+
+    @Test
+    void rawReadBackwardsExcludesTheEndTime() {
+        ReadRawModifiedDetails details = new ReadRawModifiedDetails(false, time(200), time(100), uint(50), false);
+
+        List<DataValue> values = flatten(readAll(details, 0));
+
+        assertEquals(100, values.size());
+        assertEquals(200.0, values.get(0).getValue().getValue());
+        assertEquals(101.0, values.get(99).getValue().getValue());
+    }
+
+    @Test
+    void processedReadComputesEveryInterval() {
+        NodeId[] aggregates = {Identifiers.AggregateFunction_Count, Identifiers.AggregateFunction_Average};
+        ReadProcessedDetails details = new ReadProcessedDetails(time(0), time(100), 10_000.0, aggregates, null);
+
+        List<DataValue> counts = flatten(readAll(details, 0));
+        List<DataValue> averages = flatten(readAll(details, 1));
+
+        assertEquals(10, counts.size());
+        assertEquals(10, averages.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(10L, ((Number) counts.get(i).getValue().getValue()).longValue());
+            assertEquals(i * 10 + 4.5, averages.get(i).getValue().getValue());
+            assertEquals(time(i * 10), averages.get(i).getSourceTime());
+        }
+    }
+
+    @Test
+    void processedReadPagesThroughContinuationPoints() {
+        NodeId[] aggregates = {Identifiers.AggregateFunction_Maximum};
+        ReadProcessedDetails details = new ReadProcessedDetails(time(0), time(600), 1000.0, aggregates, null);
+
+        List<List<DataValue>> pages = readAll(details, 0);
+        List<DataValue> maxima = flatten(pages);
+
+        assertEquals(4, pages.size());
+        assertEquals(600, maxima.size());
+        assertEquals(498.0, maxima.get(498).getValue().getValue());
+        assertEquals(502.0, maxima.get(499).getValue().getValue());
+        assertEquals(StatusCodes.Bad_NoData, maxima.get(500).getStatusCode().getValue());
+    }
+
+    @Test
+    void rejectsForeignContinuationPoints() {
+        ReadRawModifiedDetails details = new ReadRawModifiedDetails(false, time(0), time(1000), uint(100), false);
+        HistoryReadValueId valueId = new HistoryReadValueId(NODE, null, null, ByteString.of(new byte[]{1, 2, 3}));
+
+        HistoryReadResult result = historyReader.read(details, TimestampsToReturn.Source, valueId, 0);
+
+        assertEquals(StatusCodes.Bad_ContinuationPointInvalid, result.getStatusCode().getValue());
+    }
+
+    @Test
+    void unknownNodeHasNoData() {
+        ReadRawModifiedDetails details = new ReadRawModifiedDetails(false, time(0), time(1000), uint(100), false);
+        HistoryReadValueId valueId = new HistoryReadValueId(new NodeId(2, "none"), null, null, ByteString.NULL_VALUE);
+
+        HistoryReadResult result = historyReader.read(details, TimestampsToReturn.Source, valueId, 0);
+
+        assertEquals(StatusCodes.Good_NoData, result.getStatusCode().getValue());
+    }
+
+    /**
+     * Read {@code details} and every continuation, as a client would.
+     */
+    private List<List<DataValue>> readAll(HistoryReadDetails details, int index) {
+        List<List<DataValue>> pages = new ArrayList<>();
+        ByteString continuationPoint = ByteString.NULL_VALUE;
+
+        do {
+            HistoryReadValueId valueId = new HistoryReadValueId(NODE, null, null, continuationPoint);
+            HistoryReadResult result = historyReader.read(details, TimestampsToReturn.Source, valueId, index);
+
+            assertTrue(result.getStatusCode().isGood(), result.getStatusCode().toString());
+
+            HistoryData data = (HistoryData) result.getHistoryData().decode(serializationContext);
+            pages.add(List.of(data.getDataValues()));
+
+            continuationPoint = result.getContinuationPoint();
+        } while (continuationPoint != null && continuationPoint.isNotNull());
+
+        return pages;
+    }
+
+    private static List<DataValue> flatten(List<List<DataValue>> pages) {
+        List<DataValue> values = new ArrayList<>();
+        pages.forEach(values::addAll);
+        return values;
+    }
+
+    private void append(int second, double value) {
+        historyStore.append(NODE, new DataValue(new Variant(value), StatusCode.GOOD, time(second), null));
+    }
+
+    private static DateTime time(int second) {
+        return GatewayReading.toDateTime(START + second * 1000L);
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HistorySegmentTest {
+
+    private static final int COUNT = 1000;
+
+    private final long[] times = new long[COUNT];
+    private final long[] values = new long[COUNT];
+    private final int[] statuses = new int[COUNT];
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("segments");
+
+        // Repeated values, repeated times, jumps in both directions of the value bits and a few status changes
+        long time = 1_600_000_000_000L;
+        for (int i = 0; i < COUNT; i++) {
+            time += i % 7 == 0 ? 0 : i % 5 * 250;
+            times[i] = time;
+            values[i] = i % 3 == 0 ? Double.doubleToRawLongBits(i * 0.1) : values[Math.max(0, i - 1)];
+            statuses[i] = i % 100 < 3 ? (int) 0x80320000L : 0;
+        }
+    }
+
+    @Test
+    void roundTripsEverySample() throws IOException {
+        HistorySegment written = write();
+        HistorySegment opened = HistorySegment.open(written.getFile());
+
+        assertEquals(COUNT, opened.getCount());
+        assertEquals(HistoryStore.TYPE_DOUBLE, opened.getValueType());
+        assertEquals(times[0], opened.getFirstTime());
+        assertEquals(times[COUNT - 1], opened.getLastTime());
+
+        HistoryStore.Samples samples = read(opened, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertEquals(COUNT, samples.size);
+        assertArrayEquals(times, Arrays.copyOf(samples.times, COUNT));
+        assertArrayEquals(values, Arrays.copyOf(samples.values, COUNT));
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(statuses[i], samples.statuses[i], "status of sample " + i);
+        }
+    }
+
+    @Test
+    void readsRangesAcrossCheckpoints() throws IOException {
+        HistorySegment segment = write();
+
+        // Ranges starting before, on and after checkpoints, and one between two samples
+        int[][] ranges = {{0, 5}, {127, 129}, {128, 128}, {300, 700}, {HistorySegment.CHECKPOINT_INTERVAL * 7, 999}};
+
+        for (int[] range : ranges) {
+            long from = times[range[0]];
+            long to = times[range[1]];
+
+            HistoryStore.Samples samples = read(segment, from, to);
+
+            int first = range[0];
+            while (first > 0 && times[first - 1] == from) first--;
+            int last = range[1];
+            while (last < COUNT - 1 && times[last + 1] == to) last++;
+
+            assertEquals(last - first + 1, samples.size, "samples in " + from + ".." + to);
+            assertEquals(from, samples.times[0]);
+            assertEquals(values[first], samples.values[0]);
+            assertEquals(to, samples.times[samples.size - 1]);
+        }
+
+        assertEquals(0, read(segment, times[COUNT - 1] + 1, Long.MAX_VALUE).size);
+        assertEquals(0, read(segment, Long.MIN_VALUE, times[0] - 1).size);
+    }
+
+    @Test
+    void segmentsWithTheSameFirstTimeGetTheirOwnFiles() throws IOException {
+        HistorySegment first = write();
+        HistorySegment second = write();
+
+        assertNotEquals(first.getFile(), second.getFile());
+        assertEquals(COUNT, read(first, Long.MIN_VALUE, Long.MAX_VALUE).size);
+        assertEquals(COUNT, read(second, Long.MIN_VALUE, Long.MAX_VALUE).size);
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = Files.write(directory.resolve("1" + HistorySegment.SUFFIX), new byte[64]);
+
+        assertThrows(IOException.class, () -> HistorySegment.open(file));
+    }
+
+    private HistorySegment write() throws IOException {
+        return HistorySegment.write(directory, HistoryStore.TYPE_DOUBLE, times, values, statuses, COUNT);
+    }
+
+    private static HistoryStore.Samples read(HistorySegment segment, long from, long to) throws IOException {
+        HistoryStore.Samples samples = new HistoryStore.Samples();
+        segment.read(segment.load(), from, to, samples);
+        return samples;
+    }
+
+}
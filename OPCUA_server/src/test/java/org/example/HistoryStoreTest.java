@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryStoreTest {
+
+    private static final NodeId NODE = new NodeId(2, "ICPS/nodeDevices/12/temperature");
+    private static final long START = 1_600_000_000_000L;
+
+    private final TestServer server = new TestServer();
+
+    private Properties properties;
+    private final List<HistoryStore> stores = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        properties = new Properties();
+        properties.setProperty("history.enabled", "true");
+        properties.setProperty("history.dir", Files.createTempDirectory("history").toString());
+        properties.setProperty("history.segmentSize", "128");
+        properties.setProperty("history.retention", "100000");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(HistoryStore::close);
+        server.close();
+    }
+
+    @Test
+    void recordsWithoutSubscriptions() throws Exception {
+        Config config = server.startGateway(properties);
+        HistoryStore historyStore = newStore(config);
+        server.getGateway().getBulkPoller().addListener(historyStore);
+
+        GatewayPoint point = server.newPoint("12/temperature", 12, "temperature", Identifiers.Double, null);
+
+        assertTrue(server.awaitPoll(point, historyStore.isEnabled()), "temperature was never polled");
+        assertTrue(historyStore.hasHistory(point.getNode().getNodeId()), "no history without a subscription");
+    }
+
+    @Test
+    void scansWrittenSegmentsAndBuffersInOrder() {
+        HistoryStore historyStore = newStore(new Config(properties));
+        appendDoubles(historyStore, 0, 1000);
+
+        // 128 samples a segment: some written, some on their way to the writer, the rest buffered
+        List<Long> forward = scan(historyStore, Long.MIN_VALUE, Long.MAX_VALUE, false);
+        assertEquals(1000, forward.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(START + i * 1000L, forward.get(i));
+        }
+
+        List<Long> reverse = scan(historyStore, START + 100_000, START + 899_000, true);
+        assertEquals(800, reverse.size());
+        assertEquals(START + 899_000, reverse.get(0));
+        assertEquals(START + 100_000, reverse.get(799));
+    }
+
+    @Test
+    void visitorStopsTheScan() {
+        HistoryStore historyStore = newStore(new Config(properties));
+        appendDoubles(historyStore, 0, 500);
+
+        List<Long> times = new ArrayList<>();
+        historyStore.scan(NODE, Long.MIN_VALUE, Long.MAX_VALUE, false, (time, bits, type, status) -> {
+            times.add(time);
+            return times.size() < 200;
+        });
+
+        assertEquals(200, times.size());
+    }
+
+    @Test
+    void keepsEachValueType() {
+        HistoryStore historyStore = newStore(new Config(properties));
+        appendDoubles(historyStore, 0, 10);
+        historyStore.append(NODE, value(true, 10));
+        historyStore.append(NODE, value(7L, 11));
+
+        List<Object> values = new ArrayList<>();
+        historyStore.scan(NODE, Long.MIN_VALUE, Long.MAX_VALUE, false, (time, bits, type, status) ->
+            values.add(HistoryStore.fromBits(bits, type)));
+
+        assertEquals(12, values.size());
+        assertEquals(9.5, values.get(9));
+        assertEquals(true, values.get(10));
+        assertEquals(7L, values.get(11));
+    }
+
+    @Test
+    void earlierTimestampsAreStoredAsTheLatest() {
+        HistoryStore historyStore = newStore(new Config(properties));
+        historyStore.append(NODE, value(1.0, 10));
+        historyStore.append(NODE, value(2.0, 5));
+
+        List<Long> times = scan(historyStore, Long.MIN_VALUE, Long.MAX_VALUE, false);
+        assertEquals(List.of(START + 10_000, START + 10_000), times);
+    }
+
+    @Test
+    void reloadsHistoryWrittenOnClose() {
+        HistoryStore historyStore = newStore(new Config(properties));
+        appendDoubles(historyStore, 0, 300);
+        historyStore.close();
+
+        // A cache of one segment still reads all of them
+        properties.setProperty("history.cachedSegments", "1");
+        HistoryStore reopened = newStore(new Config(properties));
+
+        assertTrue(reopened.hasHistory(NODE));
+        assertFalse(reopened.hasHistory(new NodeId(2, "ICPS/nodeDevices/none")));
+        assertEquals(300, scan(reopened, Long.MIN_VALUE, Long.MAX_VALUE, false).size());
+        assertEquals(300, scan(reopened, Long.MIN_VALUE, Long.MAX_VALUE, true).size());
+    }
+
+    @Test
+    void disabledStoreKeepsNothing() {
+        properties.setProperty("history.enabled", "false");
+        HistoryStore historyStore = newStore(new Config(properties));
+        appendDoubles(historyStore, 0, 10);
+
+        assertFalse(historyStore.hasHistory(NODE));
+        assertEquals(0, historyStore.getAppended());
+    }
+
+    private HistoryStore newStore(Config config) {
+        HistoryStore historyStore = new HistoryStore(config, server.getPointStore(), server.getMetrics());
+        stores.add(historyStore);
+        return historyStore;
+    }
+
+    private static void appendDoubles(HistoryStore historyStore, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            historyStore.append(NODE, value(i + 0.5, i));
+        }
+    }
+
+    private static DataValue value(Object value, int second) {
+        return new DataValue(
+            new Variant(value), StatusCode.GOOD, GatewayReading.toDateTime(START + second * 1000L), null);
+    }
+
+    private static List<Long> scan(HistoryStore historyStore, long from, long to, boolean reverse) {
+        List<Long> times = new ArrayList<>();
+        historyStore.scan(NODE, from, to, reverse, (time, bits, type, status) -> times.add(time));
+        return times;
+    }
+
+}
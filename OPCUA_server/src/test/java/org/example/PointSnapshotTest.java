@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PointSnapshotTest {
+
+    private final TestServer server = new TestServer();
+    private final PointStore store = server.getPointStore();
+    private final List<GatewayPoint> points = new ArrayList<>();
+
+    private PointSnapshot snapshot;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Properties properties = new Properties();
+        Path file = Files.createTempDirectory("snapshot").resolve("points.snap");
+        properties.setProperty("snapshot.file", file.toString());
+
+        snapshot = new PointSnapshot(new Config(properties), server.getMetrics());
+    }
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        GatewayPoint temperature = add("12/temperature", 12, "temperature", Identifiers.Double, null);
+        GatewayPoint plug = add("Smart plug", 4, "smartplug", Identifiers.Boolean, "onoff");
+        GatewayPoint label = add("Label", 7, "label", Identifiers.String, null);
+        GatewayPoint waiting = add("Waiting", 8, "humidity", Identifiers.Double, null);
+        GatewayPoint custom = add("Custom", 9, "custom", new NodeId(2, "CustomType"), null);
+
+        store.write(temperature, 21.5, 0);
+        store.write(plug, true, 0);
+        store.write(label, "Living room \u00e9", (int) StatusCodes.Uncertain_LastUsableValue);
+        store.write(custom, 3L, 0);
+
+        snapshot.write(points, store, point -> point == custom ? null : "Device " + point.getDeviceId());
+        List<PointSnapshot.Entry> entries = snapshot.read();
+
+        assertEquals(5, entries.size());
+
+        PointSnapshot.Entry entry = entries.get(0);
+        assertEquals(Gateway.DEFAULT, entry.getGateway());
+        assertEquals(12, entry.getDeviceId());
+        assertEquals("temperature", entry.getLdevKey());
+        assertEquals("Device 12", entry.getDeviceName());
+        assertEquals(Identifiers.Double, entry.getDataType());
+        assertNull(entry.getCommandKey());
+        assertTrue(entry.hasValue());
+        assertEquals(PointStore.KIND_DOUBLE, entry.getKind());
+        assertEquals(store.bits(temperature), entry.getBits());
+        assertEquals(store.get(temperature).getSourceTime().getUtcTime(), entry.getSourceTime());
+
+        assertEquals("onoff", entries.get(1).getCommandKey());
+        assertEquals(1, entries.get(1).getBits());
+
+        assertEquals("Living room \u00e9", entries.get(2).getObject());
+        assertEquals(StatusCodes.Uncertain_LastUsableValue, entries.get(2).getStatus() & 0xFFFFFFFFL);
+
+        // A point waiting for its first value keeps no value
+        assertFalse(entries.get(3).hasValue());
+
+        // A non-standard data type reads back as BaseDataType
+        assertNull(entries.get(4).getDeviceName());
+        assertEquals(Identifiers.BaseDataType, entries.get(4).getDataType());
+        assertEquals(3L, entries.get(4).getObject());
+    }
+
+    @Test
+    void growsItsBufferForLargeSnapshots() throws IOException {
+        char[] text = new char[10_000];
+        Arrays.fill(text, 'x');
+
+        for (int i = 0; i < 20; i++) {
+            GatewayPoint point = add("Label " + i, i, "label", Identifiers.String, null);
+            store.write(point, new String(text) + i, 0);
+        }
+
+        snapshot.write(points, store, point -> null);
+        List<PointSnapshot.Entry> entries = snapshot.read();
+
+        assertEquals(20, entries.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(new String(text) + i, entries.get(i).getObject());
+        }
+    }
+
+    @Test
+    void ignoresCorruptAndTruncatedSnapshots() throws IOException {
+        assertEquals(List.of(), snapshot.read(), "missing");
+
+        GatewayPoint temperature = add("12/temperature", 12, "temperature", Identifiers.Double, null);
+        store.write(temperature, 21.5, 0);
+        snapshot.write(points, store, point -> null);
+
+        Path file = snapshot.getFile();
+        byte[] bytes = Files.readAllBytes(file);
+        assertEquals(1, snapshot.read().size());
+
+        byte[] corrupt = bytes.clone();
+        corrupt[30] ^= 1;
+        Files.write(file, corrupt);
+        assertEquals(List.of(), snapshot.read(), "checksum mismatch");
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 6));
+        assertEquals(List.of(), snapshot.read(), "truncated");
+
+        Files.write(file, new byte[8]);
+        assertEquals(List.of(), snapshot.read(), "not a snapshot");
+    }
+
+    @Test
+    void replacesThePreviousSnapshot() throws IOException {
+        GatewayPoint temperature = add("12/temperature", 12, "temperature", Identifiers.Double, null);
+        store.write(temperature, 21.5, 0);
+        snapshot.write(points, store, point -> null);
+
+        store.write(temperature, 22.0, 0);
+        snapshot.write(points, store, point -> null);
+
+        assertEquals(store.bits(temperature), snapshot.read().get(0).getBits());
+        assertFalse(Files.exists(snapshot.getFile().resolveSibling("points.snap.tmp")));
+    }
+
+    private GatewayPoint add(String name, int deviceId, String ldevKey, NodeId dataType, String commandKey) {
+        GatewayPoint point = server.newPoint(name, deviceId, ldevKey, dataType, commandKey);
+        points.add(point);
+        return point;
+    }
+
+}
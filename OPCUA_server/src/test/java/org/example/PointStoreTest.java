@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PointStoreTest {
+
+    private final TestServer server = new TestServer();
+    private final PointStore store = new PointStore(new Metrics());
+
+    @Test
+    void writeForRemovedPointMissesSlotsNextOwner() {
+        GatewayPoint removed = store.newPoint(
+            Gateway.DEFAULT, 1, "temperature", server.newDeviceNode("Removed", Identifiers.Double), null);
+        store.remove(removed);
+
+        GatewayPoint owner = store.newPoint(
+            Gateway.DEFAULT, 2, "temperature", server.newDeviceNode("Owner", Identifiers.Double), null);
+        assertEquals(removed.getSlot(), owner.getSlot());
+
+        long now = DateTime.now().getUtcTime();
+        assertTrue(store.write(owner, PointStore.toBits(PointStore.KIND_DOUBLE, 21.5), null, 0, now));
+        assertFalse(store.write(removed, PointStore.toBits(PointStore.KIND_DOUBLE, 99.0), null, 0, now));
+        store.touch(removed);
+
+        assertEquals(21.5, store.get(owner).getValue().getValue());
+    }
+
+}
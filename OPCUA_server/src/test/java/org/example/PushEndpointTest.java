@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PushEndpointTest {
+
+    private final TestServer server = new TestServer();
+
+    // The values of the points updated by pushed records, in order
+    private final BlockingQueue<Object> updates = new LinkedBlockingQueue<>();
+
+    private final Properties properties = new Properties();
+
+    private PushEndpoint pushEndpoint;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            properties.setProperty("push.port", Integer.toString(socket.getLocalPort()));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void decodesLinesSplitAcrossWrites() throws Exception {
+        start();
+        GatewayPoint plug = server.newPoint("Smart plug", 4, "smartplug", Identifiers.Boolean, "onoff");
+
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+
+            send(out, "{\"id\": 12, \"key\": \"temperature\", \"val");
+            send(out, "ue\": 21.5}\r\n\n   \n{\"id\": 12, \"key\": \"temperature\", \"value\": 22.5}\n{\"id\": 1");
+            send(out, "2, \"key\": \"temperature\", \"value\": 23.5}\n");
+
+            assertEquals(21.5, next());
+            assertEquals(22.5, next());
+            assertEquals(23.5, next());
+
+            // Dropped, then the record that shows they were processed
+            send(out, "{\"id\": 12, \"key\": \"temperature\", \"value\": }\n");
+            send(out, "{\"id\": 12, \"value\": 1.0}\n");
+            send(out, "{\"id\": 99, \"key\": \"temperature\", \"value\": 1.0}\n");
+            send(out, "{\"id\": " + plug.getDeviceId() + ", \"key\": \"smartplug\", \"value\": true}\n");
+            send(out, "{\"id\": 12, \"key\": \"temperature\", \"value\": 24.5}\n");
+
+            assertEquals(24.5, next());
+        }
+
+        assertEquals(4, counter("push.records"));
+        assertEquals(2, counter("push.malformed"));
+        assertEquals(2, counter("push.ignored"));
+    }
+
+    @Test
+    void throttlesSourcesOverTheirRate() throws Exception {
+        properties.setProperty("push.maxRate", "20");
+        start();
+
+        long start = System.nanoTime();
+
+        try (Socket socket = connect()) {
+            StringBuilder records = new StringBuilder();
+            for (int i = 0; i < 50; i++) {
+                records.append("{\"id\": 12, \"key\": \"temperature\", \"value\": ").append(i).append("}\n");
+            }
+            send(socket.getOutputStream(), records.toString());
+
+            for (int i = 0; i < 50; i++) {
+                assertEquals((double) i, next());
+            }
+        }
+
+        // A burst of 20, then 30 more at 20 a second
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(millis >= 1400, "50 records in " + millis + " ms");
+        assertTrue(counter("push.throttled") > 0);
+    }
+
+    @Test
+    void disconnectsSourcesOfOverlongRecords() throws Exception {
+        start();
+
+        try (Socket socket = connect()) {
+            byte[] record = new byte[PushEndpoint.MAX_RECORD + 100];
+            Arrays.fill(record, (byte) ' ');
+            socket.getOutputStream().write(record);
+            socket.getOutputStream().flush();
+
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TestServer.TIMEOUT_SECONDS));
+            InputStream in = socket.getInputStream();
+
+            assertEquals(-1, in.read(), "the endpoint kept the source");
+        }
+    }
+
+    private void start() throws IOException {
+        server.startGateway(properties);
+        Gateway gateway = server.getGateway();
+
+        server.newPoint("12/temperature", 12, "temperature", Identifiers.Double, null);
+        gateway.getBulkPoller().addListener(
+            point -> updates.add(server.getPointStore().get(point).getValue().getValue()));
+
+        pushEndpoint = gateway.getPushEndpoint();
+        pushEndpoint.start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", pushEndpoint.getPort());
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private static void send(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private Object next() throws InterruptedException {
+        return updates.poll(TestServer.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private long counter(String name) {
+        return server.getMetrics().getCounters().get(name).sum();
+    }
+
+}
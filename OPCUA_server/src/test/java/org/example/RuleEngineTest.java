@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuleEngineTest {
+
+    private final TestServer server = new TestServer();
+    private final Properties properties = new Properties();
+
+    // The Active node of every started rule, by rule name
+    private final Map<String, UaVariableNode> active = new HashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void andBindsTighterThanOr() {
+        RuleEngine ruleEngine = newEngine("r", "a > 1 && b < 5 || c == true");
+        GatewayPoint a = bind(ruleEngine, "a", Identifiers.Double);
+        GatewayPoint b = bind(ruleEngine, "b", Identifiers.Double);
+        GatewayPoint c = bind(ruleEngine, "c", Identifiers.Boolean);
+
+        update(ruleEngine, a, 2.0);
+        assertFalse(isActive("r"), "a alone");
+
+        update(ruleEngine, b, 4.0);
+        assertTrue(isActive("r"), "a && b");
+
+        update(ruleEngine, a, 0.0);
+        assertFalse(isActive("r"), "b alone");
+
+        update(ruleEngine, c, true);
+        assertTrue(isActive("r"), "c");
+    }
+
+    @Test
+    void comparesWithEveryOperator() {
+        Object[][] cases = {
+            {"x == 3", 3.0, true}, {"x == 3", 3.5, false},
+            {"x != 3", 3.5, true}, {"x != 3", 3.0, false},
+            {"x <= 3", 3.0, true}, {"x <= 3", 3.1, false},
+            {"x >= 3", 3.0, true}, {"x >= 3", 2.9, false},
+            {"x < -1.5", -2.0, true}, {"x < -1.5", -1.5, false},
+            {"x > 1e3", 1001.0, true}, {"x > 1e3", 1000.0, false},
+        };
+
+        for (Object[] test : cases) {
+            active.clear();
+            RuleEngine ruleEngine = newEngine("r", (String) test[0]);
+            GatewayPoint x = bind(ruleEngine, "x", Identifiers.Double);
+
+            update(ruleEngine, x, test[1]);
+
+            assertEquals(test[2], isActive("r"), test[0] + " with x = " + test[1]);
+        }
+    }
+
+    @Test
+    void valueWithoutGoodStatusComparesFalse() {
+        RuleEngine ruleEngine = newEngine("r", "x != 3");
+        GatewayPoint x = bind(ruleEngine, "x", Identifiers.Double);
+
+        assertFalse(isActive("r"), "waiting for the initial value");
+
+        update(ruleEngine, x, 5.0);
+        assertTrue(isActive("r"));
+
+        server.getPointStore().writeStatus(x, (int) StatusCodes.Bad_NoCommunication);
+        ruleEngine.onUpdate(x);
+        assertFalse(isActive("r"));
+    }
+
+    @Test
+    void bindsNodesDiscoveredLater() {
+        RuleEngine ruleEngine = newEngine("r", "later/node >= 1");
+        GatewayPoint point = server.newPoint("later/node", 12, "temperature", Identifiers.Double, null);
+        server.getPointStore().write(point, 1.0, 0);
+
+        assertFalse(ruleEngine.reads(point));
+
+        ruleEngine.bind("later/node", point);
+
+        assertTrue(ruleEngine.reads(point));
+        assertTrue(isActive("r"), "evaluated on binding");
+
+        ruleEngine.unbind(point);
+
+        assertFalse(ruleEngine.reads(point));
+        assertFalse(isActive("r"), "an unbound node has no value");
+    }
+
+    @Test
+    void ignoresMalformedRules() {
+        properties.setProperty("rules", "ok, bad-name, noWhen, noThen, noComparison, noNode, notANumber, noEquals");
+        properties.setProperty("rules.ok.when", "x > 1");
+        properties.setProperty("rules.ok.then", "y = 1");
+        properties.setProperty("rules.bad-name.when", "x > 1");
+        properties.setProperty("rules.bad-name.then", "y = 1");
+        properties.setProperty("rules.noWhen.then", "y = 1");
+        properties.setProperty("rules.noThen.when", "x > 1");
+        properties.setProperty("rules.noComparison.when", "x");
+        properties.setProperty("rules.noComparison.then", "y = 1");
+        properties.setProperty("rules.noNode.when", "> 1");
+        properties.setProperty("rules.noNode.then", "y = 1");
+        properties.setProperty("rules.notANumber.when", "x > one");
+        properties.setProperty("rules.notANumber.then", "y = 1");
+        properties.setProperty("rules.noEquals.when", "x > 1");
+        properties.setProperty("rules.noEquals.then", "y 1");
+
+        start(new RuleEngine(new Config(properties), point -> null, server.getPointStore(), server.getMetrics()));
+
+        assertEquals(Map.of("ok", active.get("ok")), active);
+    }
+
+    @Test
+    void firesWithoutSubscriptions() throws Exception {
+        properties.setProperty("rules", "heat");
+        properties.setProperty("rules.heat.when", "12/temperature > -100");
+        properties.setProperty("rules.heat.then", "Smart plug = true");
+
+        Config config = server.startGateway(properties);
+        Gateway gateway = server.getGateway();
+        RuleEngine ruleEngine = new RuleEngine(
+            config, point -> gateway.getActuatorWriter(), server.getPointStore(), server.getMetrics());
+
+        gateway.getBulkPoller().addListener(ruleEngine);
+        gateway.getActuatorWriter().addListener(ruleEngine);
+
+        GatewayPoint temperature = server.newPoint("12/temperature", 12, "temperature", Identifiers.Double, null);
+        GatewayPoint plug = server.newPoint("Smart plug", 4, "smartplug", Identifiers.Boolean, "onoff");
+        ruleEngine.bind("12/temperature", temperature);
+        ruleEngine.bind("Smart plug", plug);
+
+        CountDownLatch written = new CountDownLatch(1);
+        gateway.getActuatorWriter().addListener(point -> {
+            if (point == plug) written.countDown();
+        });
+
+        // No DataItem monitors either node, so only the rule's own demand gets the temperature polled
+        assertTrue(server.awaitPoll(temperature, ruleEngine.reads(temperature)), "temperature was never polled");
+        assertTrue(written.await(TestServer.TIMEOUT_SECONDS, TimeUnit.SECONDS), "the plug was never switched");
+        assertEquals(true, server.getPointStore().get(plug).getValue().getValue());
+    }
+
+    private RuleEngine newEngine(String name, String when) {
+        properties.setProperty("rules", name);
+        properties.setProperty("rules." + name + ".when", when);
+        properties.setProperty("rules." + name + ".then", "target = 1");
+
+        return start(new RuleEngine(
+            new Config(properties), point -> null, server.getPointStore(), server.getMetrics()));
+    }
+
+    private RuleEngine start(RuleEngine ruleEngine) {
+        ruleEngine.start((rule, name, dataType) -> {
+            UaVariableNode node = server.newDeviceNode(rule + "/" + name, dataType);
+            if (name.equals("Active")) active.put(rule, node);
+            return node;
+        });
+        return ruleEngine;
+    }
+
+    private GatewayPoint bind(RuleEngine ruleEngine, String name, NodeId dataType) {
+        GatewayPoint point = server.newPoint(name, 12, name, dataType, null);
+        ruleEngine.bind(name, point);
+        return point;
+    }
+
+    private void update(RuleEngine ruleEngine, GatewayPoint point, Object value) {
+        server.getPointStore().write(point, value, 0);
+        ruleEngine.onUpdate(point);
+    }
+
+    private boolean isActive(String rule) {
+        return Boolean.TRUE.equals(active.get(rule).getValue().getValue().getValue());
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2019 the Eclipse Milo Authors
+ *
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.example;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.UaNodeManager;
+import org.eclipse.milo.opcua.sdk.server.api.NodeManager;
+import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNodeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.jetbrains.annotations.Nullable;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+/**
+ * An {@link OpcUaServer} without endpoints, as the node context of device nodes created the way {@link Namespace}
+ * creates them, and optionally a {@link Gateway} polling a local {@link GatewaySimulator} into its own
+ * {@link PointStore}.
+ */
+class TestServer implements UaNodeContext, AutoCloseable {
+
+    static final long TIMEOUT_SECONDS = 5;
+
+    private final NodeManager<UaNode> nodeManager = new UaNodeManager();
+
+    private final OpcUaServer server =
+        new OpcUaServer(OpcUaServerConfig.builder().setApplicationUri("urn:sdu:milo:test").build());
+
+    private final Metrics metrics = new Metrics();
+    private final PointIndex pointIndex = new PointIndex();
+    private final PointStore store = new PointStore(metrics);
+
+    @Nullable
+    private GatewaySimulator simulator;
+    @Nullable
+    private Gateway gateway;
+
+    @Override
+    public OpcUaServer getServer() {
+        return server;
+    }
+
+    @Override
+    public NodeManager<UaNode> getNodeManager() {
+        return nodeManager;
+    }
+
+    /**
+     * A device node of {@code dataType} still waiting for its first value.
+     */
+    UaVariableNode newDeviceNode(String name, NodeId dataType) {
+        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(this)
+            .setNodeId(new NodeId(2, "ICPS/nodeDevices/" + name))
+            .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
+            .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite)))
+            .setBrowseName(new QualifiedName(2, name))
+            .setDisplayName(LocalizedText.english(name))
+            .setDataType(dataType)
+            .setTypeDefinition(Identifiers.BaseDataVariableType)
+            .build();
+
+        node.setValue(new DataValue(new StatusCode(StatusCodes.Bad_WaitingForInitialData)));
+        nodeManager.addNode(node);
+
+        return node;
+    }
+
+    /**
+     * Start a simulator of {@code sim.devices} (12) devices whose values only change when commanded, and a gateway
+     * polling it every {@code poll.interval} (100) ms; {@code properties} configures both.
+     *
+     * @return the gateway's configuration, for the engines under test.
+     */
+    Config startGateway(Properties properties) throws IOException {
+        properties.putIfAbsent("sim.port", "0");
+        properties.putIfAbsent("sim.devices", "12");
+        properties.putIfAbsent("sim.changeRate", "0");
+        properties.putIfAbsent("sim.latency.mean", "1");
+
+        simulator = new GatewaySimulator(new Config(properties));
+        simulator.start();
+
+        properties.setProperty("gateway.url", "http://localhost:" + simulator.getPort() + "/ssapi/zb");
+        properties.putIfAbsent("poll.interval", "100");
+        properties.putIfAbsent("poll.tick", "20");
+
+        Config config = new Config(properties);
+        gateway = new Gateway(
+            Gateway.DEFAULT, config, metrics, pointIndex, store, new ChangeFilter(config, store, metrics));
+
+        return config;
+    }
+
+    /**
+     * A point of the gateway on a new device node, as discovery adds it.
+     */
+    GatewayPoint newPoint(String name, int deviceId, String ldevKey, NodeId dataType, @Nullable String commandKey) {
+        UaVariableNode node = newDeviceNode(name, dataType);
+        GatewayPoint point = store.newPoint(Gateway.DEFAULT, deviceId, ldevKey, node, commandKey);
+
+        pointIndex.add(point);
+        return point;
+    }
+
+    /**
+     * Schedule {@code point} with no DataItem monitoring it, and wait for its first successful poll.
+     *
+     * @return {@code false} if it wasn't polled within {@value #TIMEOUT_SECONDS} s.
+     */
+    boolean awaitPoll(GatewayPoint point, boolean internalDemand) throws InterruptedException {
+        CountDownLatch polled = new CountDownLatch(1);
+        PollingScheduler pollingScheduler = getGateway().getPollingScheduler();
+
+        pollingScheduler.addListener((polledPoint, failure) -> {
+            if (polledPoint == point && failure == null) polled.countDown();
+        });
+        pollingScheduler.add(point, internalDemand);
+        pollingScheduler.start();
+
+        return polled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    PointIndex getPointIndex() {
+        return pointIndex;
+    }
+
+    PointStore getPointStore() {
+        return store;
+    }
+
+    GatewaySimulator getSimulator() {
+        if (simulator == null) throw new IllegalStateException("no gateway started");
+        return simulator;
+    }
+
+    Gateway getGateway() {
+        if (gateway == null) throw new IllegalStateException("no gateway started");
+        return gateway;
+    }
+
+    @Override
+    public void close() {
+        if (gateway != null) gateway.close();
+        if (simulator != null) simulator.close();
+    }
+
+}